@@ -0,0 +1,138 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.coverity.security.Escape;
+
+/**
+ * Escapes a batch of short values, like the cells of a report export, one at a time and
+ * with the bulk methods of {@link Escape}. The bulk methods run in a fork/join pool of
+ * <code>threads</code> threads, to measure the speedup by core count: on a machine with
+ * fewer cores than threads, the extra threads only add overhead.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BulkBenchmark {
+
+    @Param({Corpus.SAFE, Corpus.ATTACK})
+    public String kind;
+
+    @Param({"50000"})
+    public int count;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private String[] values;
+    private String[] escaped;
+    private List<String> list;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() {
+        // Values of 8 to 64 characters cut from the corpus
+        String text = Corpus.generate(kind, count * 64);
+        Random random = new Random(42);
+        values = new String[count];
+        for (int i = 0; i < count; i++) {
+            int start = random.nextInt(text.length() - 64);
+            values[i] = text.substring(start, start + 8 + random.nextInt(57));
+        }
+        escaped = new String[count];
+        list = Arrays.asList(values);
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public String[] loop() {
+        for (int i = 0; i < values.length; i++)
+            escaped[i] = Escape.html(values[i]);
+        return escaped;
+    }
+
+    @Benchmark
+    public String[] htmlAllArray() throws Exception {
+        return inPool(new Callable<String[]>() {
+            public String[] call() {
+                Escape.htmlAll(values, escaped);
+                return escaped;
+            }
+        });
+    }
+
+    @Benchmark
+    public List<String> htmlAllList() throws Exception {
+        return inPool(new Callable<List<String>>() {
+            public List<String> call() {
+                return Escape.htmlAll(list);
+            }
+        });
+    }
+
+    @Benchmark
+    public List<String> toHtmlList() throws Exception {
+        return inPool(new Callable<List<String>>() {
+            public List<String> call() {
+                return list.parallelStream().collect(Escape.toHtmlList());
+            }
+        });
+    }
+
+    private <T> T inPool(Callable<T> task) throws InterruptedException, ExecutionException {
+        return pool.submit(task).get();
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.coverity.security.CachedEscaper;
+import com.coverity.security.Escape;
+
+/**
+ * Escapes values drawn from a catalog of names, such as brand names, directly and through a
+ * cache that holds the whole catalog or half of it. The names of the <code>escaped</code>
+ * catalog all need escaping, and the ones of the <code>safe</code> catalog never do. Run it
+ * with <code>-t</code> to measure the contention between threads sharing the cache.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheBenchmark {
+
+    private static final int CATALOG_SIZE = 4096;
+
+    // Number of precomputed draws of each thread
+    private static final int DRAWS = 1 << 16;
+
+    @Param({"4096", "2048"})
+    public int maxEntries;
+
+    @Param({"escaped", "safe"})
+    public String catalogKind;
+
+    private String[] catalog;
+    private CachedEscaper html;
+    private CachedEscaper jsString;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private final int[] draws = new int[DRAWS];
+        private int next;
+
+        @Setup
+        public void setup() {
+            Random random = new Random();
+            for (int i = 0; i < DRAWS; i++) {
+                // Skewed towards the first values, like the popular items of a catalog
+                int a = random.nextInt(CATALOG_SIZE);
+                int b = random.nextInt(CATALOG_SIZE);
+                draws[i] = Math.min(a, b);
+            }
+        }
+
+        String next(String[] catalog) {
+            next = (next + 1) & (DRAWS - 1);
+            return catalog[draws[next]];
+        }
+    }
+
+    @Setup
+    public void setup() {
+        catalog = new String[CATALOG_SIZE];
+        for (int i = 0; i < CATALOG_SIZE; i++)
+            catalog[i] = "escaped".equals(catalogKind) ? "Ben & Jerry's <" + i + "> \"Chunky\" Monkey"
+                                                       : "Ben_and_Jerry_" + i + "_Chunky_Monkey";
+        html = Escape.cached(Escape.Context.HTML, maxEntries);
+        jsString = Escape.cached(Escape.Context.JS_STRING, maxEntries);
+    }
+
+    @Benchmark
+    public String html(Cursor cursor) {
+        return Escape.html(cursor.next(catalog));
+    }
+
+    @Benchmark
+    public String htmlCached(Cursor cursor) {
+        return html.escape(cursor.next(catalog));
+    }
+
+    @Benchmark
+    public String jsString(Cursor cursor) {
+        return Escape.jsString(cursor.next(catalog));
+    }
+
+    @Benchmark
+    public String jsStringCached(Cursor cursor) {
+        return jsString.escape(cursor.next(catalog));
+    }
+}
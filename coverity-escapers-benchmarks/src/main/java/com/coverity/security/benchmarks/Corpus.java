@@ -0,0 +1,103 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Corpus generates the deterministic inputs used by the escaper benchmarks.
+ *
+ * The kinds of text are meant to represent what the escapers see in production:
+ * <ul>
+ * <li><code>safe</code>: mostly-safe ASCII, words and identifiers with some rare punctuation</li>
+ * <li><code>attack</code>: dense XSS payloads where most characters must be escaped</li>
+ * <li><code>unicode</code>: CJK text mixed with emoji (surrogate pairs) and some ASCII</li>
+ * </ul>
+ */
+public final class Corpus {
+
+    public static final String SAFE = "safe";
+    public static final String ATTACK = "attack";
+    public static final String UNICODE = "unicode";
+
+    private static final String[] SAFE_WORDS = {
+        "product", "Catalog", "id42", "brand", "Category", "tag", "item",
+        "Widget", "2016", "blue", "Summer_sale", "X1000"
+    };
+
+    private static final String SAFE_PUNCTUATION = " ,.-'/";
+
+    private static final String[] ATTACKS = {
+        "\"><script>alert(1)</script>",
+        "';alert(String.fromCharCode(88,83,83))//",
+        "</style><img src=x onerror=alert(1)>",
+        "javascript:alert(document.cookie)",
+        "\u2028\\\\\"'&%_@[]{}()*+?.^$|",
+        "\t\n\f\r\u2028\u2029"
+    };
+
+    private static final String CJK = "\u6F22\u5B57\u4EEE\u540D\u4E2D\u6587\uD55C\uAD6D\uC5B4\u65E5\u672C\u8A9E";
+    private static final String[] EMOJI = {
+        "\uD83D\uDE00", "\uD83D\uDC4D", "\uD83C\uDF89", "\uD83D\uDE80"
+    };
+
+    private Corpus() {
+    }
+
+    /**
+     * Returns a string of exactly <code>length</code> characters of the given kind.
+     */
+    public static String generate(String kind, int length) {
+        Random random = new Random(42 + length);
+        StringBuilder sb = new StringBuilder(length + 64);
+        while (sb.length() < length) {
+            if (SAFE.equals(kind)) {
+                sb.append(SAFE_WORDS[random.nextInt(SAFE_WORDS.length)]);
+                // Roughly one word in fifty is followed by punctuation
+                if (random.nextInt(50) == 0)
+                    sb.append(SAFE_PUNCTUATION.charAt(random.nextInt(SAFE_PUNCTUATION.length())));
+            } else if (ATTACK.equals(kind)) {
+                sb.append(ATTACKS[random.nextInt(ATTACKS.length)]);
+            } else if (UNICODE.equals(kind)) {
+                int n = 1 + random.nextInt(8);
+                for (int i = 0; i < n; i++)
+                    sb.append(CJK.charAt(random.nextInt(CJK.length())));
+                if (random.nextInt(4) == 0)
+                    sb.append(EMOJI[random.nextInt(EMOJI.length)]);
+                if (random.nextInt(8) == 0)
+                    sb.append(SAFE_WORDS[random.nextInt(SAFE_WORDS.length)]);
+            } else {
+                throw new IllegalArgumentException("Unknown corpus: " + kind);
+            }
+        }
+        sb.setLength(length);
+        // Do not leave a dangling high surrogate at the end of the input
+        if (length > 0 && Character.isHighSurrogate(sb.charAt(length - 1)))
+            sb.setCharAt(length - 1, 'x');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.coverity.security.Escape;
+
+/**
+ * Compares escaping straight to an <code>OutputStream</code> with escaping to a
+ * <code>String</code> followed by <code>getBytes</code>, and with an
+ * <code>OutputStreamWriter</code> around the stream.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodeBenchmark {
+
+    @Param({Corpus.SAFE, Corpus.ATTACK, Corpus.UNICODE})
+    public String corpus;
+
+    @Param({"64", "1024", "65536"})
+    public int size;
+
+    @Param({"UTF-8", "ISO-8859-1"})
+    public String encoding;
+
+    private String input;
+    private Charset charset;
+    private ByteArrayOutputStream output;
+
+    @Setup
+    public void setup() {
+        input = Corpus.generate(corpus, size);
+        charset = Charset.forName(encoding);
+        output = new ByteArrayOutputStream(size * 8);
+    }
+
+    private OutputStream reset() {
+        output.reset();
+        return output;
+    }
+
+    @Benchmark
+    public OutputStream htmlOutputStream() throws IOException {
+        OutputStream out = reset();
+        Escape.html(input, out, charset);
+        return out;
+    }
+
+    @Benchmark
+    public OutputStream htmlGetBytes() throws IOException {
+        OutputStream out = reset();
+        out.write(Escape.html(input).getBytes(charset));
+        return out;
+    }
+
+    @Benchmark
+    public OutputStream htmlOutputStreamWriter() throws IOException {
+        OutputStream out = reset();
+        Writer writer = new OutputStreamWriter(out, charset);
+        Escape.html(input, writer);
+        writer.flush();
+        return out;
+    }
+
+    @Benchmark
+    public OutputStream jsStringOutputStream() throws IOException {
+        OutputStream out = reset();
+        Escape.jsString(input, out, charset);
+        return out;
+    }
+
+    @Benchmark
+    public OutputStream jsStringGetBytes() throws IOException {
+        OutputStream out = reset();
+        out.write(Escape.jsString(input).getBytes(charset));
+        return out;
+    }
+}
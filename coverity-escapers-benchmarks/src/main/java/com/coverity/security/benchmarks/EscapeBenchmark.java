@@ -0,0 +1,249 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security.benchmarks;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.coverity.security.Escape;
+
+/**
+ * Throughput of every public method of {@link Escape}, over the {@link Corpus} kinds
+ * and input sizes from one character to 10 MB.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EscapeBenchmark {
+
+    @Param({Corpus.SAFE, Corpus.ATTACK, Corpus.UNICODE})
+    public String corpus;
+
+    @Param({"1", "64", "1024", "65536", "10485760"})
+    public int size;
+
+    private String input;
+    private StringBuilder sequence;
+    private CharBuffer buffer;
+    private char[] chars;
+    private char[] escaped;
+    private StringBuilder output;
+
+    @Setup
+    public void setup() {
+        input = Corpus.generate(corpus, size);
+        sequence = new StringBuilder(input);
+        chars = input.toCharArray();
+        buffer = CharBuffer.wrap(chars);
+        escaped = new char[Escape.html(input).length()];
+        output = new StringBuilder();
+    }
+
+    private StringBuilder reset() {
+        output.setLength(0);
+        return output;
+    }
+
+    @Benchmark
+    public String html() {
+        return Escape.html(input);
+    }
+
+    @Benchmark
+    public StringBuilder htmlAppendable() throws IOException {
+        StringBuilder sb = reset();
+        Escape.html(input, sb);
+        return sb;
+    }
+
+    @Benchmark
+    public String htmlSequence() {
+        return Escape.html(sequence);
+    }
+
+    @Benchmark
+    public String htmlSequenceToString() {
+        return Escape.html(sequence.toString());
+    }
+
+    @Benchmark
+    public String htmlCharBuffer() {
+        return Escape.html(buffer);
+    }
+
+    @Benchmark
+    public String htmlCharBufferToString() {
+        return Escape.html(buffer.toString());
+    }
+
+    @Benchmark
+    public int htmlCharArray() {
+        return Escape.html(chars, 0, chars.length, escaped, 0);
+    }
+
+    @Benchmark
+    public boolean isHtmlSafe() {
+        return Escape.isHtmlSafe(input);
+    }
+
+    @Benchmark
+    public String htmlText() {
+        return Escape.htmlText(input);
+    }
+
+    @Benchmark
+    public StringBuilder htmlTextAppendable() throws IOException {
+        StringBuilder sb = reset();
+        Escape.htmlText(input, sb);
+        return sb;
+    }
+
+    @Benchmark
+    public boolean isUriParamSafe() {
+        return Escape.isUriParamSafe(input);
+    }
+
+    @Benchmark
+    public String uriParam() {
+        return Escape.uriParam(input);
+    }
+
+    @Benchmark
+    public StringBuilder uriParamAppendable() throws IOException {
+        StringBuilder sb = reset();
+        Escape.uriParam(input, sb);
+        return sb;
+    }
+
+    @Benchmark
+    public String uri() {
+        return Escape.uri(input);
+    }
+
+    @Benchmark
+    public StringBuilder uriAppendable() throws IOException {
+        StringBuilder sb = reset();
+        Escape.uri(input, sb);
+        return sb;
+    }
+
+    @Benchmark
+    public String jsString() {
+        return Escape.jsString(input);
+    }
+
+    @Benchmark
+    public StringBuilder jsStringAppendable() throws IOException {
+        StringBuilder sb = reset();
+        Escape.jsString(input, sb);
+        return sb;
+    }
+
+    @Benchmark
+    public String jsRegex() {
+        return Escape.jsRegex(input);
+    }
+
+    @Benchmark
+    public StringBuilder jsRegexAppendable() throws IOException {
+        StringBuilder sb = reset();
+        Escape.jsRegex(input, sb);
+        return sb;
+    }
+
+    @Benchmark
+    public String cssString() {
+        return Escape.cssString(input);
+    }
+
+    @Benchmark
+    public StringBuilder cssStringAppendable() throws IOException {
+        StringBuilder sb = reset();
+        Escape.cssString(input, sb);
+        return sb;
+    }
+
+    @Benchmark
+    public String htmlJsString() {
+        return Escape.htmlJsString(input);
+    }
+
+    @Benchmark
+    public String htmlJsStringChained() {
+        return Escape.html(Escape.jsString(input));
+    }
+
+    @Benchmark
+    public String htmlCssUri() {
+        return Escape.htmlCssUri(input);
+    }
+
+    @Benchmark
+    public String htmlCssUriChained() {
+        return Escape.html(Escape.cssString(Escape.uri(input)));
+    }
+
+    @Benchmark
+    public String sqlLikeClause() {
+        return Escape.sqlLikeClause(input);
+    }
+
+    @Benchmark
+    public String sqlLikeClauseEscapeChar() {
+        return Escape.sqlLikeClause(input, '\\');
+    }
+
+    @Benchmark
+    public StringBuilder sqlLikeClauseAppendable() throws IOException {
+        StringBuilder sb = reset();
+        Escape.sqlLikeClause(input, sb);
+        return sb;
+    }
+
+    @Benchmark
+    public StringBuilder sqlLikeClauseEscapeCharAppendable() throws IOException {
+        StringBuilder sb = reset();
+        Escape.sqlLikeClause(input, '\\', sb);
+        return sb;
+    }
+}
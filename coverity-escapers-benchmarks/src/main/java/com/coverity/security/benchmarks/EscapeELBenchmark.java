@@ -0,0 +1,104 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.coverity.security.EscapeEL;
+
+/**
+ * Throughput of the {@link EscapeEL} wrappers. EL values are usually short, so the
+ * sizes stop at 64 KB.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EscapeELBenchmark {
+
+    @Param({Corpus.SAFE, Corpus.ATTACK, Corpus.UNICODE})
+    public String corpus;
+
+    @Param({"1", "64", "1024", "65536"})
+    public int size;
+
+    private String input;
+
+    @Setup
+    public void setup() {
+        input = Corpus.generate(corpus, size);
+    }
+
+    @Benchmark
+    public String htmlEscape() {
+        return EscapeEL.htmlEscape(input);
+    }
+
+    @Benchmark
+    public String htmlText() {
+        return EscapeEL.htmlText(input);
+    }
+
+    @Benchmark
+    public String uriParamEncode() {
+        return EscapeEL.uriParamEncode(input);
+    }
+
+    @Benchmark
+    public String uriEncode() {
+        return EscapeEL.uriEncode(input);
+    }
+
+    @Benchmark
+    public String jsStringEscape() {
+        return EscapeEL.jsStringEscape(input);
+    }
+
+    @Benchmark
+    public String jsRegexEscape() {
+        return EscapeEL.jsRegexEscape(input);
+    }
+
+    @Benchmark
+    public String cssStringEscape() {
+        return EscapeEL.cssStringEscape(input);
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.coverity.security.FilterEL;
+
+/**
+ * Throughput of every public method of {@link FilterEL}. One operation filters every
+ * value of the selected {@link FilterInputs} kind.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FilterELBenchmark {
+
+    @Param({FilterInputs.VALID, FilterInputs.INVALID, FilterInputs.LARGE})
+    public String kind;
+
+    private String[] numbers;
+    private String[] colors;
+    private String[] urls;
+
+    @Setup
+    public void setup() {
+        numbers = FilterInputs.numbers(kind);
+        colors = FilterInputs.colors(kind);
+        urls = FilterInputs.urls(kind);
+    }
+
+    @Benchmark
+    public void asNumber(Blackhole bh) {
+        for (String number : numbers)
+            bh.consume(FilterEL.asNumber(number));
+    }
+
+    @Benchmark
+    public void asNumberDefault(Blackhole bh) {
+        for (String number : numbers)
+            bh.consume(FilterEL.asNumberDefault(number, "1"));
+    }
+
+    @Benchmark
+    public void asCssColor(Blackhole bh) {
+        for (String color : colors)
+            bh.consume(FilterEL.asCssColor(color));
+    }
+
+    @Benchmark
+    public void asCssColorDefault(Blackhole bh) {
+        for (String color : colors)
+            bh.consume(FilterEL.asCssColorDefault(color, "inherit"));
+    }
+
+    @Benchmark
+    public void asURL(Blackhole bh) {
+        for (String url : urls)
+            bh.consume(FilterEL.asURL(url));
+    }
+
+    @Benchmark
+    public void asFlexibleURL(Blackhole bh) {
+        for (String url : urls)
+            bh.consume(FilterEL.asFlexibleURL(url));
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security.benchmarks;
+
+/**
+ * FilterInputs holds the realistic inputs of the filter benchmarks.
+ *
+ * Each kind is a small set of values that the filters see in production:
+ * <ul>
+ * <li><code>valid</code>: values that are returned unchanged</li>
+ * <li><code>invalid</code>: values that are replaced or rewritten</li>
+ * <li><code>large</code>: 64 KB values, to show how the cost grows with the length</li>
+ * </ul>
+ */
+public final class FilterInputs {
+
+    public static final String VALID = "valid";
+    public static final String INVALID = "invalid";
+    public static final String LARGE = "large";
+
+    private static final int LARGE_SIZE = 64 * 1024;
+
+    private FilterInputs() {
+    }
+
+    public static String[] numbers(String kind) {
+        if (VALID.equals(kind))
+            return new String[] { "42", "-64.32", " +1.425 ", "0x1F", "0777", ".5" };
+        if (INVALID.equals(kind))
+            return new String[] { "42abc", "-+1", "0xg", "1e10", "", "NaN" };
+        return new String[] { repeat("1", LARGE_SIZE), repeat("1", LARGE_SIZE) + "x" };
+    }
+
+    public static String[] colors(String kind) {
+        if (VALID.equals(kind))
+            return new String[] { "#fff", "#0fF056", "white", "PaleVioletRed", "AliceBlue",
+                                  "rgba(255, 0, 0, 0.5)", "hsl(120deg 100% 50%)" };
+        if (INVALID.equals(kind))
+            return new String[] { "#12", "expression(alert(1))", "red;x:y", "#122g34", "" };
+        return new String[] { "#" + repeat("f", LARGE_SIZE), repeat("a", LARGE_SIZE) };
+    }
+
+    public static String[] urls(String kind) {
+        if (VALID.equals(kind))
+            return new String[] { "https://coverity.com/security?a=b", "/base/path",
+                                  "//coverity.com/lo", "mailto:srl@coverity.com", "\\\\UNC-PATH\\" };
+        if (INVALID.equals(kind))
+            return new String[] { "javascript:alert(1)", "data:text/html,<b>", "jaVascRipt:x",
+                                  "about:blank", "file.html" };
+        return new String[] { "https://coverity.com/?q=" + repeat("a", LARGE_SIZE),
+                              "javascript:" + repeat("a", LARGE_SIZE) };
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++)
+            sb.append(s);
+        return sb.toString();
+    }
+}
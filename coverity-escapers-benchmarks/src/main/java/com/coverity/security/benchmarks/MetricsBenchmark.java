@@ -0,0 +1,123 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.coverity.security.Escape;
+import com.coverity.security.Filter;
+
+/**
+ * Cost of the metrics (<code>-Dcom.coverity.security.metrics=true</code>) and of a flight
+ * recording on short and large values, from four threads that record the same methods
+ * concurrently.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+
+    private static final String METRICS = "-Dcom.coverity.security.metrics=true";
+    private static final String RECORDING = "-XX:StartFlightRecording";
+
+    private String small;
+    private String large;
+    private String url;
+
+    @Setup
+    public void setup() {
+        small = "Ben & Jerry's";
+        char[] chars = new char[65536];
+        Arrays.fill(chars, 'a');
+        for (int i = 0; i < chars.length; i += 64)
+            chars[i] = '<';
+        large = new String(chars);
+        url = "https://example.com/product?id=42";
+    }
+
+    @Benchmark
+    public String html() {
+        return Escape.html(small);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = METRICS)
+    public String htmlMetrics() {
+        return Escape.html(small);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = RECORDING)
+    public String htmlRecording() {
+        return Escape.html(small);
+    }
+
+    @Benchmark
+    public String htmlLarge() {
+        return Escape.html(large);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = METRICS)
+    public String htmlLargeMetrics() {
+        return Escape.html(large);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = RECORDING)
+    public String htmlLargeRecording() {
+        return Escape.html(large);
+    }
+
+    @Benchmark
+    public String asURL() {
+        return Filter.asURL(url);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = METRICS)
+    public String asURLMetrics() {
+        return Filter.asURL(url);
+    }
+}
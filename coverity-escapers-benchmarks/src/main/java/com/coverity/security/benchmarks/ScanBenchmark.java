@@ -0,0 +1,128 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security.benchmarks;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.coverity.security.Escape;
+
+/**
+ * Compares the scalar and the Vector API scanning of <code>html</code>,
+ * <code>jsString</code> and <code>uriParam</code>. Only character arrays are scanned with
+ * the Vector API, so the <code>String</code> benchmarks are the baseline of the others. The subclasses only differ by the
+ * options of the forked JVM, see {@link ScalarScanBenchmark} and {@link VectorScanBenchmark}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public abstract class ScanBenchmark {
+
+    @Param({Corpus.SAFE, Corpus.UNICODE, Corpus.ATTACK})
+    public String corpus;
+
+    @Param({"1024", "65536", "1048576"})
+    public int size;
+
+    private String input;
+    private char[] chars;
+    private char[] escaped;
+    private Writer writer;
+
+    @Setup
+    public void setup() {
+        input = Corpus.generate(corpus, size);
+        chars = input.toCharArray();
+        escaped = new char[Escape.html(input).length()];
+        writer = Escape.htmlWriter(new NullWriter());
+    }
+
+    @Benchmark
+    public String html() {
+        return Escape.html(input);
+    }
+
+    @Benchmark
+    public String jsString() {
+        return Escape.jsString(input);
+    }
+
+    @Benchmark
+    public String uriParam() {
+        return Escape.uriParam(input);
+    }
+
+    @Benchmark
+    public int htmlCharArray() {
+        return Escape.html(chars, 0, chars.length, escaped, 0);
+    }
+
+    @Benchmark
+    public Writer htmlWriterChars() throws IOException {
+        writer.write(chars, 0, chars.length);
+        return writer;
+    }
+
+    /**
+     * Writer that discards everything, to only measure the escaping.
+     */
+    static final class NullWriter extends Writer {
+        @Override
+        public void write(int c) {
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
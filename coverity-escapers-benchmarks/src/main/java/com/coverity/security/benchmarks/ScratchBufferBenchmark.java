@@ -0,0 +1,137 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.coverity.security.Escape;
+
+/**
+ * Escapes the values of a page from many short-lived threads, without and with the pool
+ * of scratch buffers (<code>-Dcom.coverity.security.scratchBuffers=true</code>).
+ *
+ * Each operation renders {@value #REQUESTS} requests, each in its own virtual thread on
+ * Java 21 and later, and in a thread of a fixed pool before. The requests escape
+ * {@value #VALUES_PER_REQUEST} values of a few dozen characters.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScratchBufferBenchmark {
+
+    private static final int REQUESTS = 256;
+    private static final int VALUES_PER_REQUEST = 32;
+    private static final String POOL = "-Dcom.coverity.security.scratchBuffers=true";
+
+    private String[] values;
+    private ExecutorService executor;
+    private List<Callable<Integer>> requests;
+
+    @Setup
+    public void setup() throws Exception {
+        values = new String[VALUES_PER_REQUEST];
+        for (int i = 0; i < values.length; i++)
+            values[i] = "<a href=\"/product?id=" + i + "&ref=home\">Ben & Jerry's #" + i + "</a>";
+
+        executor = newVirtualThreadPerTaskExecutor();
+        requests = new ArrayList<Callable<Integer>>(REQUESTS);
+        for (int r = 0; r < REQUESTS; r++) {
+            requests.add(new Callable<Integer>() {
+                public Integer call() {
+                    int length = 0;
+                    for (String value : values)
+                        length += Escape.html(value).length();
+                    return length;
+                }
+            });
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() throws Exception {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            // No virtual threads before Java 21
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    @Benchmark
+    public String html() {
+        return Escape.html(values[0]);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = POOL)
+    public String htmlPooled() {
+        return Escape.html(values[0]);
+    }
+
+    @Benchmark
+    public int requests() throws Exception {
+        return render();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = POOL)
+    public int requestsPooled() throws Exception {
+        return render();
+    }
+
+    private int render() throws Exception {
+        int length = 0;
+        for (Future<Integer> page : executor.invokeAll(requests))
+            length += page.get();
+        return length;
+    }
+}
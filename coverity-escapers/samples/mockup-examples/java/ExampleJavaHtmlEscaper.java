@@ -57,6 +57,11 @@ public class ExampleJavaHtmlEscapers {
         sb.append("';\n");
         sb.append("  </script>\n");
 
+        // Each escaper can also append directly to a StringBuilder or
+        // a Writer, which avoids creating an intermediate String:
+        //   Escape.html(exampleBean.getTitle(), sb);
+        // Note that these variants throw IOException, as declared by Appendable.
+
         // Other available methods are:
         // - Escape.cssString(String)String
         // - Escape.uri(String)String
@@ -0,0 +1,290 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collector;
+
+/**
+ * BulkEscaper escapes batches of independent strings, and strings large enough to be cut
+ * in chunks. The tasks run in the pool of the calling thread when it is a fork/join
+ * worker, and in the common pool otherwise.
+ *
+ * Each run of consecutive strings of a batch is escaped in a single scratch buffer, and
+ * batches of at least {@value #PARALLEL_THRESHOLD} strings are split into tasks.
+ *
+ * Since every character is replaced independently of its neighbours, a string of at least
+ * {@value #PARALLEL_LENGTH_THRESHOLD} characters can be escaped by chunks of at least
+ * {@value #MIN_CHUNK_SIZE} characters. The escaped length of every chunk is counted in
+ * parallel first, then the chunks are escaped in parallel at their offset in an array
+ * of the exact length of the result, which is copied once to the escaped string. When
+ * no escaped character is above <code>U+00FF</code>, the array holds ISO-8859-1 bytes, which
+ * takes half the memory and is copied as is to a compact string on Java 9 and later.
+ *
+ * @author Romain Gaucher
+ */
+final class BulkEscaper {
+
+    /**
+     * Smallest batch escaped in parallel. A task escapes at least half as many strings,
+     * which costs much more than forking it.
+     */
+    static final int PARALLEL_THRESHOLD = 2048;
+
+    /**
+     * Shortest string escaped in parallel.
+     */
+    static final int PARALLEL_LENGTH_THRESHOLD = 1 << 20;
+
+    /**
+     * Shortest chunk of a string escaped by a task.
+     */
+    static final int MIN_CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Number of tasks per thread of the pool, so that the threads that get the cheaper
+     * strings can take over some of the work of the others.
+     */
+    private static final int TASKS_PER_THREAD = 4;
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private BulkEscaper() {
+    }
+
+    /**
+     * Escapes <code>inputs</code> into a new fixed-size list, in the same order.
+     */
+    static List<String> escapeAll(Escaper escaper, List<String> inputs) {
+        String[] strings = inputs.toArray(new String[inputs.size()]);
+        escapeAll(escaper, strings, strings);
+        return Arrays.asList(strings);
+    }
+
+    /**
+     * Escapes <code>inputs</code> into the first elements of <code>outputs</code>, which
+     * can be the same array.
+     */
+    static void escapeAll(Escaper escaper, String[] inputs, String[] outputs) {
+        if (outputs.length < inputs.length)
+            throw new IllegalArgumentException("Output array is too small: " + outputs.length
+                    + " elements for " + inputs.length + " inputs");
+
+        int parallelism = parallelism();
+        if (inputs.length < PARALLEL_THRESHOLD || parallelism == 1) {
+            escapeRange(escaper, inputs, outputs, 0, inputs.length);
+            return;
+        }
+        int leafSize = Math.max(PARALLEL_THRESHOLD / 2, inputs.length / (parallelism * TASKS_PER_THREAD));
+        new EscapeTask(escaper, inputs, outputs, 0, inputs.length, leafSize).invoke();
+    }
+
+    /**
+     * Same as {@link Escaper#escape(String)}, but escapes the chunks of a large string in
+     * parallel.
+     */
+    static String escapeParallel(Escaper escaper, String input) {
+        if (input == null)
+            return null;
+
+        int length = input.length();
+        int parallelism = parallelism();
+        if (length < PARALLEL_LENGTH_THRESHOLD || parallelism == 1)
+            return escaper.escape(input);
+        if (MethodMetrics.isRecording())
+            return escaper.metrics().record(MethodMetrics.start(length), input, escapeChunks(escaper, input, parallelism));
+        return escapeChunks(escaper, input, parallelism);
+    }
+
+    private static String escapeChunks(Escaper escaper, String input, int parallelism) {
+        int length = input.length();
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, length / (parallelism * TASKS_PER_THREAD) + 1);
+        int chunks = (length + chunkSize - 1) / chunkSize;
+        long[] offsets = new long[chunks + 1];
+        boolean[] wide = new boolean[chunks];
+        new ChunkTask(escaper, input, chunkSize, 0, chunks, offsets, wide, null).invoke();
+
+        // Offsets of the escaped chunks, from their lengths
+        for (int k = 0; k < chunks; k++)
+            offsets[k + 1] += offsets[k];
+        long escapedLength = offsets[chunks];
+        if (escapedLength == length)
+            return input;
+        if (escapedLength > Integer.MAX_VALUE)
+            throw new OutOfMemoryError("Escaped string is too long: " + escapedLength + " characters");
+
+        for (int k = 0; k < chunks; k++) {
+            if (wide[k]) {
+                char[] output = new char[(int) escapedLength];
+                new ChunkTask(escaper, input, chunkSize, 0, chunks, offsets, null, output).invoke();
+                return new String(output);
+            }
+        }
+        byte[] output = new byte[(int) escapedLength];
+        new ChunkTask(escaper, input, chunkSize, 0, chunks, offsets, null, output).invoke();
+        return new String(output, ISO_8859_1);
+    }
+
+    /**
+     * Returns a collector of the escaped strings into a new <code>ArrayList</code>.
+     */
+    static Collector<String, ?, List<String>> toList(final Escaper escaper) {
+        return Collector.of(
+                () -> new Batch(escaper),
+                Batch::add,
+                Batch::addAll,
+                Batch::strings);
+    }
+
+    private static int parallelism() {
+        ForkJoinPool pool = ForkJoinTask.getPool();
+        return pool != null ? pool.getParallelism() : ForkJoinPool.getCommonPoolParallelism();
+    }
+
+    private static void escapeRange(Escaper escaper, String[] inputs, String[] outputs, int from, int to) {
+        StringBuilder scratch = new StringBuilder();
+        for (int i = from; i < to; i++)
+            outputs[i] = escaper.escape(inputs[i], scratch);
+    }
+
+    private static final class EscapeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Escaper escaper;
+        private final String[] inputs;
+        private final String[] outputs;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+
+        EscapeTask(Escaper escaper, String[] inputs, String[] outputs, int from, int to, int leafSize) {
+            this.escaper = escaper;
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= leafSize) {
+                escapeRange(escaper, inputs, outputs, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new EscapeTask(escaper, inputs, outputs, from, middle, leafSize),
+                      new EscapeTask(escaper, inputs, outputs, middle, to, leafSize));
+        }
+    }
+
+    /**
+     * Escapes the chunks <code>[from, to)</code> of a string. Without an output array, the
+     * escaped length of chunk <code>k</code> is stored at <code>offsets[k + 1]</code>, and
+     * <code>wide[k]</code> is set if it keeps a character above <code>U+00FF</code>.
+     * Otherwise the chunk is escaped at <code>offsets[k]</code> in the output, a
+     * <code>char[]</code> or an ISO-8859-1 <code>byte[]</code>.
+     */
+    private static final class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Escaper escaper;
+        private final String input;
+        private final int chunkSize;
+        private final int from;
+        private final int to;
+        private final long[] offsets;
+        private final boolean[] wide;
+        private final Object output;
+
+        ChunkTask(Escaper escaper, String input, int chunkSize, int from, int to,
+                  long[] offsets, boolean[] wide, Object output) {
+            this.escaper = escaper;
+            this.input = input;
+            this.chunkSize = chunkSize;
+            this.from = from;
+            this.to = to;
+            this.offsets = offsets;
+            this.wide = wide;
+            this.output = output;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkTask(escaper, input, chunkSize, from, middle, offsets, wide, output),
+                          new ChunkTask(escaper, input, chunkSize, middle, to, offsets, wide, output));
+                return;
+            }
+
+            int start = from * chunkSize;
+            int end = Math.min(input.length(), start + chunkSize);
+            if (output == null) {
+                offsets[from + 1] = escaper.escapedLength(input, start, end);
+                wide[from] = !escaper.keepsLatin1(input, start, end);
+            } else if (output instanceof byte[]) {
+                escaper.escape(input, start, end, (byte[]) output, (int) offsets[from]);
+            } else {
+                escaper.escape(input, start, end, (char[]) output, (int) offsets[from]);
+            }
+        }
+    }
+
+    /**
+     * Accumulation of a collector: the escaped strings so far, and the buffer they are
+     * escaped in.
+     */
+    private static final class Batch {
+        private final Escaper escaper;
+        private final ArrayList<String> strings = new ArrayList<String>();
+        private final StringBuilder scratch = new StringBuilder();
+
+        Batch(Escaper escaper) {
+            this.escaper = escaper;
+        }
+
+        void add(String input) {
+            strings.add(escaper.escape(input, scratch));
+        }
+
+        Batch addAll(Batch other) {
+            strings.addAll(other.strings);
+            return this;
+        }
+
+        List<String> strings() {
+            return strings;
+        }
+    }
+}
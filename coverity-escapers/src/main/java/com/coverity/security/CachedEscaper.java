@@ -0,0 +1,252 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CachedEscaper memoizes the escaped form of the strings that are escaped over and over,
+ * such as category names, brand names or tags.
+ *
+ * Instances are created by {@link Escape#cached(Escape.Context, int)} or
+ * {@link ContextEscaper#cached(int, int)}, and kept in a static field:
+ * <pre>
+ * private static final CachedEscaper HTML = Escape.cached(Escape.Context.HTML, 10000);
+ * ...
+ * out.append(HTML.escape(product.getBrand()));
+ * </pre>
+ *
+ * The cache holds at most <code>maxEntries</code> strings. It is split into stripes that
+ * are each a small LRU map behind their own lock, so threads escaping different strings
+ * rarely contend, and the least recently used string of a stripe is evicted when the stripe
+ * is full. The inputs not longer than <code>maxInputLength</code> are looked up before they
+ * are scanned, so a hit costs a hash lookup instead of a scan: the hash code of a
+ * <code>String</code> is only computed once per instance. The inputs that need no escaping
+ * are cached as themselves, and the longer inputs are escaped directly.
+ *
+ * A hit is a few times faster than escaping a short string that needs escaping, and
+ * allocates nothing. A short string that needs no escaping is scanned faster than it is
+ * looked up, and a miss costs the lookup, the escaping and an eviction, so the cache only
+ * pays off when most values need escaping and fit in it.
+ *
+ * The calls are recorded by {@link EscapeMetrics} as <code>CachedEscaper.</code> followed by
+ * the name of the context, e.g. <code>CachedEscaper.html</code>. The hit, miss and eviction
+ * counters can be used to size the cache. They are updated
+ * without locking and are not an atomic snapshot of each other.
+ *
+ * Instances are thread-safe.
+ *
+ * @author Romain Gaucher
+ * @since  1.3
+ */
+public final class CachedEscaper {
+
+    /**
+     * The longest input cached by {@link Escape#cached(Escape.Context, int)}.
+     */
+    public static final int DEFAULT_MAX_INPUT_LENGTH = 256;
+
+    // Striping is only worth it when every stripe can hold a few entries
+    private static final int MAX_STRIPES = 16;
+
+    private final Escaper escaper;
+    private final int maxEntries;
+    private final int maxInputLength;
+    private final Stripe[] stripes;
+    private final int stripeShift;
+    private final MethodMetrics metrics;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    CachedEscaper(Escaper escaper, int maxEntries, int maxInputLength) {
+        if (maxEntries <= 0)
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        if (maxInputLength < 0)
+            throw new IllegalArgumentException("maxInputLength must not be negative: " + maxInputLength);
+
+        this.escaper = escaper;
+        this.maxEntries = maxEntries;
+        this.maxInputLength = maxInputLength;
+
+        int count = Math.min(MAX_STRIPES, Integer.highestOneBit(maxEntries));
+        this.stripes = new Stripe[count];
+        this.stripeShift = 32 - Integer.numberOfTrailingZeros(count);
+        for (int i = 0; i < count; i++)
+            stripes[i] = new Stripe(maxEntries / count + (i < maxEntries % count ? 1 : 0), evictions);
+        this.metrics = EscapeMetrics.register("CachedEscaper." + escaper.name());
+    }
+
+    /**
+     * LRU map of one stripe, only accessed while holding its lock.
+     */
+    private static final class Stripe extends LinkedHashMap<String, String> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+        private final LongAdder evictions;
+
+        Stripe(int capacity, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            if (size() <= capacity)
+                return false;
+            evictions.increment();
+            return true;
+        }
+    }
+
+    // The stripe is picked from the high bits of the remixed hash code: the map of each
+    // stripe picks its buckets from the low bits, which would otherwise be the same for
+    // all its keys, so that only one bucket in stripes.length would be used
+    private Stripe stripe(String input) {
+        long hash = (input.hashCode() * 0x9E3779B9) & 0xFFFFFFFFL;
+        return stripes[(int) (hash >>> stripeShift)];
+    }
+
+    /**
+     * Escapes <code>input</code>, returning the cached result when there is one.
+     *
+     * @param  input the string to be escaped
+     * @return       the escaped string or <code>null</code> if <code>input</code> is null
+     */
+    public String escape(String input) {
+        if (MethodMetrics.isRecording())
+            return metrics.record(MethodMetrics.start(input), input, escapeCached(input));
+        return escapeCached(input);
+    }
+
+    private String escapeCached(String input) {
+        if (input == null)
+            return null;
+        if (input.length() > maxInputLength)
+            return escaper.escapeString(input);
+
+        Stripe stripe = stripe(input);
+        String escaped;
+        synchronized (stripe) {
+            escaped = stripe.get(input);
+        }
+        if (escaped != null) {
+            hits.increment();
+            return escaped;
+        }
+
+        misses.increment();
+        escaped = escaper.escapeString(input);
+        synchronized (stripe) {
+            // Another thread may have escaped the same input meanwhile
+            String previous = stripe.putIfAbsent(input, escaped);
+            return previous != null ? previous : escaped;
+        }
+    }
+
+    /**
+     * Returns the number of escaped strings found in the cache.
+     *
+     * @return the number of cache hits
+     */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of strings that were escaped and added to the cache.
+     *
+     * @return the number of cache misses
+     */
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of strings removed from the cache to make room for new ones.
+     *
+     * @return the number of evictions
+     */
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the number of strings currently in the cache.
+     *
+     * @return the number of cached strings, at most {@link #maxEntries()}
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the maximum number of strings in the cache.
+     *
+     * @return the capacity of the cache
+     */
+    public int maxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Returns the length of the longest input that goes through the cache.
+     *
+     * @return the maximum length of the cached inputs
+     */
+    public int maxInputLength() {
+        return maxInputLength;
+    }
+
+    /**
+     * Removes all the strings from the cache. The counters are not reset.
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CachedEscaper[size=" + size() + ", hits=" + hitCount() + ", misses=" + missCount()
+             + ", evictions=" + evictionCount() + "]";
+    }
+}
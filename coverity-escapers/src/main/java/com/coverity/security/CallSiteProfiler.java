@@ -0,0 +1,286 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CallSiteProfiler is an optional sampling profiler that attributes the escaping and
+ * filtering work to the code that calls {@link Escape}, {@link EscapeEL},
+ * {@link EscapeUtf8} or {@link Filter}, enabled with
+ * <code>-Dcom.coverity.security.callSites.sampleRate=N</code>.
+ *
+ * One call in <code>N</code>, picked at random, is timed, and the first frame of its
+ * stack outside of the library and of the EL and reflection frames in between, such
+ * as the <code>_jspService</code> method of a JSP, is its call site. The sampled calls
+ * add their input length and time to the counters of their call site and escaping
+ * method, which {@link #top(int)} returns by decreasing time. Multiplying the counts by
+ * the sample rate estimates the totals, and shows the pages where caching or streaming
+ * the escaped values would save the most.
+ *
+ * The stack is walked with <code>StackWalker</code> on Java 9 and later, which only
+ * looks at the top frames, and from a <code>Throwable</code> before. The counters are
+ * <code>LongAdder</code>s in a concurrent map, so the threads never lock each other
+ * out once their call sites are known. At most {@value #MAX_CALL_SITES} call sites are
+ * kept, the calls from any other one being counted under {@value #OTHER}.
+ *
+ * @author Romain Gaucher
+ */
+public final class CallSiteProfiler {
+
+    /**
+     * Largest number of call sites kept.
+     */
+    public static final int MAX_CALL_SITES = 4096;
+
+    /**
+     * Call site of the calls beyond {@link #MAX_CALL_SITES}.
+     */
+    public static final String OTHER = "(other)";
+
+    /**
+     * Finds the call site of the current escaping call, implemented with
+     * <code>StackWalker</code> by <code>StackWalkerCallSites</code>.
+     */
+    interface Walker {
+
+        /**
+         * Returns the first frame of the stack that is not skipped, as
+         * <code>class.method(file:line)</code>.
+         */
+        String callSite();
+    }
+
+    private static final int SAMPLE_RATE = Escaper.intProperty("com.coverity.security.callSites.sampleRate", 0);
+
+    static final boolean ENABLED = SAMPLE_RATE > 0;
+
+    // Frames between the escaping method and its caller: the library, the reflection
+    // calls of the EL implementations, and the JDK
+    private static final String[] SKIPPED_PACKAGES = {
+        "com.coverity.security.",
+        "java.",
+        "javax.el.",
+        "jakarta.el.",
+        "org.apache.el.",
+        "org.apache.jasper.el.",
+        "jdk.internal.",
+        "sun.reflect.",
+    };
+
+    private static final Walker WALKER = ENABLED ? walker() : null;
+
+    private static final ConcurrentMap<String, Counters> CALL_SITES =
+            new ConcurrentHashMap<String, Counters>();
+
+    private CallSiteProfiler() {
+    }
+
+    /**
+     * Whether the calls are sampled.
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Returns <code>N</code> when one call in <code>N</code> is sampled, or 0 if the
+     * profiler is disabled.
+     */
+    public static int getSampleRate() {
+        return SAMPLE_RATE;
+    }
+
+    /**
+     * Returns the <code>k</code> call sites whose sampled calls took the most time, by
+     * decreasing time.
+     *
+     * @throws IllegalArgumentException if <code>k</code> is negative
+     */
+    public static List<CallSite> top(int k) {
+        if (k < 0)
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        List<CallSite> callSites = new ArrayList<CallSite>();
+        for (Counters counters : CALL_SITES.values()) {
+            CallSite callSite = counters.snapshot();
+            if (callSite.getSamples() > 0)
+                callSites.add(callSite);
+        }
+        Collections.sort(callSites, (a, b) -> Long.compare(b.getTime(), a.getTime()));
+        return callSites.size() > k ? new ArrayList<CallSite>(callSites.subList(0, k)) : callSites;
+    }
+
+    /**
+     * Forgets all the call sites.
+     */
+    public static void reset() {
+        CALL_SITES.clear();
+    }
+
+    /**
+     * Whether to sample the current call.
+     */
+    static boolean sample() {
+        return ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0;
+    }
+
+    /**
+     * Adds a sampled call of <code>method</code> to the counters of its call site.
+     */
+    static void record(String method, long inputLength, long nanos) {
+        String callSite = WALKER.callSite();
+        String key = callSite + ' ' + method;
+        Counters counters = CALL_SITES.get(key);
+        if (counters == null) {
+            if (CALL_SITES.size() >= MAX_CALL_SITES) {
+                callSite = OTHER;
+                key = callSite + ' ' + method;
+            }
+            Counters created = new Counters(callSite, method);
+            Counters previous = CALL_SITES.putIfAbsent(key, created);
+            counters = previous != null ? previous : created;
+        }
+        counters.samples.increment();
+        counters.inputLength.add(inputLength);
+        counters.time.add(nanos);
+    }
+
+    static boolean isSkipped(String className) {
+        for (String prefix : SKIPPED_PACKAGES) {
+            if (className.startsWith(prefix))
+                return true;
+        }
+        return false;
+    }
+
+    private static Walker walker() {
+        try {
+            Class<?> walker = Class.forName("com.coverity.security.StackWalkerCallSites");
+            return (Walker) walker.getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            // Not compiled in, or not accessible
+        } catch (LinkageError e) {
+            // Older Java version
+        }
+        return new Walker() {
+            public String callSite() {
+                for (StackTraceElement frame : new Throwable().getStackTrace()) {
+                    if (!isSkipped(frame.getClassName()))
+                        return frame.getClassName() + '.' + frame.getMethodName()
+                               + '(' + frame.getFileName() + ':' + frame.getLineNumber() + ')';
+                }
+                return OTHER;
+            }
+        };
+    }
+
+    private static final class Counters {
+
+        final String callSite;
+        final String method;
+        final LongAdder samples = new LongAdder();
+        final LongAdder inputLength = new LongAdder();
+        final LongAdder time = new LongAdder();
+
+        Counters(String callSite, String method) {
+            this.callSite = callSite;
+            this.method = method;
+        }
+
+        CallSite snapshot() {
+            return new CallSite(callSite, method, samples.sum(), inputLength.sum(), time.sum());
+        }
+    }
+
+    /**
+     * CallSite holds the counters of the sampled calls of one escaping or filtering
+     * method from one call site.
+     */
+    public static final class CallSite {
+
+        private final String callSite;
+        private final String method;
+        private final long samples;
+        private final long inputLength;
+        private final long time;
+
+        CallSite(String callSite, String method, long samples, long inputLength, long time) {
+            this.callSite = callSite;
+            this.method = method;
+            this.samples = samples;
+            this.inputLength = inputLength;
+            this.time = time;
+        }
+
+        /**
+         * Frame that called the library, as <code>class.method(file:line)</code>, or
+         * {@link CallSiteProfiler#OTHER}.
+         */
+        public String getCallSite() {
+            return callSite;
+        }
+
+        /**
+         * Name of the escaping or filtering method, as in {@link EscapeMetrics}.
+         */
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * Number of sampled calls.
+         */
+        public long getSamples() {
+            return samples;
+        }
+
+        /**
+         * Total input length of the sampled calls.
+         */
+        public long getInputLength() {
+            return inputLength;
+        }
+
+        /**
+         * Total time of the sampled calls, in nanoseconds.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public String toString() {
+            return callSite + " " + method + "{samples=" + samples + ", input=" + inputLength
+                    + ", time=" + time + "ns}";
+        }
+    }
+}
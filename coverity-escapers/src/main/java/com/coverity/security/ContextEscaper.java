@@ -0,0 +1,247 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collector;
+
+/**
+ * ContextEscaper escapes for one HTML context, or for several nested contexts at once.
+ *
+ * Instances are created by {@link Escape#compose(Escape.Context...)}. For nested
+ * contexts, the replacement of every character is computed once, when the escaper is
+ * created, so the input is scanned a single time and no intermediate string is
+ * created. The output is the same as the chained calls:
+ * <pre>
+ * ContextEscaper styleUrl = Escape.compose(Escape.Context.URI, Escape.Context.CSS_STRING, Escape.Context.HTML);
+ * styleUrl.escape(x); // same as Escape.html(Escape.cssString(Escape.uri(x)))
+ * </pre>
+ *
+ * Instances are immutable and can be shared between threads. Creating one builds its
+ * replacement tables, so it should be kept in a static field rather than created for
+ * every call.
+ *
+ * @author Romain Gaucher
+ */
+public final class ContextEscaper {
+
+    private final Escaper escaper;
+    private final List<Escape.Context> contexts;
+
+    ContextEscaper(Escaper escaper, Escape.Context... contexts) {
+        this.escaper = escaper;
+        this.contexts = Collections.unmodifiableList(Arrays.asList(contexts.clone()));
+    }
+
+    /**
+     * Escapes <code>input</code> for the contexts of this escaper.
+     *
+     * @param  input the string to be escaped
+     * @return       the escaped string or <code>null</code> if <code>input</code> is null
+     * @since  1.3
+     */
+    public String escape(String input) {
+        return escaper.escape(input);
+    }
+
+    /**
+     * Same as {@link #escape(String)} for any character sequence. See
+     * {@link Escape#html(CharSequence)}.
+     *
+     * @param  input the character sequence to be escaped
+     * @return       the escaped string or <code>null</code> if <code>input</code> is null
+     * @since  1.3
+     */
+    public String escape(CharSequence input) {
+        return escaper.escape(input);
+    }
+
+    /**
+     * Same as {@link #escape(String)} into a caller-owned array. See
+     * {@link Escape#html(char[], int, int, char[], int)}.
+     *
+     * @param  src    the characters to be escaped
+     * @param  srcOff the index of the first character to escape
+     * @param  srcLen the number of characters to escape
+     * @param  dst    the destination of the escaped characters
+     * @param  dstOff the index in <code>dst</code> of the first escaped character
+     * @return        the number of characters written, or the opposite of the number of
+     *                characters needed if <code>dst</code> is too small
+     * @throws IndexOutOfBoundsException if the source range or the destination offset
+     *                                   is out of bounds
+     * @since  1.3
+     */
+    public int escape(char[] src, int srcOff, int srcLen, char[] dst, int dstOff) {
+        return escaper.escape(src, srcOff, srcLen, dst, dstOff);
+    }
+
+    /**
+     * Returns true when {@link #escape(String)} would return <code>input</code> unchanged.
+     * See {@link Escape#isHtmlSafe(CharSequence)}.
+     *
+     * @param  input the character sequence to check
+     * @return       true if <code>input</code> is null or safe for the contexts
+     * @since  1.3
+     */
+    public boolean isSafe(CharSequence input) {
+        return input == null || escaper.indexOfUnsafe(input, 0, input.length()) < 0;
+    }
+
+    /**
+     * Same as {@link #escape(String)}, but appends the escaped input to <code>output</code>.
+     *
+     * @param  input  the character sequence to be escaped, nothing is appended if it is null
+     * @param  output the destination of the escaped characters
+     * @throws IOException if <code>output</code> throws while appending
+     * @since  1.3
+     */
+    public void escape(CharSequence input, Appendable output) throws IOException {
+        if (input == null)
+            return;
+
+        escaper.escape(input, 0, input.length(), output);
+    }
+
+    /**
+     * Same as {@link #escape(String)}, but writes the escaped input to <code>out</code>
+     * encoded with <code>charset</code>. See {@link Escape#html(CharSequence, OutputStream, Charset)}.
+     *
+     * @param  input   the character sequence to be escaped, nothing is written if it is null
+     * @param  out     the stream that receives the encoded escaped characters
+     * @param  charset the encoding of the stream
+     * @throws IOException if writing to <code>out</code> fails
+     * @since  1.3
+     */
+    public void escape(CharSequence input, OutputStream out, Charset charset) throws IOException {
+        if (input == null)
+            return;
+
+        escaper.escape(input, out, charset);
+    }
+
+    /**
+     * Same as {@link #escape(String)}, but escapes the chunks of a large string in parallel.
+     * See {@link Escape#htmlParallel(String)}.
+     *
+     * @param  input the string to be escaped
+     * @return       the escaped string or <code>null</code> if <code>input</code> is null
+     * @since  1.3
+     */
+    public String escapeParallel(String input) {
+        return BulkEscaper.escapeParallel(escaper, input);
+    }
+
+    /**
+     * Escapes every string of <code>inputs</code> for the contexts of this escaper.
+     * See {@link Escape#htmlAll(List)}.
+     *
+     * @param  inputs the strings to be escaped, which may contain null elements
+     * @return        a new fixed-size list of the escaped strings, in the same order
+     * @since  1.3
+     */
+    public List<String> escapeAll(List<String> inputs) {
+        return BulkEscaper.escapeAll(escaper, inputs);
+    }
+
+    /**
+     * Same as {@link #escapeAll(List)}, but stores the escaped strings in the first
+     * elements of <code>outputs</code>, which can be <code>inputs</code> itself.
+     *
+     * @param  inputs  the strings to be escaped, which may contain null elements
+     * @param  outputs the array that receives the escaped strings, in the same order
+     * @throws IllegalArgumentException if <code>outputs</code> is shorter than <code>inputs</code>
+     * @since  1.3
+     */
+    public void escapeAll(String[] inputs, String[] outputs) {
+        BulkEscaper.escapeAll(escaper, inputs, outputs);
+    }
+
+    /**
+     * Returns a collector that escapes the elements of a stream for the contexts of this
+     * escaper into a new <code>List</code>. See {@link Escape#toHtmlList()}.
+     *
+     * @return a collector of escaped strings
+     * @since  1.3
+     */
+    public Collector<String, ?, List<String>> toList() {
+        return BulkEscaper.toList(escaper);
+    }
+
+    /**
+     * Returns a <code>Writer</code> that escapes everything written to it for the contexts
+     * of this escaper, and passes the result to <code>out</code>.
+     * See {@link Escape#htmlWriter(Writer)}.
+     *
+     * @param  out the writer that receives the escaped characters
+     * @return     an escaping writer
+     * @since  1.3
+     */
+    public Writer writer(Writer out) {
+        return new EscapingWriter(out, escaper);
+    }
+
+    /**
+     * Returns an escaper for the same contexts that caches up to <code>maxEntries</code>
+     * escaped strings of at most <code>maxInputLength</code> characters.
+     * See {@link Escape#cached(Escape.Context, int)}.
+     *
+     * @param  maxEntries     the maximum number of cached strings
+     * @param  maxInputLength the length of the longest input to cache
+     * @return                a thread-safe caching escaper
+     * @throws IllegalArgumentException if <code>maxEntries</code> is not positive or
+     *                                  <code>maxInputLength</code> is negative
+     * @since  1.3
+     */
+    public CachedEscaper cached(int maxEntries, int maxInputLength) {
+        return new CachedEscaper(escaper, maxEntries, maxInputLength);
+    }
+
+    /**
+     * Returns the contexts of this escaper, innermost first.
+     *
+     * @return an unmodifiable list of the contexts
+     * @since  1.3
+     */
+    public List<Escape.Context> contexts() {
+        return contexts;
+    }
+
+    Escaper escaper() {
+        return escaper;
+    }
+
+    @Override
+    public String toString() {
+        return "ContextEscaper" + contexts;
+    }
+}
@@ -0,0 +1,286 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security;
+
+/**
+ * CssColor is the validator behind {@link Filter#asCssColor(String, String)}.
+ *
+ * The following values are accepted:
+ * <ul>
+ * <li>
+ * Hex colors: <code>#rgb</code>, <code>#rgba</code>, <code>#rrggbb</code> and <code>#rrggbbaa</code>
+ * </li>
+ * <li>
+ * The functional notations <code>rgb()</code>, <code>rgba()</code>, <code>hsl()</code> and
+ * <code>hsla()</code>, with either comma separated arguments (<code>rgb(255, 0, 0)</code>) or
+ * space separated arguments and an optional <code>/</code> before the alpha value
+ * (<code>hsl(120deg 100% 50% / 0.5)</code>)
+ * </li>
+ * <li>
+ * The named colors of CSS Color Module Level 4, <code>transparent</code> and <code>currentColor</code>,
+ * as well as the CSS-wide keywords <code>inherit</code>, <code>initial</code>, <code>unset</code>
+ * and <code>revert</code>
+ * </li>
+ * </ul>
+ * Keywords, function names and units are ASCII case-insensitive. Whitespace is only allowed
+ * inside the parentheses.
+ *
+ * Names are looked up in a perfect hash table: the multiplier was chosen so that no two of
+ * them share a slot, so a single comparison is needed and nothing is allocated.
+ *
+ * @author Romain Gaucher
+ */
+final class CssColor {
+
+    private static final String[] NAMED_COLORS = {
+        "aliceblue", "antiquewhite", "aqua", "aquamarine", "azure", "beige", "bisque", "black",
+        "blanchedalmond", "blue", "blueviolet", "brown", "burlywood", "cadetblue", "chartreuse",
+        "chocolate", "coral", "cornflowerblue", "cornsilk", "crimson", "cyan", "darkblue",
+        "darkcyan", "darkgoldenrod", "darkgray", "darkgreen", "darkgrey", "darkkhaki",
+        "darkmagenta", "darkolivegreen", "darkorange", "darkorchid", "darkred", "darksalmon",
+        "darkseagreen", "darkslateblue", "darkslategray", "darkslategrey", "darkturquoise",
+        "darkviolet", "deeppink", "deepskyblue", "dimgray", "dimgrey", "dodgerblue",
+        "firebrick", "floralwhite", "forestgreen", "fuchsia", "gainsboro", "ghostwhite", "gold",
+        "goldenrod", "gray", "green", "greenyellow", "grey", "honeydew", "hotpink", "indianred",
+        "indigo", "ivory", "khaki", "lavender", "lavenderblush", "lawngreen", "lemonchiffon",
+        "lightblue", "lightcoral", "lightcyan", "lightgoldenrodyellow", "lightgray",
+        "lightgreen", "lightgrey", "lightpink", "lightsalmon", "lightseagreen", "lightskyblue",
+        "lightslategray", "lightslategrey", "lightsteelblue", "lightyellow", "lime",
+        "limegreen", "linen", "magenta", "maroon", "mediumaquamarine", "mediumblue",
+        "mediumorchid", "mediumpurple", "mediumseagreen", "mediumslateblue",
+        "mediumspringgreen", "mediumturquoise", "mediumvioletred", "midnightblue", "mintcream",
+        "mistyrose", "moccasin", "navajowhite", "navy", "oldlace", "olive", "olivedrab",
+        "orange", "orangered", "orchid", "palegoldenrod", "palegreen", "paleturquoise",
+        "palevioletred", "papayawhip", "peachpuff", "peru", "pink", "plum", "powderblue",
+        "purple", "rebeccapurple", "red", "rosybrown", "royalblue", "saddlebrown", "salmon",
+        "sandybrown", "seagreen", "seashell", "sienna", "silver", "skyblue", "slateblue",
+        "slategray", "slategrey", "snow", "springgreen", "steelblue", "tan", "teal", "thistle",
+        "tomato", "turquoise", "violet", "wheat", "white", "whitesmoke", "yellow",
+        "yellowgreen"
+    };
+
+    private static final String[] KEYWORDS = {
+        "transparent", "currentcolor", "inherit", "initial", "unset", "revert"
+    };
+
+    // Slot of a name: the top HASH_BITS of its lower case String.hashCode() times HASH_MULTIPLIER
+    private static final int HASH_MULTIPLIER = 0x69b75655;
+    private static final int HASH_BITS = 10;
+    private static final String[] SLOTS = new String[1 << HASH_BITS];
+
+    static {
+        addNames(NAMED_COLORS);
+        addNames(KEYWORDS);
+    }
+
+    // Kinds of function arguments, stored in the two low bits of the result of value()
+    private static final int NUMBER = 1;
+    private static final int PERCENTAGE = 2;
+    private static final int ANGLE = 3;
+
+    private CssColor() {
+    }
+
+    private static void addNames(String[] names) {
+        for (String name : names) {
+            int slot = slot(name.hashCode());
+            if (SLOTS[slot] != null)
+                throw new IllegalStateException("Named colors " + SLOTS[slot] + " and " + name + " collide");
+            SLOTS[slot] = name;
+        }
+    }
+
+    private static int slot(int hash) {
+        return (hash * HASH_MULTIPLIER) >>> (32 - HASH_BITS);
+    }
+
+    /**
+     * Returns whether <code>color</code> is one of the accepted color values.
+     */
+    static boolean isValid(String color) {
+        int length = color.length();
+        if (length == 0)
+            return false;
+        if (color.charAt(0) == '#')
+            return isHexColor(color, length);
+
+        // Hash the leading letters as String.hashCode() does for the lower case name
+        int hash = 0;
+        int i = 0;
+        for (; i < length; i++) {
+            char c = color.charAt(i);
+            if (!isLetter(c))
+                break;
+            hash = 31 * hash + (c | 0x20);
+        }
+
+        if (i == length) {
+            String name = SLOTS[slot(hash)];
+            return name != null && name.length() == length
+                && color.regionMatches(true, 0, name, 0, length);
+        }
+        if (color.charAt(i) == '(')
+            return isFunction(color, i);
+        return false;
+    }
+
+    private static boolean isHexColor(String color, int length) {
+        if (length != 4 && length != 5 && length != 7 && length != 9)
+            return false;
+        for (int i = 1; i < length; i++) {
+            if (!isHexDigit(color.charAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isFunction(String color, int open) {
+        boolean hsl;
+        if (isName(color, open, "rgb") || isName(color, open, "rgba"))
+            hsl = false;
+        else if (isName(color, open, "hsl") || isName(color, open, "hsla"))
+            hsl = true;
+        else
+            return false;
+
+        int end = color.length() - 1;
+        if (color.charAt(end) != ')')
+            return false;
+
+        // Hue is a number or an angle, the red, green and blue values are numbers or percentages
+        int value = value(color, skipWhitespace(color, open + 1, end), end);
+        if (value < 0)
+            return false;
+        int firstKind = value & 3;
+        if (hsl ? firstKind == PERCENTAGE : firstKind == ANGLE)
+            return false;
+        int i = skipWhitespace(color, value >>> 2, end);
+        boolean commas = i < end && color.charAt(i) == ',';
+
+        for (int n = 0; n < 2; n++) {
+            if (commas) {
+                if (i == end || color.charAt(i) != ',')
+                    return false;
+                i = skipWhitespace(color, i + 1, end);
+            }
+            value = value(color, i, end);
+            if (value < 0)
+                return false;
+            int kind = value & 3;
+            if (kind == ANGLE)
+                return false;
+            // The comma syntax requires percentages for hsl, and the same kind for rgb
+            if (commas && (hsl ? kind != PERCENTAGE : kind != firstKind))
+                return false;
+            i = skipWhitespace(color, value >>> 2, end);
+        }
+
+        if (i < end) {
+            if (color.charAt(i) != (commas ? ',' : '/'))
+                return false;
+            value = value(color, skipWhitespace(color, i + 1, end), end);
+            if (value < 0 || (value & 3) == ANGLE)
+                return false;
+            i = skipWhitespace(color, value >>> 2, end);
+        }
+        return i == end;
+    }
+
+    private static boolean isName(String color, int length, String name) {
+        return length == name.length() && color.regionMatches(true, 0, name, 0, length);
+    }
+
+    /**
+     * Scans a number, percentage or angle starting at <code>i</code>. Returns the index
+     * following it shifted left by two and combined with its kind, or -1 if there is none.
+     */
+    private static int value(String color, int i, int end) {
+        if (i < end && (color.charAt(i) == '+' || color.charAt(i) == '-'))
+            i++;
+        int integer = i;
+        while (i < end && isDigit(color.charAt(i)))
+            i++;
+        if (i < end && color.charAt(i) == '.') {
+            int fraction = ++i;
+            while (i < end && isDigit(color.charAt(i)))
+                i++;
+            if (i == fraction)
+                return -1;
+        } else if (i == integer) {
+            return -1;
+        }
+
+        if (i + 1 < end && (color.charAt(i) == 'e' || color.charAt(i) == 'E')) {
+            int exponent = i + 1;
+            if (color.charAt(exponent) == '+' || color.charAt(exponent) == '-')
+                exponent++;
+            if (exponent < end && isDigit(color.charAt(exponent))) {
+                i = exponent;
+                while (i < end && isDigit(color.charAt(i)))
+                    i++;
+            }
+        }
+
+        if (i < end && color.charAt(i) == '%')
+            return ((i + 1) << 2) | PERCENTAGE;
+        int unit = i;
+        while (i < end && isLetter(color.charAt(i)))
+            i++;
+        if (i == unit)
+            return (i << 2) | NUMBER;
+        if (isUnit(color, unit, i, "deg") || isUnit(color, unit, i, "grad")
+                || isUnit(color, unit, i, "rad") || isUnit(color, unit, i, "turn"))
+            return (i << 2) | ANGLE;
+        return -1;
+    }
+
+    private static boolean isUnit(String color, int start, int end, String unit) {
+        return end - start == unit.length() && color.regionMatches(true, start, unit, 0, unit.length());
+    }
+
+    private static int skipWhitespace(String color, int i, int end) {
+        while (i < end) {
+            char c = color.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r' && c != '\f')
+                break;
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHexDigit(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+}
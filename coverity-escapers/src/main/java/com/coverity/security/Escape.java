@@ -26,6 +26,13 @@
  */
 package com.coverity.security;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.stream.Collector;
+
 /**
  * Escape is a small set of methods for escaping tainted data. These escaping
  * methods are useful in transforming user-controlled ("tainted") data into
@@ -45,6 +52,13 @@ package com.coverity.security;
  * Coverity products and these routines are completely standalone. Feel free to
  * use them! Just make sure you use them correctly.
  *
+ * When the input does not contain any character that needs escaping, the
+ * <code>String</code> returning methods return the input instance itself and
+ * do not allocate. Otherwise they build the result in a temporary buffer, which
+ * applications that escape from many short-lived threads, such as virtual threads,
+ * can take from a small shared pool with
+ * <code>-Dcom.coverity.security.scratchBuffers=true</code>.
+ *
  * @author Romain Gaucher
  * @author Andy Chou
  * @author Jon Passki
@@ -53,6 +67,39 @@ package com.coverity.security;
  */
 public class Escape {
 
+    /**
+     * The escaping contexts, to be nested with {@link Escape#compose(Context...)}.
+     *
+     * @since 1.3
+     */
+    public enum Context {
+        /** {@link Escape#html(String)} */
+        HTML(Escaper.HTML),
+        /** {@link Escape#htmlText(String)} */
+        HTML_TEXT(Escaper.HTML_TEXT),
+        /** {@link Escape#uri(String)} */
+        URI(Escaper.URI_PARAM),
+        /** {@link Escape#uriParam(String)} */
+        URI_PARAM(Escaper.URI_PARAM),
+        /** {@link Escape#jsString(String)} */
+        JS_STRING(Escaper.JS_STRING),
+        /** {@link Escape#jsRegex(String)} */
+        JS_REGEX(Escaper.JS_REGEX),
+        /** {@link Escape#cssString(String)} */
+        CSS_STRING(Escaper.CSS_STRING);
+
+        final Escaper escaper;
+
+        private Context(Escaper escaper) {
+            this.escaper = escaper;
+        }
+    }
+
+    // Recorders of the calls, for the metrics and the flight recorder events
+    private static final MethodMetrics SQL_LIKE_CLAUSE = EscapeMetrics.register("Escape.sqlLikeClause");
+    private static final MethodMetrics SQL_LIKE_CLAUSE_APPENDABLE =
+            EscapeMetrics.register("Escape.sqlLikeClause(Appendable)");
+
     /**
      * HTML entity escaping for text content and attributes.
      *
@@ -92,67 +139,161 @@ public class Escape {
      * @since  1.0
      */
     public static String html(String input) {
+        return Escaper.HTML.escape(input);
+    }
+
+
+    /**
+     * Same as {@link #html(String)} for any character sequence, such as a
+     * <code>StringBuilder</code> or a <code>CharBuffer</code>. The characters are read
+     * directly from the sequence instead of being copied to a <code>String</code> first.
+     *
+     * @param  input the character sequence to be escaped
+     * @return       the HTML escaped string or <code>null</code> if <code>input</code> is null
+     * @since  1.3
+     */
+    public static String html(CharSequence input) {
+        return Escaper.HTML.escape(input);
+    }
+
+
+    /**
+     * Same as {@link #html(String)}, but escapes the <code>srcLen</code> characters of
+     * <code>src</code> at <code>srcOff</code> into <code>dst</code> at <code>dstOff</code>,
+     * for a caller that manages its own buffers. Nothing is allocated.
+     *
+     * When the rest of <code>dst</code> is too small for the escaped characters, nothing
+     * is written, and the opposite of the number of characters needed from
+     * <code>dstOff</code> is returned instead, so that the caller can grow its buffer and
+     * try again:
+     * <pre>
+     * int n = Escape.html(src, 0, src.length, buf, pos);
+     * if (n &lt; 0) {
+     *     buf = Arrays.copyOf(buf, Math.max(2 * buf.length, pos - n));
+     *     n = Escape.html(src, 0, src.length, buf, pos);
+     * }
+     * pos += n;
+     * </pre>
+     *
+     * @param  src    the characters to be escaped
+     * @param  srcOff the index of the first character to escape
+     * @param  srcLen the number of characters to escape
+     * @param  dst    the destination of the escaped characters
+     * @param  dstOff the index in <code>dst</code> of the first escaped character
+     * @return        the number of characters written, or the opposite of the number of
+     *                characters needed if <code>dst</code> is too small
+     * @throws IndexOutOfBoundsException if the source range or the destination offset
+     *                                   is out of bounds
+     * @since  1.3
+     */
+    public static int html(char[] src, int srcOff, int srcLen, char[] dst, int dstOff) {
+        return Escaper.HTML.escape(src, srcOff, srcLen, dst, dstOff);
+    }
+
+
+    /**
+     * Same as {@link #html(String)}, but appends the escaped input to <code>output</code>
+     * instead of returning a new string. This avoids the intermediate buffers when the
+     * result is written to a <code>StringBuilder</code> or a <code>Writer</code> anyway.
+     *
+     * @param  input  the character sequence to be escaped, nothing is appended if it is null
+     * @param  output the destination of the escaped characters
+     * @throws IOException if <code>output</code> throws while appending
+     * @since  1.3
+     */
+    public static void html(CharSequence input, Appendable output) throws IOException {
         if (input == null)
-            return null;
+            return;
 
-        int length = input.length();
-        StringBuilder output = allocateStringBuilder(length);
+        Escaper.HTML.escape(input, 0, input.length(), output);
+    }
 
-        for (int i = 0; i < length; i++) {
-            char c = input.charAt(i);
-            switch (c) {
-            // Control chars
-            case '\t':
-                output.append("&#x09;");
-                break;
-            case '\n':
-                output.append("&#x0A;");
-                break;
-            case '\f':
-                output.append("&#x0C;");
-                break;
-            case '\r':
-                output.append("&#x0D;");
-                break;
-            // Chars that have a meaning for HTML
-            case '\'':
-                output.append("&#39;");
-                break;
-            case '\\':
-                output.append("&#x5C;");
-                break;
-            case ' ':
-                output.append("&#x20;");
-                break;
-            case '/':
-                output.append("&#x2F;");
-                break;
-            case '"':
-                output.append("&quot;");
-                break;
-            case '<':
-                output.append("&lt;");
-                break;
-            case '>':
-                output.append("&gt;");
-                break;
-            case '&':
-                output.append("&amp;");
-                break;
-            // Unicode new lines
-            case '\u2028':
-                output.append("&#x2028;");
-                break;
-            case '\u2029':
-                output.append("&#x2029;");
-                break;
-
-            default:
-                output.append(c);
-                break;
-            }
-        }
-        return output.toString();
+
+    /**
+     * Same as {@link #html(String)}, but writes the escaped input to <code>out</code>
+     * encoded with <code>charset</code>.
+     *
+     * For UTF-8, ISO-8859-1 and US-ASCII, escaping and encoding are done in a single pass
+     * with precomputed byte sequences for the replacements, without creating any
+     * intermediate <code>String</code>, <code>char[]</code> or <code>CharsetEncoder</code>.
+     * Characters that cannot be encoded, and unpaired surrogates, are written as
+     * <code>?</code>, like <code>String.getBytes(Charset)</code> does. Other charsets
+     * are encoded from the escaped <code>String</code>.
+     *
+     * The stream is neither flushed nor closed.
+     *
+     * @param  input   the character sequence to be escaped, nothing is written if it is null
+     * @param  out     the stream that receives the encoded escaped characters
+     * @param  charset the encoding of the stream
+     * @throws IOException if writing to <code>out</code> fails
+     * @since  1.3
+     */
+    public static void html(CharSequence input, OutputStream out, Charset charset) throws IOException {
+        if (input == null)
+            return;
+
+        Escaper.HTML.escape(input, out, charset);
+    }
+
+
+    /**
+     * Same as {@link #html(String)} for every string of <code>inputs</code>, for pages or
+     * exports that escape many values at once.
+     *
+     * Consecutive strings are escaped in a shared buffer. Batches of a few thousand
+     * strings or more are split across the threads of the fork/join pool of the calling
+     * thread, or of the common pool.
+     *
+     * @param  inputs the strings to be escaped, which may contain null elements
+     * @return        a new fixed-size list of the escaped strings, in the same order
+     * @since  1.3
+     */
+    public static List<String> htmlAll(List<String> inputs) {
+        return BulkEscaper.escapeAll(Escaper.HTML, inputs);
+    }
+
+    /**
+     * Same as {@link #htmlAll(List)}, but stores the escaped strings in the first elements
+     * of <code>outputs</code>, which can be <code>inputs</code> itself.
+     *
+     * @param  inputs  the strings to be escaped, which may contain null elements
+     * @param  outputs the array that receives the escaped strings, in the same order
+     * @throws IllegalArgumentException if <code>outputs</code> is shorter than <code>inputs</code>
+     * @since  1.3
+     */
+    public static void htmlAll(String[] inputs, String[] outputs) {
+        BulkEscaper.escapeAll(Escaper.HTML, inputs, outputs);
+    }
+
+    /**
+     * Returns a collector that applies {@link #html(String)} to the elements of a stream
+     * and collects them into a new <code>List</code>, in encounter order:
+     * <pre>
+     * List&lt;String&gt; names = users.parallelStream().map(User::getName).collect(Escape.toHtmlList());
+     * </pre>
+     * The strings accumulated by each thread share a buffer.
+     *
+     * @return a collector of HTML escaped strings
+     * @since  1.3
+     */
+    public static Collector<String, ?, List<String>> toHtmlList() {
+        return BulkEscaper.toList(Escaper.HTML);
+    }
+
+    /**
+     * Same as {@link #html(String)}, but a string of a million characters or more is cut
+     * into chunks that are escaped in parallel, in the fork/join pool of the calling
+     * thread, or in the common pool. Shorter strings are escaped by the calling thread.
+     *
+     * The result is built in an array of its exact length, rather than in a buffer that
+     * grows as the input is escaped.
+     *
+     * @param  input the string to be escaped
+     * @return       the HTML escaped string or <code>null</code> if <code>input</code> is null
+     * @since  1.3
+     */
+    public static String htmlParallel(String input) {
+        return BulkEscaper.escapeParallel(Escaper.HTML, input);
     }
 
 
@@ -183,36 +324,74 @@ public class Escape {
      * @since  1.0
      */
     public static String htmlText(String input) {
+        return Escaper.HTML_TEXT.escape(input);
+    }
+
+
+    /**
+     * Same as {@link #htmlText(String)} for any character sequence. See {@link #html(CharSequence)}.
+     *
+     * @param  input the character sequence to be escaped
+     * @return       the HTML escaped string or <code>null</code> if <code>input</code> is null
+     * @since  1.3
+     */
+    public static String htmlText(CharSequence input) {
+        return Escaper.HTML_TEXT.escape(input);
+    }
+
+
+    /**
+     * Same as {@link #htmlText(String)} into a caller-owned array. See
+     * {@link #html(char[], int, int, char[], int)}.
+     *
+     * @param  src    the characters to be escaped
+     * @param  srcOff the index of the first character to escape
+     * @param  srcLen the number of characters to escape
+     * @param  dst    the destination of the escaped characters
+     * @param  dstOff the index in <code>dst</code> of the first escaped character
+     * @return        the number of characters written, or the opposite of the number of
+     *                characters needed if <code>dst</code> is too small
+     * @throws IndexOutOfBoundsException if the source range or the destination offset
+     *                                   is out of bounds
+     * @since  1.3
+     */
+    public static int htmlText(char[] src, int srcOff, int srcLen, char[] dst, int dstOff) {
+        return Escaper.HTML_TEXT.escape(src, srcOff, srcLen, dst, dstOff);
+    }
+
+
+    /**
+     * Same as {@link #htmlText(String)}, but appends the escaped input to <code>output</code>
+     * instead of returning a new string.
+     *
+     * @param  input  the character sequence to be escaped, nothing is appended if it is null
+     * @param  output the destination of the escaped characters
+     * @throws IOException if <code>output</code> throws while appending
+     * @since  1.3
+     */
+    public static void htmlText(CharSequence input, Appendable output) throws IOException {
         if (input == null)
-            return null;
+            return;
 
-        int length = input.length();
-        StringBuilder output = allocateStringBuilder(length);
+        Escaper.HTML_TEXT.escape(input, 0, input.length(), output);
+    }
 
-        for (int i = 0; i < length; i++) {
-            char c = input.charAt(i);
-            switch (c) {
-            case '\'':
-                output.append("&#39;");
-                break;
-            case '"':
-                output.append("&quot;");
-                break;
-            case '<':
-                output.append("&lt;");
-                break;
-            case '>':
-                output.append("&gt;");
-                break;
-            case '&':
-                output.append("&amp;");
-                break;
-            default:
-                output.append(c);
-                break;
-            }
-        }
-        return output.toString();
+
+    /**
+     * Same as {@link #htmlText(String)}, but writes the escaped input to <code>out</code>
+     * encoded with <code>charset</code>. See {@link #html(CharSequence, OutputStream, Charset)}.
+     *
+     * @param  input   the character sequence to be escaped, nothing is written if it is null
+     * @param  out     the stream that receives the encoded escaped characters
+     * @param  charset the encoding of the stream
+     * @throws IOException if writing to <code>out</code> fails
+     * @since  1.3
+     */
+    public static void htmlText(CharSequence input, OutputStream out, Charset charset) throws IOException {
+        if (input == null)
+            return;
+
+        Escaper.HTML_TEXT.escape(input, out, charset);
     }
 
 
@@ -262,108 +441,74 @@ public class Escape {
      * @since  1.0
      */
     public static String uriParam(String input) {
+        return Escaper.URI_PARAM.escape(input);
+    }
+
+
+    /**
+     * Same as {@link #uriParam(String)} for any character sequence. See {@link #html(CharSequence)}.
+     *
+     * @param  input the character sequence to be escaped
+     * @return       the URI encoded string or <code>null</code> if <code>input</code> is null
+     * @since  1.3
+     */
+    public static String uriParam(CharSequence input) {
+        return Escaper.URI_PARAM.escape(input);
+    }
+
+
+    /**
+     * Same as {@link #uriParam(String)} into a caller-owned array. See
+     * {@link #html(char[], int, int, char[], int)}.
+     *
+     * @param  src    the characters to be escaped
+     * @param  srcOff the index of the first character to escape
+     * @param  srcLen the number of characters to escape
+     * @param  dst    the destination of the escaped characters
+     * @param  dstOff the index in <code>dst</code> of the first escaped character
+     * @return        the number of characters written, or the opposite of the number of
+     *                characters needed if <code>dst</code> is too small
+     * @throws IndexOutOfBoundsException if the source range or the destination offset
+     *                                   is out of bounds
+     * @since  1.3
+     */
+    public static int uriParam(char[] src, int srcOff, int srcLen, char[] dst, int dstOff) {
+        return Escaper.URI_PARAM.escape(src, srcOff, srcLen, dst, dstOff);
+    }
+
+
+    /**
+     * Same as {@link #uriParam(String)}, but appends the escaped input to <code>output</code>
+     * instead of returning a new string.
+     *
+     * @param  input  the character sequence to be escaped, nothing is appended if it is null
+     * @param  output the destination of the escaped characters
+     * @throws IOException if <code>output</code> throws while appending
+     * @since  1.3
+     */
+    public static void uriParam(CharSequence input, Appendable output) throws IOException {
         if (input == null)
-            return null;
+            return;
 
-        int length = input.length();
-        StringBuilder output = allocateStringBuilder(length);
+        Escaper.URI_PARAM.escape(input, 0, input.length(), output);
+    }
 
-        for (int i = 0; i < length; i++) {
-            char c = input.charAt(i);
-            switch (c) {
-            // Control chars
-            case '\t':
-                output.append("%09");
-                break;
-            case '\n':
-                output.append("%0A");
-                break;
-            case '\f':
-                output.append("%0C");
-                break;
-            case '\r':
-                output.append("%0D");
-                break;
-            // RFC chars to encode, plus % ' " < and >, and space
-            case ' ':
-                output.append("%20");
-                break;
-            case '!':
-                output.append("%21");
-                break;
-            case '"':
-                output.append("%22");
-                break;
-            case '#':
-                output.append("%23");
-                break;
-            case '$':
-                output.append("%24");
-                break;
-            case '%':
-                output.append("%25");
-                break;
-            case '&':
-                output.append("%26");
-                break;
-            case '\'':
-                output.append("%27");
-                break;
-            case '(':
-                output.append("%28");
-                break;
-            case ')':
-                output.append("%29");
-                break;
-            case '*':
-                output.append("%2A");
-                break;
-            case '+':
-                output.append("%2B");
-                break;
-            case ',':
-                output.append("%2C");
-                break;
-            case '.':
-                output.append("%2E");
-                break;
-            case '/':
-                output.append("%2F");
-                break;
-            case ':':
-                output.append("%3A");
-                break;
-            case ';':
-                output.append("%3B");
-                break;
-            case '<':
-                output.append("%3C");
-                break;
-            case '=':
-                output.append("%3D");
-                break;
-            case '>':
-                output.append("%3E");
-                break;
-            case '?':
-                output.append("%3F");
-                break;
-            case '@':
-                output.append("%40");
-                break;
-            case '[':
-                output.append("%5B");
-                break;
-            case ']':
-                output.append("%5D");
-                break;
-
-            default:
-                output.append(c);
-                break;
-            }
-        }
-        return output.toString();
+
+    /**
+     * Same as {@link #uriParam(String)}, but writes the escaped input to <code>out</code>
+     * encoded with <code>charset</code>. See {@link #html(CharSequence, OutputStream, Charset)}.
+     *
+     * @param  input   the character sequence to be escaped, nothing is written if it is null
+     * @param  out     the stream that receives the encoded escaped characters
+     * @param  charset the encoding of the stream
+     * @throws IOException if writing to <code>out</code> fails
+     * @since  1.3
+     */
+    public static void uriParam(CharSequence input, OutputStream out, Charset charset) throws IOException {
+        if (input == null)
+            return;
+
+        Escaper.URI_PARAM.escape(input, out, charset);
     }
 
 
@@ -383,6 +528,65 @@ public class Escape {
     }
 
 
+    /**
+     * Same as {@link #uri(String)} for any character sequence. See {@link #html(CharSequence)}.
+     *
+     * @param  input the character sequence to be escaped
+     * @return       the URI encoded string or <code>null</code> if <code>input</code> is null
+     * @since  1.3
+     */
+    public static String uri(CharSequence input) {
+        return uriParam(input);
+    }
+
+
+    /**
+     * Same as {@link #uri(String)} into a caller-owned array. See
+     * {@link #html(char[], int, int, char[], int)}.
+     *
+     * @param  src    the characters to be escaped
+     * @param  srcOff the index of the first character to escape
+     * @param  srcLen the number of characters to escape
+     * @param  dst    the destination of the escaped characters
+     * @param  dstOff the index in <code>dst</code> of the first escaped character
+     * @return        the number of characters written, or the opposite of the number of
+     *                characters needed if <code>dst</code> is too small
+     * @throws IndexOutOfBoundsException if the source range or the destination offset
+     *                                   is out of bounds
+     * @since  1.3
+     */
+    public static int uri(char[] src, int srcOff, int srcLen, char[] dst, int dstOff) {
+        return uriParam(src, srcOff, srcLen, dst, dstOff);
+    }
+
+
+    /**
+     * Same as {@link #uriParam(CharSequence, Appendable)} for now.
+     *
+     * @param  input  the character sequence to be escaped, nothing is appended if it is null
+     * @param  output the destination of the escaped characters
+     * @throws IOException if <code>output</code> throws while appending
+     * @since  1.3
+     */
+    public static void uri(CharSequence input, Appendable output) throws IOException {
+        uriParam(input, output);
+    }
+
+
+    /**
+     * Same as {@link #uriParam(CharSequence, OutputStream, Charset)} for now.
+     *
+     * @param  input   the character sequence to be escaped, nothing is written if it is null
+     * @param  out     the stream that receives the encoded escaped characters
+     * @param  charset the encoding of the stream
+     * @throws IOException if writing to <code>out</code> fails
+     * @since  1.3
+     */
+    public static void uri(CharSequence input, OutputStream out, Charset charset) throws IOException {
+        uriParam(input, out, charset);
+    }
+
+
     /**
      * JavaScript String Unicode escaper.
      *
@@ -426,75 +630,74 @@ public class Escape {
      * @since  1.0
      */
     public static String jsString(String input) {
+        return Escaper.JS_STRING.escape(input);
+    }
+
+
+    /**
+     * Same as {@link #jsString(String)} for any character sequence. See {@link #html(CharSequence)}.
+     *
+     * @param  input the character sequence to be escaped
+     * @return       the JavaScript string Unicode escaped string or <code>null</code> if <code>input</code> is null
+     * @since  1.3
+     */
+    public static String jsString(CharSequence input) {
+        return Escaper.JS_STRING.escape(input);
+    }
+
+
+    /**
+     * Same as {@link #jsString(String)} into a caller-owned array. See
+     * {@link #html(char[], int, int, char[], int)}.
+     *
+     * @param  src    the characters to be escaped
+     * @param  srcOff the index of the first character to escape
+     * @param  srcLen the number of characters to escape
+     * @param  dst    the destination of the escaped characters
+     * @param  dstOff the index in <code>dst</code> of the first escaped character
+     * @return        the number of characters written, or the opposite of the number of
+     *                characters needed if <code>dst</code> is too small
+     * @throws IndexOutOfBoundsException if the source range or the destination offset
+     *                                   is out of bounds
+     * @since  1.3
+     */
+    public static int jsString(char[] src, int srcOff, int srcLen, char[] dst, int dstOff) {
+        return Escaper.JS_STRING.escape(src, srcOff, srcLen, dst, dstOff);
+    }
+
+
+    /**
+     * Same as {@link #jsString(String)}, but appends the escaped input to <code>output</code>
+     * instead of returning a new string.
+     *
+     * @param  input  the character sequence to be escaped, nothing is appended if it is null
+     * @param  output the destination of the escaped characters
+     * @throws IOException if <code>output</code> throws while appending
+     * @since  1.3
+     */
+    public static void jsString(CharSequence input, Appendable output) throws IOException {
         if (input == null)
-            return null;
+            return;
 
-        int length = input.length();
-        StringBuilder output = allocateStringBuilder(length);
+        Escaper.JS_STRING.escape(input, 0, input.length(), output);
+    }
 
-        for (int i = 0; i < length; i++) {
-            char c = input.charAt(i);
-            switch (c) {
-            // Control chars
-            case '\b':
-                output.append("\\u0008");
-                break;
-            case '\t':
-                output.append("\\u0009");
-                break;
-            case '\n':
-                output.append("\\u000A");
-                break;
-            case '\u000b':
-                output.append("\\u000B");
-                break;
-            case '\f':
-                output.append("\\u000C");
-                break;
-            case '\r':
-                output.append("\\u000D");
-                break;
-            // JavaScript String chars
-            case '\'':
-                output.append("\\u0027");
-                break;
-            case '"':
-                output.append("\\u0022");
-                break;
-            case '\\':
-                output.append("\\u005C");
-                break;
-            // URI encoding char
-            case '%':
-                output.append("\\u0025");
-                break;
-            // HTML chars for closing the parent context
-            case '&':
-                output.append("\\u0026");
-                break;
-            case '/':
-                output.append("\\u002F");
-                break;
-            case '<':
-                output.append("\\u003C");
-                break;
-            case '>':
-                output.append("\\u003E");
-                break;
-            // Unicode
-            case '\u2028':
-                output.append("\\u2028");
-                break;
-            case '\u2029':
-                output.append("\\u2029");
-                break;
-
-            default:
-                output.append(c);
-                break;
-            }
-        }
-        return output.toString();
+
+    /**
+     * Same as {@link #jsString(String)}, but writes the escaped input to <code>out</code>
+     * encoded with <code>charset</code>. See {@link #html(CharSequence, OutputStream, Charset)}.
+     *
+     * @param  input   the character sequence to be escaped, nothing is written if it is null
+     * @param  out     the stream that receives the encoded escaped characters
+     * @param  charset the encoding of the stream
+     * @throws IOException if writing to <code>out</code> fails
+     * @since  1.3
+     */
+    public static void jsString(CharSequence input, OutputStream out, Charset charset) throws IOException {
+        if (input == null)
+            return;
+
+        Escaper.JS_STRING.escape(input, out, charset);
     }
 
 
@@ -550,97 +753,74 @@ public class Escape {
      * @since  1.0
      */
     public static String jsRegex(String input) {
+        return Escaper.JS_REGEX.escape(input);
+    }
+
+
+    /**
+     * Same as {@link #jsRegex(String)} for any character sequence. See {@link #html(CharSequence)}.
+     *
+     * @param  input the character sequence to be escaped
+     * @return       the escaped JavaScript regex or <code>null</code> if <code>input</code> is null
+     * @since  1.3
+     */
+    public static String jsRegex(CharSequence input) {
+        return Escaper.JS_REGEX.escape(input);
+    }
+
+
+    /**
+     * Same as {@link #jsRegex(String)} into a caller-owned array. See
+     * {@link #html(char[], int, int, char[], int)}.
+     *
+     * @param  src    the characters to be escaped
+     * @param  srcOff the index of the first character to escape
+     * @param  srcLen the number of characters to escape
+     * @param  dst    the destination of the escaped characters
+     * @param  dstOff the index in <code>dst</code> of the first escaped character
+     * @return        the number of characters written, or the opposite of the number of
+     *                characters needed if <code>dst</code> is too small
+     * @throws IndexOutOfBoundsException if the source range or the destination offset
+     *                                   is out of bounds
+     * @since  1.3
+     */
+    public static int jsRegex(char[] src, int srcOff, int srcLen, char[] dst, int dstOff) {
+        return Escaper.JS_REGEX.escape(src, srcOff, srcLen, dst, dstOff);
+    }
+
+
+    /**
+     * Same as {@link #jsRegex(String)}, but appends the escaped input to <code>output</code>
+     * instead of returning a new string.
+     *
+     * @param  input  the character sequence to be escaped, nothing is appended if it is null
+     * @param  output the destination of the escaped characters
+     * @throws IOException if <code>output</code> throws while appending
+     * @since  1.3
+     */
+    public static void jsRegex(CharSequence input, Appendable output) throws IOException {
         if (input == null)
-            return null;
+            return;
 
-        int length = input.length();
-        StringBuilder output = allocateStringBuilder(length);
+        Escaper.JS_REGEX.escape(input, 0, input.length(), output);
+    }
 
-        for (int i = 0; i < length; i++) {
-            char c = input.charAt(i);
-            switch (c) {
-            // Control chars
-            case '\t':
-                output.append("\\t");
-                break;
-            case '\n':
-                output.append("\\n");
-                break;
-            case '\u000b':
-                output.append("\\v");
-                break;
-            case '\f':
-                output.append("\\f");
-                break;
-            case '\r':
-                output.append("\\r");
-                break;
-            // Escape sequence, and regexp terminator
-            case '\\':
-                output.append("\\\\");
-                break;
-            case '/':
-                output.append("\\/");
-                break;
-            // Regexp specific characters
-            case '(':
-                output.append("\\(");
-                break;
-            case '[':
-                output.append("\\[");
-                break;
-            case '{':
-                output.append("\\{");
-                break;
-            case ']':
-                output.append("\\]");
-                break;
-            case ')':
-                output.append("\\)");
-                break;
-            case '}':
-                output.append("\\}");
-                break;
-            case '*':
-                output.append("\\*");
-                break;
-            case '+':
-                output.append("\\+");
-                break;
-            case '-':
-                output.append("\\-");
-                break;
-            case '.':
-                output.append("\\.");
-                break;
-            case '?':
-                output.append("\\?");
-                break;
-            case '!':
-                output.append("\\!");
-                break;
-            case '^':
-                output.append("\\^");
-                break;
-            case '$':
-                output.append("\\$");
-                break;
-            case '|':
-                output.append("\\|");
-                break;
-            // Unicode
-            case '\u2028':
-                output.append("\\u2028");
-                break;
-            case '\u2029':
-                output.append("\\u2029");
-                break;
-            default:
-                output.append(c);
-                break;
-            }
-        }
-        return output.toString();
+
+    /**
+     * Same as {@link #jsRegex(String)}, but writes the escaped input to <code>out</code>
+     * encoded with <code>charset</code>. See {@link #html(CharSequence, OutputStream, Charset)}.
+     *
+     * @param  input   the character sequence to be escaped, nothing is written if it is null
+     * @param  out     the stream that receives the encoded escaped characters
+     * @param  charset the encoding of the stream
+     * @throws IOException if writing to <code>out</code> fails
+     * @since  1.3
+     */
+    public static void jsRegex(CharSequence input, OutputStream out, Charset charset) throws IOException {
+        if (input == null)
+            return;
+
+        Escaper.JS_REGEX.escape(input, out, charset);
     }
 
 
@@ -683,88 +863,605 @@ public class Escape {
      * @since  1.0
      */
     public static String cssString(String input) {
-        if (input == null)
-            return null;
+        return Escaper.CSS_STRING.escape(input);
+    }
 
-        int length = input.length();
-        StringBuilder output = allocateStringBuilder(length);
 
-        for (int i = 0; i < length; i++) {
-            char c = input.charAt(i);
-            switch (c) {
-            // Control chars
-            case '\b':
-                output.append("\\08 ");
-                break;
-            case '\t':
-                output.append("\\09 ");
-                break;
-            case '\n':
-                output.append("\\0A ");
-                break;
-            case '\f':
-                output.append("\\0C ");
-                break;
-            case '\r':
-                output.append("\\0D ");
-                break;
-            // String chars
-            case '\'':
-                output.append("\\27 ");
-                break;
-            case '"':
-                output.append("\\22 ");
-                break;
-            case '\\':
-                output.append("\\5C ");
-                break;
-            // HTML chars for closing the parent context
-            case '&':
-                output.append("\\26 ");
-                break;
-            case '/':
-                output.append("\\2F ");
-                break;
-            case '<':
-                output.append("\\3C ");
-                break;
-            case '>':
-                output.append("\\3E ");
-                break;
-            // Unicode
-            case '\u2028':
-                output.append("\\002028 ");
-                break;
-            case '\u2029':
-                output.append("\\002029 ");
-                break;
-
-            default:
-                output.append(c);
-                break;
-            }
-        }
-        return output.toString();
+    /**
+     * Same as {@link #cssString(String)} for any character sequence. See {@link #html(CharSequence)}.
+     *
+     * @param  input the character sequence to be escaped
+     * @return       the CSS string escaped or <code>null</code> if <code>input</code> is null
+     * @since  1.3
+     */
+    public static String cssString(CharSequence input) {
+        return Escaper.CSS_STRING.escape(input);
     }
 
 
     /**
-     * SQL LIKE clause escaper.
-     *
-     * This SQL LIKE clause escaper does not protect against SQL injection, but ensure
-     * that the string to be consumed in SQL LIKE clause does not alter the current
-     * LIKE query by inserting <code>%</code> or <code>_</code>:
-     * <pre>
-     * entityManager.createQuery("FROM MyEntity e WHERE e.content LIKE :like_query ESCAPE '@'")
-     *              .setParameter("like_query", "%" + Escape.sqlLikeClause(USER_DATA_HERE))
-     *              .getResultList();
-     * </pre>
-     * This escaper has to be used with a safe SQL query construct such as the JPQL
-     * named parameterized query in the previous example.
-     *
+     * Same as {@link #cssString(String)} into a caller-owned array. See
+     * {@link #html(char[], int, int, char[], int)}.
      *
-     * This escaper uses by default the <code>@</code> as escape character. The other method
-     * {@link #sqlLikeClause(String,char)} allows for using a different escape character such as
+     * @param  src    the characters to be escaped
+     * @param  srcOff the index of the first character to escape
+     * @param  srcLen the number of characters to escape
+     * @param  dst    the destination of the escaped characters
+     * @param  dstOff the index in <code>dst</code> of the first escaped character
+     * @return        the number of characters written, or the opposite of the number of
+     *                characters needed if <code>dst</code> is too small
+     * @throws IndexOutOfBoundsException if the source range or the destination offset
+     *                                   is out of bounds
+     * @since  1.3
+     */
+    public static int cssString(char[] src, int srcOff, int srcLen, char[] dst, int dstOff) {
+        return Escaper.CSS_STRING.escape(src, srcOff, srcLen, dst, dstOff);
+    }
+
+
+    /**
+     * Same as {@link #cssString(String)}, but appends the escaped input to <code>output</code>
+     * instead of returning a new string.
+     *
+     * @param  input  the character sequence to be escaped, nothing is appended if it is null
+     * @param  output the destination of the escaped characters
+     * @throws IOException if <code>output</code> throws while appending
+     * @since  1.3
+     */
+    public static void cssString(CharSequence input, Appendable output) throws IOException {
+        if (input == null)
+            return;
+
+        Escaper.CSS_STRING.escape(input, 0, input.length(), output);
+    }
+
+
+    /**
+     * Same as {@link #cssString(String)}, but writes the escaped input to <code>out</code>
+     * encoded with <code>charset</code>. See {@link #html(CharSequence, OutputStream, Charset)}.
+     *
+     * @param  input   the character sequence to be escaped, nothing is written if it is null
+     * @param  out     the stream that receives the encoded escaped characters
+     * @param  charset the encoding of the stream
+     * @throws IOException if writing to <code>out</code> fails
+     * @since  1.3
+     */
+    public static void cssString(CharSequence input, OutputStream out, Charset charset) throws IOException {
+        if (input == null)
+            return;
+
+        Escaper.CSS_STRING.escape(input, out, charset);
+    }
+
+
+    /**
+     * Returns a <code>Writer</code> that applies {@link #html(String)} to everything written
+     * to it, and passes the result to <code>out</code>.
+     *
+     * The escaping is done incrementally as characters are written, so the memory used stays
+     * constant no matter how large the escaped content is. This is useful to stream large
+     * values directly into a response writer:
+     * <pre>
+     * Writer writer = Escape.htmlWriter(response.getWriter());
+     * writer.write(largeUserContent);
+     * writer.flush();
+     * </pre>
+     * Closing or flushing the returned writer closes or flushes <code>out</code>.
+     *
+     * @param  out the writer that receives the escaped characters
+     * @return     a writer that escapes for the HTML context
+     * @since  1.3
+     */
+    public static Writer htmlWriter(Writer out) {
+        return new EscapingWriter(out, Escaper.HTML);
+    }
+
+
+    /**
+     * Returns a <code>Writer</code> that applies {@link #htmlText(String)} to everything written
+     * to it, and passes the result to <code>out</code>. See {@link #htmlWriter(Writer)}.
+     *
+     * @param  out the writer that receives the escaped characters
+     * @return     a writer that applies HTML text escaping
+     * @since  1.3
+     */
+    public static Writer htmlTextWriter(Writer out) {
+        return new EscapingWriter(out, Escaper.HTML_TEXT);
+    }
+
+
+    /**
+     * Returns a <code>Writer</code> that applies {@link #uriParam(String)} to everything written
+     * to it, and passes the result to <code>out</code>. See {@link #htmlWriter(Writer)}.
+     *
+     * @param  out the writer that receives the escaped characters
+     * @return     a writer that applies URI encoding
+     * @since  1.3
+     */
+    public static Writer uriParamWriter(Writer out) {
+        return new EscapingWriter(out, Escaper.URI_PARAM);
+    }
+
+
+    /**
+     * Returns a <code>Writer</code> that applies {@link #jsString(String)} to everything written
+     * to it, and passes the result to <code>out</code>. See {@link #htmlWriter(Writer)}.
+     *
+     * @param  out the writer that receives the escaped characters
+     * @return     a writer that applies JavaScript string escaping
+     * @since  1.3
+     */
+    public static Writer jsStringWriter(Writer out) {
+        return new EscapingWriter(out, Escaper.JS_STRING);
+    }
+
+
+    /**
+     * Returns a <code>Writer</code> that applies {@link #jsRegex(String)} to everything written
+     * to it, and passes the result to <code>out</code>. See {@link #htmlWriter(Writer)}.
+     *
+     * @param  out the writer that receives the escaped characters
+     * @return     a writer that applies JavaScript regex escaping
+     * @since  1.3
+     */
+    public static Writer jsRegexWriter(Writer out) {
+        return new EscapingWriter(out, Escaper.JS_REGEX);
+    }
+
+
+    /**
+     * Returns a <code>Writer</code> that applies {@link #cssString(String)} to everything written
+     * to it, and passes the result to <code>out</code>. See {@link #htmlWriter(Writer)}.
+     *
+     * @param  out the writer that receives the escaped characters
+     * @return     a writer that applies CSS string escaping
+     * @since  1.3
+     */
+    public static Writer cssStringWriter(Writer out) {
+        return new EscapingWriter(out, Escaper.CSS_STRING);
+    }
+
+
+    /**
+     * HTML escaping of a JavaScript string, for instance in an event handler attribute:
+     * <pre>
+     * &lt;div onclick="alert('HTML_JS_STRING_ESCAPE_HERE')"&gt;
+     * </pre>
+     * This is the same as <code>html(jsString(input))</code>, computed in a single pass.
+     *
+     * @param  input the string to be escaped
+     * @return       the escaped string or <code>null</code> if <code>input</code> is null
+     * @since  1.3
+     */
+    public static String htmlJsString(String input) {
+        return Escaper.HTML_JS_STRING.escape(input);
+    }
+
+
+    /**
+     * Same as {@link #htmlJsString(String)} for any character sequence. See {@link #html(CharSequence)}.
+     *
+     * @param  input the character sequence to be escaped
+     * @return       the escaped string or <code>null</code> if <code>input</code> is null
+     * @since  1.3
+     */
+    public static String htmlJsString(CharSequence input) {
+        return Escaper.HTML_JS_STRING.escape(input);
+    }
+
+
+    /**
+     * Same as {@link #htmlJsString(String)} into a caller-owned array. See
+     * {@link #html(char[], int, int, char[], int)}.
+     *
+     * @param  src    the characters to be escaped
+     * @param  srcOff the index of the first character to escape
+     * @param  srcLen the number of characters to escape
+     * @param  dst    the destination of the escaped characters
+     * @param  dstOff the index in <code>dst</code> of the first escaped character
+     * @return        the number of characters written, or the opposite of the number of
+     *                characters needed if <code>dst</code> is too small
+     * @throws IndexOutOfBoundsException if the source range or the destination offset
+     *                                   is out of bounds
+     * @since  1.3
+     */
+    public static int htmlJsString(char[] src, int srcOff, int srcLen, char[] dst, int dstOff) {
+        return Escaper.HTML_JS_STRING.escape(src, srcOff, srcLen, dst, dstOff);
+    }
+
+
+    /**
+     * Same as {@link #htmlJsString(String)}, but appends the escaped input to <code>output</code>.
+     *
+     * @param  input  the character sequence to be escaped, nothing is appended if it is null
+     * @param  output the destination of the escaped characters
+     * @throws IOException if <code>output</code> throws while appending
+     * @since  1.3
+     */
+    public static void htmlJsString(CharSequence input, Appendable output) throws IOException {
+        if (input == null)
+            return;
+
+        Escaper.HTML_JS_STRING.escape(input, 0, input.length(), output);
+    }
+
+
+    /**
+     * Same as {@link #htmlJsString(String)}, but writes the escaped input to <code>out</code>
+     * encoded with <code>charset</code>. See {@link #html(CharSequence, OutputStream, Charset)}.
+     *
+     * @param  input   the character sequence to be escaped, nothing is written if it is null
+     * @param  out     the stream that receives the encoded escaped characters
+     * @param  charset the encoding of the stream
+     * @throws IOException if writing to <code>out</code> fails
+     * @since  1.3
+     */
+    public static void htmlJsString(CharSequence input, OutputStream out, Charset charset) throws IOException {
+        if (input == null)
+            return;
+
+        Escaper.HTML_JS_STRING.escape(input, out, charset);
+    }
+
+
+    /**
+     * HTML escaping of a URI parameter, for instance in a link:
+     * <pre>
+     * &lt;a href="/search?q=HTML_URI_PARAM_ESCAPE_HERE"&gt;
+     * </pre>
+     * This is the same as <code>html(uriParam(input))</code>, computed in a single pass.
+     *
+     * @param  input the string to be escaped
+     * @return       the escaped string or <code>null</code> if <code>input</code> is null
+     * @since  1.3
+     */
+    public static String htmlUriParam(String input) {
+        return Escaper.HTML_URI_PARAM.escape(input);
+    }
+
+
+    /**
+     * Same as {@link #htmlUriParam(String)} for any character sequence. See {@link #html(CharSequence)}.
+     *
+     * @param  input the character sequence to be escaped
+     * @return       the escaped string or <code>null</code> if <code>input</code> is null
+     * @since  1.3
+     */
+    public static String htmlUriParam(CharSequence input) {
+        return Escaper.HTML_URI_PARAM.escape(input);
+    }
+
+
+    /**
+     * Same as {@link #htmlUriParam(String)} into a caller-owned array. See
+     * {@link #html(char[], int, int, char[], int)}.
+     *
+     * @param  src    the characters to be escaped
+     * @param  srcOff the index of the first character to escape
+     * @param  srcLen the number of characters to escape
+     * @param  dst    the destination of the escaped characters
+     * @param  dstOff the index in <code>dst</code> of the first escaped character
+     * @return        the number of characters written, or the opposite of the number of
+     *                characters needed if <code>dst</code> is too small
+     * @throws IndexOutOfBoundsException if the source range or the destination offset
+     *                                   is out of bounds
+     * @since  1.3
+     */
+    public static int htmlUriParam(char[] src, int srcOff, int srcLen, char[] dst, int dstOff) {
+        return Escaper.HTML_URI_PARAM.escape(src, srcOff, srcLen, dst, dstOff);
+    }
+
+
+    /**
+     * Same as {@link #htmlUriParam(String)}, but appends the escaped input to <code>output</code>.
+     *
+     * @param  input  the character sequence to be escaped, nothing is appended if it is null
+     * @param  output the destination of the escaped characters
+     * @throws IOException if <code>output</code> throws while appending
+     * @since  1.3
+     */
+    public static void htmlUriParam(CharSequence input, Appendable output) throws IOException {
+        if (input == null)
+            return;
+
+        Escaper.HTML_URI_PARAM.escape(input, 0, input.length(), output);
+    }
+
+
+    /**
+     * Same as {@link #htmlUriParam(String)}, but writes the escaped input to <code>out</code>
+     * encoded with <code>charset</code>. See {@link #html(CharSequence, OutputStream, Charset)}.
+     *
+     * @param  input   the character sequence to be escaped, nothing is written if it is null
+     * @param  out     the stream that receives the encoded escaped characters
+     * @param  charset the encoding of the stream
+     * @throws IOException if writing to <code>out</code> fails
+     * @since  1.3
+     */
+    public static void htmlUriParam(CharSequence input, OutputStream out, Charset charset) throws IOException {
+        if (input == null)
+            return;
+
+        Escaper.HTML_URI_PARAM.escape(input, out, charset);
+    }
+
+
+    /**
+     * HTML escaping of a CSS string containing a URI, for instance in a style attribute:
+     * <pre>
+     * &lt;span style="background-image:url('HTML_CSS_URI_ESCAPE_HERE')"&gt;
+     * </pre>
+     * This is the same as <code>html(cssString(uri(input)))</code>, computed in a single pass.
+     *
+     * @param  input the string to be escaped
+     * @return       the escaped string or <code>null</code> if <code>input</code> is null
+     * @since  1.3
+     */
+    public static String htmlCssUri(String input) {
+        return Escaper.HTML_CSS_URI.escape(input);
+    }
+
+
+    /**
+     * Same as {@link #htmlCssUri(String)} for any character sequence. See {@link #html(CharSequence)}.
+     *
+     * @param  input the character sequence to be escaped
+     * @return       the escaped string or <code>null</code> if <code>input</code> is null
+     * @since  1.3
+     */
+    public static String htmlCssUri(CharSequence input) {
+        return Escaper.HTML_CSS_URI.escape(input);
+    }
+
+
+    /**
+     * Same as {@link #htmlCssUri(String)} into a caller-owned array. See
+     * {@link #html(char[], int, int, char[], int)}.
+     *
+     * @param  src    the characters to be escaped
+     * @param  srcOff the index of the first character to escape
+     * @param  srcLen the number of characters to escape
+     * @param  dst    the destination of the escaped characters
+     * @param  dstOff the index in <code>dst</code> of the first escaped character
+     * @return        the number of characters written, or the opposite of the number of
+     *                characters needed if <code>dst</code> is too small
+     * @throws IndexOutOfBoundsException if the source range or the destination offset
+     *                                   is out of bounds
+     * @since  1.3
+     */
+    public static int htmlCssUri(char[] src, int srcOff, int srcLen, char[] dst, int dstOff) {
+        return Escaper.HTML_CSS_URI.escape(src, srcOff, srcLen, dst, dstOff);
+    }
+
+
+    /**
+     * Same as {@link #htmlCssUri(String)}, but appends the escaped input to <code>output</code>.
+     *
+     * @param  input  the character sequence to be escaped, nothing is appended if it is null
+     * @param  output the destination of the escaped characters
+     * @throws IOException if <code>output</code> throws while appending
+     * @since  1.3
+     */
+    public static void htmlCssUri(CharSequence input, Appendable output) throws IOException {
+        if (input == null)
+            return;
+
+        Escaper.HTML_CSS_URI.escape(input, 0, input.length(), output);
+    }
+
+
+    /**
+     * Same as {@link #htmlCssUri(String)}, but writes the escaped input to <code>out</code>
+     * encoded with <code>charset</code>. See {@link #html(CharSequence, OutputStream, Charset)}.
+     *
+     * @param  input   the character sequence to be escaped, nothing is written if it is null
+     * @param  out     the stream that receives the encoded escaped characters
+     * @param  charset the encoding of the stream
+     * @throws IOException if writing to <code>out</code> fails
+     * @since  1.3
+     */
+    public static void htmlCssUri(CharSequence input, OutputStream out, Charset charset) throws IOException {
+        if (input == null)
+            return;
+
+        Escaper.HTML_CSS_URI.escape(input, out, charset);
+    }
+
+
+    /**
+     * Returns true when {@link #html(String)} would return <code>input</code> unchanged,
+     * i.e. none of its characters has to be escaped for the context.
+     *
+     * This allows a template engine to write a value as is, without escaping or copying
+     * it. The input is scanned once and nothing is allocated.
+     *
+     * @param  input the character sequence to check
+     * @return       true if <code>input</code> is null or safe for the context
+     * @since  1.3
+     */
+    public static boolean isHtmlSafe(CharSequence input) {
+        return input == null || Escaper.HTML.indexOfUnsafe(input, 0, input.length()) < 0;
+    }
+
+
+    /**
+     * Returns true when {@link #htmlText(String)} would return <code>input</code> unchanged.
+     * See {@link #isHtmlSafe(CharSequence)}.
+     *
+     * @param  input the character sequence to check
+     * @return       true if <code>input</code> is null or safe for the context
+     * @since  1.3
+     */
+    public static boolean isHtmlTextSafe(CharSequence input) {
+        return input == null || Escaper.HTML_TEXT.indexOfUnsafe(input, 0, input.length()) < 0;
+    }
+
+
+    /**
+     * Returns true when {@link #uriParam(String)} would return <code>input</code> unchanged.
+     * See {@link #isHtmlSafe(CharSequence)}.
+     *
+     * @param  input the character sequence to check
+     * @return       true if <code>input</code> is null or safe for the context
+     * @since  1.3
+     */
+    public static boolean isUriParamSafe(CharSequence input) {
+        return input == null || Escaper.URI_PARAM.indexOfUnsafe(input, 0, input.length()) < 0;
+    }
+
+
+    /**
+     * Returns true when {@link #jsString(String)} would return <code>input</code> unchanged.
+     * See {@link #isHtmlSafe(CharSequence)}.
+     *
+     * @param  input the character sequence to check
+     * @return       true if <code>input</code> is null or safe for the context
+     * @since  1.3
+     */
+    public static boolean isJsStringSafe(CharSequence input) {
+        return input == null || Escaper.JS_STRING.indexOfUnsafe(input, 0, input.length()) < 0;
+    }
+
+
+    /**
+     * Returns true when {@link #jsRegex(String)} would return <code>input</code> unchanged.
+     * See {@link #isHtmlSafe(CharSequence)}.
+     *
+     * @param  input the character sequence to check
+     * @return       true if <code>input</code> is null or safe for the context
+     * @since  1.3
+     */
+    public static boolean isJsRegexSafe(CharSequence input) {
+        return input == null || Escaper.JS_REGEX.indexOfUnsafe(input, 0, input.length()) < 0;
+    }
+
+
+    /**
+     * Returns true when {@link #cssString(String)} would return <code>input</code> unchanged.
+     * See {@link #isHtmlSafe(CharSequence)}.
+     *
+     * @param  input the character sequence to check
+     * @return       true if <code>input</code> is null or safe for the context
+     * @since  1.3
+     */
+    public static boolean isCssStringSafe(CharSequence input) {
+        return input == null || Escaper.CSS_STRING.indexOfUnsafe(input, 0, input.length()) < 0;
+    }
+
+
+    /**
+     * Returns the index of the first character of <code>input</code>, at or after
+     * <code>from</code>, that has to be escaped for <code>context</code>, or -1 if there is
+     * none. The characters before it can be copied as is.
+     *
+     * Like <code>String.indexOf(int, int)</code>, a negative <code>from</code> is the same as
+     * 0, and a <code>from</code> beyond the end returns -1. The input is scanned once and
+     * nothing is allocated.
+     *
+     * @param  input   the character sequence to check
+     * @param  context the escaping context
+     * @param  from    the index to start from
+     * @return         the index of the first unsafe character, or -1 if <code>input</code>
+     *                 is null or has none
+     * @since  1.3
+     */
+    public static int indexOfFirstUnsafe(CharSequence input, Context context, int from) {
+        if (input == null)
+            return -1;
+
+        int length = input.length();
+        if (from >= length)
+            return -1;
+        return context.escaper.indexOfUnsafe(input, Math.max(from, 0), length);
+    }
+
+
+    /**
+     * Returns an escaper for nested contexts, given from the innermost to the outermost.
+     *
+     * The escaper produces exactly the same output as the chained calls, but scans the
+     * input once:
+     * <pre>
+     * // Same as Escape.html(Escape.cssString(Escape.uri(x)))
+     * ContextEscaper styleUrl = Escape.compose(Context.URI, Context.CSS_STRING, Context.HTML);
+     * </pre>
+     * The replacement tables of the escaper are computed by this method, so the result
+     * should be kept and reused.
+     *
+     * @param  contexts the contexts, innermost first
+     * @return          an escaper for the nested contexts
+     * @throws IllegalArgumentException if no context is given, or one of them is null
+     * @since  1.3
+     */
+    public static ContextEscaper compose(Context... contexts) {
+        if (contexts == null || contexts.length == 0)
+            throw new IllegalArgumentException("At least one context is required");
+        for (Context context : contexts) {
+            if (context == null)
+                throw new IllegalArgumentException("Null context");
+        }
+
+        Escaper escaper = contexts[0].escaper;
+        for (int i = 1; i < contexts.length; i++)
+            escaper = escaper.then(contexts[i].escaper);
+        return new ContextEscaper(escaper, contexts);
+    }
+
+
+    /**
+     * Returns an escaper for <code>context</code> that caches up to <code>maxEntries</code>
+     * escaped strings, for applications that escape the same values over and over.
+     * Inputs longer than {@link CachedEscaper#DEFAULT_MAX_INPUT_LENGTH} are not cached.
+     *
+     * @param  context    the escaping context
+     * @param  maxEntries the maximum number of cached strings
+     * @return            a thread-safe caching escaper
+     * @throws IllegalArgumentException if <code>maxEntries</code> is not positive
+     * @see    CachedEscaper
+     * @since  1.3
+     */
+    public static CachedEscaper cached(Context context, int maxEntries) {
+        return cached(context, maxEntries, CachedEscaper.DEFAULT_MAX_INPUT_LENGTH);
+    }
+
+
+    /**
+     * Same as {@link #cached(Context, int)}, but only caches the inputs of at most
+     * <code>maxInputLength</code> characters.
+     *
+     * @param  context        the escaping context
+     * @param  maxEntries     the maximum number of cached strings
+     * @param  maxInputLength the length of the longest input to cache
+     * @return                a thread-safe caching escaper
+     * @throws IllegalArgumentException if <code>maxEntries</code> is not positive or
+     *                                  <code>maxInputLength</code> is negative
+     * @since  1.3
+     */
+    public static CachedEscaper cached(Context context, int maxEntries, int maxInputLength) {
+        if (context == null)
+            throw new IllegalArgumentException("Null context");
+
+        return new CachedEscaper(context.escaper, maxEntries, maxInputLength);
+    }
+
+
+    /**
+     * SQL LIKE clause escaper.
+     *
+     * This SQL LIKE clause escaper does not protect against SQL injection, but ensure
+     * that the string to be consumed in SQL LIKE clause does not alter the current
+     * LIKE query by inserting <code>%</code> or <code>_</code>:
+     * <pre>
+     * entityManager.createQuery("FROM MyEntity e WHERE e.content LIKE :like_query ESCAPE '@'")
+     *              .setParameter("like_query", "%" + Escape.sqlLikeClause(USER_DATA_HERE))
+     *              .getResultList();
+     * </pre>
+     * This escaper has to be used with a safe SQL query construct such as the JPQL
+     * named parameterized query in the previous example.
+     *
+     *
+     * This escaper uses by default the <code>@</code> as escape character. The other method
+     * {@link #sqlLikeClause(String,char)} allows for using a different escape character such as
      * <code>\</code>.
      *
      *
@@ -800,27 +1497,166 @@ public class Escape {
      * @since  1.0
      */
     public static String sqlLikeClause(String input, char escape) {
+        if (MethodMetrics.isRecording())
+            return SQL_LIKE_CLAUSE.record(MethodMetrics.start(input), input, escapeSqlLikeClause(input, escape));
+        return escapeSqlLikeClause(input, escape);
+    }
+
+
+    private static String escapeSqlLikeClause(String input, char escape) {
         if (input == null)
             return null;
 
-        int length = input.length();
-        StringBuilder output = allocateStringBuilder(length);
+        int first = firstSqlLikeClauseUnsafe(input, escape);
+        if (first < 0)
+            return input;
+        return sqlLikeClause(input, escape, first);
+    }
 
-        for (int i = 0; i < length; i++) {
+
+    /**
+     * Same as {@link #sqlLikeClause(String)} for any character sequence. See
+     * {@link #html(CharSequence)}.
+     *
+     * @param  input the character sequence to be escaped
+     * @return       the SQL LIKE escaped string or <code>null</code> if <code>input</code> is null
+     * @since  1.3
+     */
+    public static String sqlLikeClause(CharSequence input) {
+        return sqlLikeClause(input, '@');
+    }
+
+
+    /**
+     * Same as {@link #sqlLikeClause(String,char)} for any character sequence. See
+     * {@link #html(CharSequence)}.
+     *
+     * @param  input  the character sequence to be escaped
+     * @param  escape the escape character to be used
+     * @return        the SQL LIKE escaped string or <code>null</code> if <code>input</code> is null
+     * @since  1.3
+     */
+    public static String sqlLikeClause(CharSequence input, char escape) {
+        if (input instanceof String)
+            return sqlLikeClause((String) input, escape);
+        if (MethodMetrics.isRecording() && input != null) {
+            MethodMetrics.Start start = MethodMetrics.start(input);
+            String output = escapeSqlLikeClauseSequence(input, escape);
+            // Every replacement is longer than the character it replaces
+            SQL_LIKE_CLAUSE.record(start, input.length(), output.length(), output.length() == input.length());
+            return output;
+        }
+        return escapeSqlLikeClauseSequence(input, escape);
+    }
+
+
+    private static String escapeSqlLikeClauseSequence(CharSequence input, char escape) {
+        if (input == null)
+            return null;
+
+        int first = firstSqlLikeClauseUnsafe(input, escape);
+        if (first < 0)
+            return input.toString();
+        return sqlLikeClause(input, escape, first);
+    }
+
+
+    private static String sqlLikeClause(CharSequence input, char escape, int first) {
+        StringBuilder output = ScratchBuffers.borrow(input.length());
+        output.append(input, 0, first);
+        try {
+            appendSqlLikeClause(input, escape, first, output);
+        } catch (IOException e) {
+            // Appending to a StringBuilder never throws
+            throw new IllegalStateException(e);
+        }
+        return ScratchBuffers.toStringAndRelease(output);
+    }
+
+
+    /**
+     * Same as {@link #sqlLikeClause(String)}, but appends the escaped input to <code>output</code>
+     * instead of returning a new string.
+     *
+     * @param  input  the character sequence to be escaped, nothing is appended if it is null
+     * @param  output the destination of the escaped characters
+     * @throws IOException if <code>output</code> throws while appending
+     * @since  1.3
+     */
+    public static void sqlLikeClause(CharSequence input, Appendable output) throws IOException {
+        sqlLikeClause(input, '@', output);
+    }
+
+
+    /**
+     * Same as {@link #sqlLikeClause(String,char)}, but appends the escaped input to <code>output</code>
+     * instead of returning a new string.
+     *
+     * @param  input  the character sequence to be escaped, nothing is appended if it is null
+     * @param  escape the escape character to be used
+     * @param  output the destination of the escaped characters
+     * @throws IOException if <code>output</code> throws while appending
+     * @since  1.3
+     */
+    public static void sqlLikeClause(CharSequence input, char escape, Appendable output) throws IOException {
+        if (input == null)
+            return;
+
+        if (MethodMetrics.isRecording()) {
+            MethodMetrics.Start start = MethodMetrics.start(input);
+            long written = appendSqlLikeClause(input, escape, output);
+            SQL_LIKE_CLAUSE_APPENDABLE.record(start, input.length(), written, written == input.length());
+            return;
+        }
+        appendSqlLikeClause(input, escape, output);
+    }
+
+
+    // Returns the number of characters appended to output
+    private static long appendSqlLikeClause(CharSequence input, char escape, Appendable output)
+            throws IOException {
+        int first = firstSqlLikeClauseUnsafe(input, escape);
+        if (first < 0) {
+            output.append(input);
+            return input.length();
+        }
+        output.append(input, 0, first);
+        return first + appendSqlLikeClause(input, escape, first, output);
+    }
+
+
+    // Returns the number of characters appended to output
+    private static long appendSqlLikeClause(CharSequence input, char escape, int start, Appendable output)
+            throws IOException {
+        int length = input.length();
+        long written = length - start;
+        for (int i = start; i < length; i++) {
             char c = input.charAt(i);
             if (c == escape || c == '_' || c == '%') {
                 output.append(escape);
+                written++;
             }
             output.append(c);
         }
-        return output.toString();
+        return written;
+    }
+
+
+    private static int firstSqlLikeClauseUnsafe(CharSequence input, char escape) {
+        int length = input.length();
+        for (int i = 0; i < length; i++) {
+            char c = input.charAt(i);
+            if (c == escape || c == '_' || c == '%')
+                return i;
+        }
+        return -1;
     }
 
 
     /**
      * Compute the allocation size of the StringBuilder based on the length.
      */
-    private static StringBuilder allocateStringBuilder(int length) {
+    static StringBuilder allocateStringBuilder(int length) {
         // Allocate enough temporary buffer space to avoid reallocation in most
         // cases. If you believe you will output large amount of data at once
         // you might need to change the factor.
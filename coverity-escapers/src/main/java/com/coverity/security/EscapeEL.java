@@ -100,4 +100,25 @@ public class EscapeEL {
     public static String cssStringEscape(String input) {
         return Escape.cssString(input);
     }
+
+    /**
+     * EL wrapper for {@link Escape#htmlJsString(String)}
+     */
+    public static String htmlJsStringEscape(String input) {
+        return Escape.htmlJsString(input);
+    }
+
+    /**
+     * EL wrapper for {@link Escape#htmlUriParam(String)}
+     */
+    public static String htmlUriParamEncode(String input) {
+        return Escape.htmlUriParam(input);
+    }
+
+    /**
+     * EL wrapper for {@link Escape#htmlCssUri(String)}
+     */
+    public static String htmlCssUriEscape(String input) {
+        return Escape.htmlCssUri(input);
+    }
 }
@@ -0,0 +1,109 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security;
+
+/**
+ * EscapeEvents emits a Java Flight Recorder event, <code>com.coverity.security.EscapeEvent</code>,
+ * for each call of the escaping and filtering methods of {@link Escape},
+ * {@link EscapeUtf8} and {@link Filter} with a large input or a long duration. The
+ * event has the name of the method, the lengths of its input and output, and the
+ * time it took.
+ *
+ * Only the calls with an input of at least 65536 characters, or bytes, and the calls
+ * that took at least a millisecond are emitted. Both thresholds can be changed with
+ * <code>-Dcom.coverity.security.jfr.inputThreshold</code>, in characters, and
+ * <code>-Dcom.coverity.security.jfr.durationThreshold</code>, in microseconds.
+ *
+ * The events are part of any recording that enables them, e.g. with
+ * <code>-XX:StartFlightRecording</code> or <code>jcmd JFR.start</code> and the default
+ * settings, and no agent is needed. While no recording enables them, each method only
+ * checks whether the event type is enabled. The events need Java 11 or later, and can
+ * be turned off with <code>-Dcom.coverity.security.jfr=false</code>.
+ *
+ * @author Romain Gaucher
+ */
+final class EscapeEvents {
+
+    /**
+     * Emits the events, implemented with <code>jdk.jfr</code> by
+     * <code>EscapeEvent.Recorder</code>.
+     */
+    interface Recorder {
+
+        /**
+         * Whether a recording enables the events.
+         */
+        boolean isEnabled();
+
+        void commit(String method, long inputLength, long outputLength, long nanos);
+    }
+
+    static final int INPUT_THRESHOLD = Escaper.intProperty("com.coverity.security.jfr.inputThreshold", 1 << 16);
+
+    static final long DURATION_THRESHOLD =
+            Escaper.intProperty("com.coverity.security.jfr.durationThreshold", 1000) * 1000L;
+
+    // Null when the flight recorder is not available, or the events are turned off
+    private static final Recorder RECORDER = recorder();
+
+    /**
+     * Whether the recorder was loaded and the events are not turned off. When false,
+     * {@link #isRecording()} folds to a constant and never asks the flight recorder.
+     */
+    static final boolean ENABLED = RECORDER != null;
+
+    private EscapeEvents() {
+    }
+
+    static boolean isRecording() {
+        return ENABLED && RECORDER.isEnabled();
+    }
+
+    /**
+     * Emits an event for a call of <code>method</code> if it is above one of the thresholds
+     * and a recording enables the events.
+     */
+    static void commit(String method, long inputLength, long outputLength, long nanos) {
+        if ((inputLength >= INPUT_THRESHOLD || nanos >= DURATION_THRESHOLD) && isRecording())
+            RECORDER.commit(method, inputLength, outputLength, nanos);
+    }
+
+    private static Recorder recorder() {
+        if ("false".equals(System.getProperty("com.coverity.security.jfr")))
+            return null;
+        try {
+            Class<?> recorder = Class.forName("com.coverity.security.EscapeEvent$Recorder");
+            return (Recorder) recorder.getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            // Not compiled in, or not accessible
+            return null;
+        } catch (LinkageError e) {
+            // Older Java version, or the jdk.jfr module is not loaded
+            return null;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.ObjectName;
+
+/**
+ * EscapeMetrics is an optional instrumentation of the methods of {@link Escape},
+ * {@link EscapeUtf8} and {@link Filter}, enabled with
+ * <code>-Dcom.coverity.security.metrics=true</code>.
+ *
+ * For each method, it counts the calls, the calls that returned their input unchanged,
+ * and the characters read and written, and keeps a histogram of the expansion ratio
+ * of the output to the input. The calls with an input of at least 4096 characters are
+ * also timed, to give the percentiles of their latency. The methods that write to an
+ * <code>OutputStream</code> or escape UTF-8 bytes count bytes instead of characters.
+ * Each write to an <code>Escape.*Writer</code> writer is counted as a call.
+ *
+ * The metrics can be read in the process with {@link #snapshot()}, or through JMX,
+ * from the {@link EscapeMetricsMXBean} registered as {@value #OBJECT_NAME}.
+ *
+ * The counters are <code>LongAdder</code>s, so threads that escape concurrently do not
+ * contend on them. When the metrics are disabled, which is the default, each method
+ * only tests a constant, which the JIT compiler removes with the code that records
+ * the call.
+ *
+ * @author Romain Gaucher
+ */
+public final class EscapeMetrics {
+
+    /**
+     * Name of the MXBean.
+     */
+    public static final String OBJECT_NAME = "com.coverity.security:type=EscapeMetrics";
+
+    static final boolean ENABLED = "true".equals(System.getProperty("com.coverity.security.metrics"));
+
+    private static final ConcurrentMap<String, MethodMetrics> METHODS =
+            new ConcurrentHashMap<String, MethodMetrics>();
+
+    static {
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(
+                        new MXBean(), new ObjectName(OBJECT_NAME));
+            } catch (Exception e) {
+                // Already registered by another class loader, or no JMX: the
+                // snapshots are still available
+            } catch (LinkageError e) {
+                // No java.management module
+            }
+        }
+    }
+
+    private EscapeMetrics() {
+    }
+
+    /**
+     * Returns the recorder of the method <code>name</code>, which only keeps counters if
+     * the metrics are enabled.
+     */
+    static MethodMetrics register(String name) {
+        MethodMetrics metrics = new MethodMetrics(name);
+        if (!ENABLED)
+            return metrics;
+        MethodMetrics previous = METHODS.putIfAbsent(name, metrics);
+        return previous != null ? previous : metrics;
+    }
+
+    /**
+     * Whether the escaping and filtering methods record their calls.
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Returns the metrics of each method called since the start or the last reset,
+     * sorted by name.
+     */
+    public static List<MethodSnapshot> snapshot() {
+        List<MethodSnapshot> snapshots = new ArrayList<MethodSnapshot>();
+        for (MethodMetrics metrics : METHODS.values()) {
+            MethodSnapshot snapshot = metrics.snapshot();
+            if (snapshot.getCalls() > 0)
+                snapshots.add(snapshot);
+        }
+        Collections.sort(snapshots, (a, b) -> a.getName().compareTo(b.getName()));
+        return snapshots;
+    }
+
+    /**
+     * Returns the metrics of the method <code>name</code>, such as
+     * <code>"Escape.html"</code> or <code>"Filter.asURL"</code>, or null if it has not been
+     * called since the start or the last reset.
+     */
+    public static MethodSnapshot snapshot(String name) {
+        MethodMetrics metrics = METHODS.get(name);
+        if (metrics == null)
+            return null;
+        MethodSnapshot snapshot = metrics.snapshot();
+        return snapshot.getCalls() > 0 ? snapshot : null;
+    }
+
+    /**
+     * Sets all the counters back to zero.
+     */
+    public static void reset() {
+        for (MethodMetrics metrics : METHODS.values())
+            metrics.reset();
+    }
+
+    /**
+     * MethodSnapshot holds the metrics of one method at a point in time.
+     */
+    public static final class MethodSnapshot {
+
+        private final String name;
+        private final long calls;
+        private final long unchangedCalls;
+        private final long inputLength;
+        private final long outputLength;
+        private final long[] expansionHistogram;
+        private final long timedCalls;
+        private final long latencyP50;
+        private final long latencyP90;
+        private final long latencyP99;
+        private final long latencyMax;
+
+        MethodSnapshot(String name, long calls, long unchangedCalls, long inputLength,
+                long outputLength, long[] expansionHistogram, long timedCalls,
+                long latencyP50, long latencyP90, long latencyP99, long latencyMax) {
+            this.name = name;
+            this.calls = calls;
+            this.unchangedCalls = unchangedCalls;
+            this.inputLength = inputLength;
+            this.outputLength = outputLength;
+            this.expansionHistogram = expansionHistogram;
+            this.timedCalls = timedCalls;
+            this.latencyP50 = latencyP50;
+            this.latencyP90 = latencyP90;
+            this.latencyP99 = latencyP99;
+            this.latencyMax = latencyMax;
+        }
+
+        /**
+         * Name of the method, such as <code>"Escape.html"</code>, followed by
+         * <code>"(Appendable)"</code> or <code>"(OutputStream)"</code> for the methods that
+         * write to one.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Number of calls with a non-null input.
+         */
+        public long getCalls() {
+            return calls;
+        }
+
+        /**
+         * Number of calls that returned their input, because it had nothing to escape.
+         */
+        public long getUnchangedCalls() {
+            return unchangedCalls;
+        }
+
+        /**
+         * Fraction of the calls that returned their input.
+         */
+        public double getUnchangedRatio() {
+            return calls == 0 ? 0 : (double) unchangedCalls / calls;
+        }
+
+        /**
+         * Total length of the inputs.
+         */
+        public long getInputLength() {
+            return inputLength;
+        }
+
+        /**
+         * Total length of the outputs.
+         */
+        public long getOutputLength() {
+            return outputLength;
+        }
+
+        /**
+         * Number of calls whose ratio of the output length to the input length is at most
+         * the bound at the same index in {@link #getExpansionBounds()}, and more than the
+         * previous one. The last count has no upper bound. Empty inputs are not counted.
+         */
+        public long[] getExpansionHistogram() {
+            return expansionHistogram.clone();
+        }
+
+        /**
+         * Upper bounds of the buckets of {@link #getExpansionHistogram()}.
+         */
+        public double[] getExpansionBounds() {
+            return MethodMetrics.EXPANSION_BOUNDS.clone();
+        }
+
+        /**
+         * Number of calls whose latency was measured, those with a large input.
+         */
+        public long getTimedCalls() {
+            return timedCalls;
+        }
+
+        /**
+         * Median latency of the timed calls, in nanoseconds, within 25%.
+         */
+        public long getLatencyP50() {
+            return latencyP50;
+        }
+
+        /**
+         * 90th percentile of the latency of the timed calls, in nanoseconds, within 25%.
+         */
+        public long getLatencyP90() {
+            return latencyP90;
+        }
+
+        /**
+         * 99th percentile of the latency of the timed calls, in nanoseconds, within 25%.
+         */
+        public long getLatencyP99() {
+            return latencyP99;
+        }
+
+        /**
+         * Largest latency of the timed calls, in nanoseconds.
+         */
+        public long getLatencyMax() {
+            return latencyMax;
+        }
+
+        public String toString() {
+            return name + "{calls=" + calls + ", unchanged=" + unchangedCalls
+                    + ", input=" + inputLength + ", output=" + outputLength
+                    + ", expansion=" + Arrays.toString(expansionHistogram)
+                    + ", timed=" + timedCalls + ", p50=" + latencyP50 + "ns, p90=" + latencyP90
+                    + "ns, p99=" + latencyP99 + "ns, max=" + latencyMax + "ns}";
+        }
+    }
+
+    private static final class MXBean implements EscapeMetricsMXBean {
+
+        public boolean isEnabled() {
+            return EscapeMetrics.isEnabled();
+        }
+
+        public List<MethodSnapshot> getMethods() {
+            return snapshot();
+        }
+
+        public long getTotalCalls() {
+            long total = 0;
+            for (MethodSnapshot method : snapshot())
+                total += method.getCalls();
+            return total;
+        }
+
+        public void reset() {
+            EscapeMetrics.reset();
+        }
+    }
+}
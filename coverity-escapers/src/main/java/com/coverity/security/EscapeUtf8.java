@@ -0,0 +1,294 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CoderResult;
+
+/**
+ * EscapeUtf8 provides the escaping methods of {@link Escape} for UTF-8 encoded data,
+ * without decoding it into a <code>String</code> and encoding it back.
+ *
+ * All the characters replaced by the escapers are ASCII, except for the Unicode new
+ * lines <code>LS (U+2028)</code> and <code>PS (U+2029)</code> which are always encoded
+ * as <code>E2 80 A8</code> and <code>E2 80 A9</code>. Every other byte, including the
+ * bytes of any other multi-byte sequence, is copied untouched. The output is therefore
+ * exactly the UTF-8 encoding of what the <code>String</code> methods would produce for
+ * well-formed input. Malformed sequences are not repaired and are copied as is.
+ *
+ * The <code>ByteBuffer</code> methods follow the conventions of
+ * <code>CharsetEncoder.encode(CharBuffer, ByteBuffer, boolean)</code>: they consume
+ * <code>in</code> and fill <code>out</code> until either the input is exhausted
+ * (<code>CoderResult.UNDERFLOW</code>) or the next replacement or run of bytes does not
+ * fit in the output (<code>CoderResult.OVERFLOW</code>). A replacement is never split
+ * across calls. When <code>endOfInput</code> is false, up to two trailing bytes that
+ * could start a Unicode new line are left in <code>in</code>, to be processed with the
+ * next chunk:
+ * <pre>
+ * CoderResult result = EscapeUtf8.html(in, out, endOfInput);
+ * while (result.isOverflow()) {
+ *     // drain out, then continue with the same input
+ *     result = EscapeUtf8.html(in, out, endOfInput);
+ * }
+ * in.compact();
+ * </pre>
+ *
+ * @author Romain Gaucher
+ */
+public class EscapeUtf8 {
+
+    /**
+     * UTF-8 version of {@link Escape#html(String)}.
+     *
+     * @param  input the UTF-8 bytes to be escaped
+     * @return       the escaped UTF-8 bytes, <code>input</code> itself if nothing needed
+     *               escaping, or <code>null</code> if <code>input</code> is null
+     */
+    public static byte[] html(byte[] input) {
+        return Escaper.HTML.escape(input);
+    }
+
+    /**
+     * UTF-8 version of {@link Escape#html(String)} between byte buffers.
+     * See the class documentation for the meaning of the arguments and of the result.
+     *
+     * @param  in         the UTF-8 bytes to be escaped, from its position to its limit
+     * @param  out        the buffer that receives the escaped UTF-8 bytes
+     * @param  endOfInput false if more input may follow the bytes remaining in <code>in</code>
+     * @return            <code>CoderResult.UNDERFLOW</code> or <code>CoderResult.OVERFLOW</code>
+     */
+    public static CoderResult html(ByteBuffer in, ByteBuffer out, boolean endOfInput) {
+        return Escaper.HTML.escape(in, out, endOfInput);
+    }
+
+    /**
+     * UTF-8 version of {@link Escape#html(String)} between channels. Reads <code>in</code> until
+     * the end of the stream, and writes the escaped bytes to <code>out</code>. Neither
+     * channel is closed.
+     *
+     * @param  in  a blocking channel of UTF-8 bytes to be escaped
+     * @param  out a blocking channel that receives the escaped UTF-8 bytes
+     * @return     the number of bytes written to <code>out</code>
+     * @throws IOException if reading from <code>in</code> or writing to <code>out</code> fails
+     */
+    public static long html(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        return Escaper.HTML.escape(in, out);
+    }
+
+    /**
+     * UTF-8 version of {@link Escape#htmlText(String)}.
+     *
+     * @param  input the UTF-8 bytes to be escaped
+     * @return       the escaped UTF-8 bytes, <code>input</code> itself if nothing needed
+     *               escaping, or <code>null</code> if <code>input</code> is null
+     */
+    public static byte[] htmlText(byte[] input) {
+        return Escaper.HTML_TEXT.escape(input);
+    }
+
+    /**
+     * UTF-8 version of {@link Escape#htmlText(String)} between byte buffers.
+     * See the class documentation for the meaning of the arguments and of the result.
+     *
+     * @param  in         the UTF-8 bytes to be escaped, from its position to its limit
+     * @param  out        the buffer that receives the escaped UTF-8 bytes
+     * @param  endOfInput false if more input may follow the bytes remaining in <code>in</code>
+     * @return            <code>CoderResult.UNDERFLOW</code> or <code>CoderResult.OVERFLOW</code>
+     */
+    public static CoderResult htmlText(ByteBuffer in, ByteBuffer out, boolean endOfInput) {
+        return Escaper.HTML_TEXT.escape(in, out, endOfInput);
+    }
+
+    /**
+     * UTF-8 version of {@link Escape#htmlText(String)} between channels. Reads <code>in</code> until
+     * the end of the stream, and writes the escaped bytes to <code>out</code>. Neither
+     * channel is closed.
+     *
+     * @param  in  a blocking channel of UTF-8 bytes to be escaped
+     * @param  out a blocking channel that receives the escaped UTF-8 bytes
+     * @return     the number of bytes written to <code>out</code>
+     * @throws IOException if reading from <code>in</code> or writing to <code>out</code> fails
+     */
+    public static long htmlText(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        return Escaper.HTML_TEXT.escape(in, out);
+    }
+
+    /**
+     * UTF-8 version of {@link Escape#uriParam(String)}.
+     *
+     * @param  input the UTF-8 bytes to be escaped
+     * @return       the escaped UTF-8 bytes, <code>input</code> itself if nothing needed
+     *               escaping, or <code>null</code> if <code>input</code> is null
+     */
+    public static byte[] uriParam(byte[] input) {
+        return Escaper.URI_PARAM.escape(input);
+    }
+
+    /**
+     * UTF-8 version of {@link Escape#uriParam(String)} between byte buffers.
+     * See the class documentation for the meaning of the arguments and of the result.
+     *
+     * @param  in         the UTF-8 bytes to be escaped, from its position to its limit
+     * @param  out        the buffer that receives the escaped UTF-8 bytes
+     * @param  endOfInput false if more input may follow the bytes remaining in <code>in</code>
+     * @return            <code>CoderResult.UNDERFLOW</code> or <code>CoderResult.OVERFLOW</code>
+     */
+    public static CoderResult uriParam(ByteBuffer in, ByteBuffer out, boolean endOfInput) {
+        return Escaper.URI_PARAM.escape(in, out, endOfInput);
+    }
+
+    /**
+     * UTF-8 version of {@link Escape#uriParam(String)} between channels. Reads <code>in</code> until
+     * the end of the stream, and writes the escaped bytes to <code>out</code>. Neither
+     * channel is closed.
+     *
+     * @param  in  a blocking channel of UTF-8 bytes to be escaped
+     * @param  out a blocking channel that receives the escaped UTF-8 bytes
+     * @return     the number of bytes written to <code>out</code>
+     * @throws IOException if reading from <code>in</code> or writing to <code>out</code> fails
+     */
+    public static long uriParam(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        return Escaper.URI_PARAM.escape(in, out);
+    }
+
+    /**
+     * UTF-8 version of {@link Escape#jsString(String)}.
+     *
+     * @param  input the UTF-8 bytes to be escaped
+     * @return       the escaped UTF-8 bytes, <code>input</code> itself if nothing needed
+     *               escaping, or <code>null</code> if <code>input</code> is null
+     */
+    public static byte[] jsString(byte[] input) {
+        return Escaper.JS_STRING.escape(input);
+    }
+
+    /**
+     * UTF-8 version of {@link Escape#jsString(String)} between byte buffers.
+     * See the class documentation for the meaning of the arguments and of the result.
+     *
+     * @param  in         the UTF-8 bytes to be escaped, from its position to its limit
+     * @param  out        the buffer that receives the escaped UTF-8 bytes
+     * @param  endOfInput false if more input may follow the bytes remaining in <code>in</code>
+     * @return            <code>CoderResult.UNDERFLOW</code> or <code>CoderResult.OVERFLOW</code>
+     */
+    public static CoderResult jsString(ByteBuffer in, ByteBuffer out, boolean endOfInput) {
+        return Escaper.JS_STRING.escape(in, out, endOfInput);
+    }
+
+    /**
+     * UTF-8 version of {@link Escape#jsString(String)} between channels. Reads <code>in</code> until
+     * the end of the stream, and writes the escaped bytes to <code>out</code>. Neither
+     * channel is closed.
+     *
+     * @param  in  a blocking channel of UTF-8 bytes to be escaped
+     * @param  out a blocking channel that receives the escaped UTF-8 bytes
+     * @return     the number of bytes written to <code>out</code>
+     * @throws IOException if reading from <code>in</code> or writing to <code>out</code> fails
+     */
+    public static long jsString(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        return Escaper.JS_STRING.escape(in, out);
+    }
+
+    /**
+     * UTF-8 version of {@link Escape#jsRegex(String)}.
+     *
+     * @param  input the UTF-8 bytes to be escaped
+     * @return       the escaped UTF-8 bytes, <code>input</code> itself if nothing needed
+     *               escaping, or <code>null</code> if <code>input</code> is null
+     */
+    public static byte[] jsRegex(byte[] input) {
+        return Escaper.JS_REGEX.escape(input);
+    }
+
+    /**
+     * UTF-8 version of {@link Escape#jsRegex(String)} between byte buffers.
+     * See the class documentation for the meaning of the arguments and of the result.
+     *
+     * @param  in         the UTF-8 bytes to be escaped, from its position to its limit
+     * @param  out        the buffer that receives the escaped UTF-8 bytes
+     * @param  endOfInput false if more input may follow the bytes remaining in <code>in</code>
+     * @return            <code>CoderResult.UNDERFLOW</code> or <code>CoderResult.OVERFLOW</code>
+     */
+    public static CoderResult jsRegex(ByteBuffer in, ByteBuffer out, boolean endOfInput) {
+        return Escaper.JS_REGEX.escape(in, out, endOfInput);
+    }
+
+    /**
+     * UTF-8 version of {@link Escape#jsRegex(String)} between channels. Reads <code>in</code> until
+     * the end of the stream, and writes the escaped bytes to <code>out</code>. Neither
+     * channel is closed.
+     *
+     * @param  in  a blocking channel of UTF-8 bytes to be escaped
+     * @param  out a blocking channel that receives the escaped UTF-8 bytes
+     * @return     the number of bytes written to <code>out</code>
+     * @throws IOException if reading from <code>in</code> or writing to <code>out</code> fails
+     */
+    public static long jsRegex(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        return Escaper.JS_REGEX.escape(in, out);
+    }
+
+    /**
+     * UTF-8 version of {@link Escape#cssString(String)}.
+     *
+     * @param  input the UTF-8 bytes to be escaped
+     * @return       the escaped UTF-8 bytes, <code>input</code> itself if nothing needed
+     *               escaping, or <code>null</code> if <code>input</code> is null
+     */
+    public static byte[] cssString(byte[] input) {
+        return Escaper.CSS_STRING.escape(input);
+    }
+
+    /**
+     * UTF-8 version of {@link Escape#cssString(String)} between byte buffers.
+     * See the class documentation for the meaning of the arguments and of the result.
+     *
+     * @param  in         the UTF-8 bytes to be escaped, from its position to its limit
+     * @param  out        the buffer that receives the escaped UTF-8 bytes
+     * @param  endOfInput false if more input may follow the bytes remaining in <code>in</code>
+     * @return            <code>CoderResult.UNDERFLOW</code> or <code>CoderResult.OVERFLOW</code>
+     */
+    public static CoderResult cssString(ByteBuffer in, ByteBuffer out, boolean endOfInput) {
+        return Escaper.CSS_STRING.escape(in, out, endOfInput);
+    }
+
+    /**
+     * UTF-8 version of {@link Escape#cssString(String)} between channels. Reads <code>in</code> until
+     * the end of the stream, and writes the escaped bytes to <code>out</code>. Neither
+     * channel is closed.
+     *
+     * @param  in  a blocking channel of UTF-8 bytes to be escaped
+     * @param  out a blocking channel that receives the escaped UTF-8 bytes
+     * @return     the number of bytes written to <code>out</code>
+     * @throws IOException if reading from <code>in</code> or writing to <code>out</code> fails
+     */
+    public static long cssString(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        return Escaper.CSS_STRING.escape(in, out);
+    }
+}
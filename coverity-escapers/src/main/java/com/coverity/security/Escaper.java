@@ -0,0 +1,1240 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CoderResult;
+
+/**
+ * Escaper is the table driven engine behind the escaping methods of {@link Escape}.
+ *
+ * Every escaping context is described by a replacement table indexed by the UTF-16
+ * code unit for the ASCII range, and by the replacements of the two Unicode new lines
+ * (<code>LS (U+2028)</code> and <code>PS (U+2029)</code>). Any other character is
+ * never escaped. The same small loop is then shared by all the contexts: it looks for
+ * the next character that has a replacement, copies the run of safe characters before
+ * it in one call, and appends the replacement.
+ *
+ * On Java 17 and later, when the <code>jdk.incubator.vector</code> module is available
+ * (e.g. with <code>--add-modules jdk.incubator.vector</code>), character arrays of at
+ * least {@value #VECTOR_THRESHOLD} characters are scanned with the Vector API instead of the
+ * scalar loop. This can be turned off with <code>-Dcom.coverity.security.vector=false</code>.
+ * Strings are always scanned with the scalar loop: the vector loads need an array, and
+ * copying a compact string to one costs about as much as the faster scan saves.
+ *
+ * Inputs of at least {@link #EXACT_SIZE_THRESHOLD} characters, 65536 unless set with
+ * <code>-Dcom.coverity.security.exactSizeThreshold</code>, are escaped in two passes: the
+ * first one computes the exact length of the result, and the second one writes it to an
+ * array of that length, which is copied once to the <code>String</code>. The array holds
+ * ISO-8859-1 bytes when no character above <code>U+00FF</code> is kept, and
+ * <code>char</code> otherwise. This takes a third less memory for mostly safe text, and
+ * never copies a growing buffer, but scanning the input twice takes about twice as long.
+ * Smaller inputs are appended to a buffer of twice their length.
+ *
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author Romain Gaucher
+ */
+final class Escaper {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final int TABLE_SIZE = 128;
+
+    private static final int CHANNEL_BUFFER_SIZE = 8192;
+
+    private static final int STREAM_BUFFER_SIZE = 1024;
+
+    // Longest UTF-8 sequence written for a single character or surrogate pair
+    private static final int MAX_UTF8_SEQUENCE = 4;
+
+    // Inputs shorter than this are always scanned with the scalar loop
+    static final int VECTOR_THRESHOLD = 1024;
+
+    // Characters scanned with the scalar loop before the vector scanner takes over, so that
+    // dense text, where the next unsafe character is always close, never pays for a vector call
+    private static final int VECTOR_PREFIX = 64;
+
+    // Inputs at least this long are escaped into an array of the exact length of the result
+    static final int EXACT_SIZE_THRESHOLD = intProperty("com.coverity.security.exactSizeThreshold", 1 << 16);
+
+    private static final Constructor<?> VECTOR_SCANNER = vectorScannerConstructor();
+
+    /**
+     * Accelerated search of the characters that need escaping in a character array.
+     */
+    interface Scanner {
+        int indexOfUnsafe(char[] input, int from, int to);
+    }
+
+    private static final char LINE_SEPARATOR = '\u2028';
+    private static final char PARAGRAPH_SEPARATOR = '\u2029';
+
+    static final Escaper HTML;
+    static final Escaper HTML_TEXT;
+    static final Escaper URI_PARAM;
+    static final Escaper JS_STRING;
+    static final Escaper JS_REGEX;
+    static final Escaper CSS_STRING;
+
+    static {
+        String[] table = new String[TABLE_SIZE];
+        // Control chars
+        table['\t'] = "&#x09;";
+        table['\n'] = "&#x0A;";
+        table['\f'] = "&#x0C;";
+        table['\r'] = "&#x0D;";
+        // Chars that have a meaning for HTML
+        table['\''] = "&#39;";
+        table['\\'] = "&#x5C;";
+        table[' '] = "&#x20;";
+        table['/'] = "&#x2F;";
+        table['"'] = "&quot;";
+        table['<'] = "&lt;";
+        table['>'] = "&gt;";
+        table['&'] = "&amp;";
+        // Unicode new lines
+        HTML = new Escaper("html", table, "&#x2028;", "&#x2029;");
+
+        table = new String[TABLE_SIZE];
+        table['\''] = "&#39;";
+        table['"'] = "&quot;";
+        table['<'] = "&lt;";
+        table['>'] = "&gt;";
+        table['&'] = "&amp;";
+        HTML_TEXT = new Escaper("htmlText", table, null, null);
+
+        table = new String[TABLE_SIZE];
+        // Control chars
+        table['\t'] = "%09";
+        table['\n'] = "%0A";
+        table['\f'] = "%0C";
+        table['\r'] = "%0D";
+        // RFC chars to encode, plus % ' " < and >, and space
+        table[' '] = "%20";
+        table['!'] = "%21";
+        table['"'] = "%22";
+        table['#'] = "%23";
+        table['$'] = "%24";
+        table['%'] = "%25";
+        table['&'] = "%26";
+        table['\''] = "%27";
+        table['('] = "%28";
+        table[')'] = "%29";
+        table['*'] = "%2A";
+        table['+'] = "%2B";
+        table[','] = "%2C";
+        table['.'] = "%2E";
+        table['/'] = "%2F";
+        table[':'] = "%3A";
+        table[';'] = "%3B";
+        table['<'] = "%3C";
+        table['='] = "%3D";
+        table['>'] = "%3E";
+        table['?'] = "%3F";
+        table['@'] = "%40";
+        table['['] = "%5B";
+        table[']'] = "%5D";
+        URI_PARAM = new Escaper("uriParam", table, null, null);
+
+        table = new String[TABLE_SIZE];
+        // Control chars
+        table['\b'] = "\\u0008";
+        table['\t'] = "\\u0009";
+        table['\n'] = "\\u000A";
+        table['\u000b'] = "\\u000B";
+        table['\f'] = "\\u000C";
+        table['\r'] = "\\u000D";
+        // JavaScript String chars
+        table['\''] = "\\u0027";
+        table['"'] = "\\u0022";
+        table['\\'] = "\\u005C";
+        // URI encoding char
+        table['%'] = "\\u0025";
+        // HTML chars for closing the parent context
+        table['&'] = "\\u0026";
+        table['/'] = "\\u002F";
+        table['<'] = "\\u003C";
+        table['>'] = "\\u003E";
+        // Unicode
+        JS_STRING = new Escaper("jsString", table, "\\u2028", "\\u2029");
+
+        table = new String[TABLE_SIZE];
+        // Control chars
+        table['\t'] = "\\t";
+        table['\n'] = "\\n";
+        table['\u000b'] = "\\v";
+        table['\f'] = "\\f";
+        table['\r'] = "\\r";
+        // Escape sequence, and regexp terminator
+        table['\\'] = "\\\\";
+        table['/'] = "\\/";
+        // Regexp specific characters
+        table['('] = "\\(";
+        table['['] = "\\[";
+        table['{'] = "\\{";
+        table[']'] = "\\]";
+        table[')'] = "\\)";
+        table['}'] = "\\}";
+        table['*'] = "\\*";
+        table['+'] = "\\+";
+        table['-'] = "\\-";
+        table['.'] = "\\.";
+        table['?'] = "\\?";
+        table['!'] = "\\!";
+        table['^'] = "\\^";
+        table['$'] = "\\$";
+        table['|'] = "\\|";
+        // Unicode
+        JS_REGEX = new Escaper("jsRegex", table, "\\u2028", "\\u2029");
+
+        table = new String[TABLE_SIZE];
+        // Control chars
+        table['\b'] = "\\08 ";
+        table['\t'] = "\\09 ";
+        table['\n'] = "\\0A ";
+        table['\f'] = "\\0C ";
+        table['\r'] = "\\0D ";
+        // String chars
+        table['\''] = "\\27 ";
+        table['"'] = "\\22 ";
+        table['\\'] = "\\5C ";
+        // HTML chars for closing the parent context
+        table['&'] = "\\26 ";
+        table['/'] = "\\2F ";
+        table['<'] = "\\3C ";
+        table['>'] = "\\3E ";
+        // Unicode
+        CSS_STRING = new Escaper("cssString", table, "\\002028 ", "\\002029 ");
+    }
+
+    // Common nested contexts, innermost context first
+    static final Escaper HTML_JS_STRING = JS_STRING.then(HTML, "htmlJsString");
+    static final Escaper HTML_URI_PARAM = URI_PARAM.then(HTML, "htmlUriParam");
+    static final Escaper HTML_CSS_URI = URI_PARAM.then(CSS_STRING).then(HTML, "htmlCssUri");
+
+    // UTF-8 encoding of U+2028 and U+2029 is E2 80 A8 and E2 80 A9
+    private static final byte UTF8_SEPARATOR_LEAD = (byte) 0xE2;
+    private static final byte UTF8_SEPARATOR_MIDDLE = (byte) 0x80;
+    private static final byte UTF8_LINE_SEPARATOR_LAST = (byte) 0xA8;
+    private static final byte UTF8_PARAGRAPH_SEPARATOR_LAST = (byte) 0xA9;
+
+    private final String name;
+    private final String[] replacements;
+    private final String lineSeparator;
+    private final String paragraphSeparator;
+
+    // The same replacements, encoded as bytes. All of them are ASCII, so the
+    // encoding is the same for UTF-8 and ISO-8859-1.
+    private final byte[][] byteReplacements;
+    private final byte[] lineSeparatorBytes;
+    private final byte[] paragraphSeparatorBytes;
+    private final int maxReplacementLength;
+
+    // Vector API scanner, null when it is not available
+    private final Scanner vectorScanner;
+
+    // Recorders of the calls, for the metrics and the flight recorder events
+    private final MethodMetrics metrics;
+    private final MethodMetrics appendableMetrics;
+    private final MethodMetrics streamMetrics;
+    private final MethodMetrics utf8Metrics;
+    private final MethodMetrics arrayMetrics;
+    private final MethodMetrics writerMetrics;
+    private final MethodMetrics bufferMetrics;
+    private final MethodMetrics channelMetrics;
+
+    private Escaper(String name, String[] replacements, String lineSeparator, String paragraphSeparator) {
+        this.name = name;
+        this.replacements = replacements;
+        this.lineSeparator = lineSeparator;
+        this.paragraphSeparator = paragraphSeparator;
+
+        this.byteReplacements = new byte[TABLE_SIZE][];
+        for (int i = 0; i < TABLE_SIZE; i++)
+            byteReplacements[i] = asciiBytes(replacements[i]);
+        this.lineSeparatorBytes = asciiBytes(lineSeparator);
+        this.paragraphSeparatorBytes = asciiBytes(paragraphSeparator);
+
+        int max = 0;
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            if (replacements[i] != null)
+                max = Math.max(max, replacements[i].length());
+        }
+        if (lineSeparator != null)
+            max = Math.max(max, lineSeparator.length());
+        if (paragraphSeparator != null)
+            max = Math.max(max, paragraphSeparator.length());
+        this.maxReplacementLength = max;
+
+        this.vectorScanner = newVectorScanner(unsafeRanges());
+
+        this.metrics = EscapeMetrics.register("Escape." + name);
+        this.appendableMetrics = EscapeMetrics.register("Escape." + name + "(Appendable)");
+        this.streamMetrics = EscapeMetrics.register("Escape." + name + "(OutputStream)");
+        this.utf8Metrics = EscapeMetrics.register("EscapeUtf8." + name);
+        this.arrayMetrics = EscapeMetrics.register("Escape." + name + "(char[])");
+        this.writerMetrics = EscapeMetrics.register("Escape." + name + "Writer");
+        this.bufferMetrics = EscapeMetrics.register("EscapeUtf8." + name + "(ByteBuffer)");
+        this.channelMetrics = EscapeMetrics.register("EscapeUtf8." + name + "(ReadableByteChannel)");
+    }
+
+    /**
+     * Returns an escaper equivalent to escaping with this escaper, then with
+     * <code>outer</code>.
+     *
+     * Both escapers replace single characters independently of their neighbours, so
+     * the composition is also a replacement table: the replacement of a character is
+     * its replacement in this escaper (or the character itself) escaped by
+     * <code>outer</code>.
+     */
+    Escaper then(Escaper outer) {
+        return then(outer, name + "+" + outer.name);
+    }
+
+    /**
+     * Same as {@link #then(Escaper)}, with the <code>name</code> under which the calls
+     * of the result are recorded by {@link EscapeMetrics}.
+     */
+    Escaper then(Escaper outer, String name) {
+        String[] table = new String[TABLE_SIZE];
+        for (char c = 0; c < TABLE_SIZE; c++)
+            table[c] = then(outer, c, replacements[c]);
+        return new Escaper(name, table,
+                           then(outer, LINE_SEPARATOR, lineSeparator),
+                           then(outer, PARAGRAPH_SEPARATOR, paragraphSeparator));
+    }
+
+    private static String then(Escaper outer, char c, String replacement) {
+        if (replacement != null)
+            return outer.escapeString(replacement);
+        return outer.replacement(c);
+    }
+
+    static int intProperty(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static Constructor<?> vectorScannerConstructor() {
+        if ("false".equals(System.getProperty("com.coverity.security.vector")))
+            return null;
+        try {
+            Class<?> scanner = Class.forName("com.coverity.security.VectorScanner");
+            return scanner.getDeclaredConstructor(char[].class);
+        } catch (Exception e) {
+            // Not compiled in, or not accessible
+            return null;
+        } catch (LinkageError e) {
+            // Older Java version, or the incubator module is not loaded
+            return null;
+        }
+    }
+
+    private static Scanner newVectorScanner(char[] ranges) {
+        if (VECTOR_SCANNER == null || ranges.length == 0)
+            return null;
+        try {
+            return (Scanner) VECTOR_SCANNER.newInstance(ranges);
+        } catch (Exception e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the characters that have a replacement as inclusive ranges, stored as
+     * consecutive pairs of low and high characters.
+     */
+    private char[] unsafeRanges() {
+        StringBuilder ranges = new StringBuilder();
+        char c = 0;
+        while (c < TABLE_SIZE) {
+            if (replacements[c] == null) {
+                c++;
+                continue;
+            }
+            char low = c;
+            while (c + 1 < TABLE_SIZE && replacements[c + 1] != null)
+                c++;
+            ranges.append(low).append(c);
+            c++;
+        }
+        if (lineSeparator != null && paragraphSeparator != null)
+            ranges.append(LINE_SEPARATOR).append(PARAGRAPH_SEPARATOR);
+        else if (lineSeparator != null)
+            ranges.append(LINE_SEPARATOR).append(LINE_SEPARATOR);
+        else if (paragraphSeparator != null)
+            ranges.append(PARAGRAPH_SEPARATOR).append(PARAGRAPH_SEPARATOR);
+        return ranges.toString().toCharArray();
+    }
+
+    private static byte[] asciiBytes(String s) {
+        if (s == null)
+            return null;
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            char c = s.charAt(i);
+            if (c >= TABLE_SIZE)
+                throw new IllegalArgumentException("Replacement is not ASCII: " + s);
+            bytes[i] = (byte) c;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the replacement of <code>c</code>, or <code>null</code> if it is safe.
+     */
+    String replacement(char c) {
+        if (c < TABLE_SIZE)
+            return replacements[c];
+        if (c == LINE_SEPARATOR)
+            return lineSeparator;
+        if (c == PARAGRAPH_SEPARATOR)
+            return paragraphSeparator;
+        return null;
+    }
+
+    /**
+     * Returns true when <code>c</code> has a replacement.
+     */
+    private boolean isUnsafe(char c) {
+        if (c < TABLE_SIZE)
+            return replacements[c] != null;
+        return (c == LINE_SEPARATOR && lineSeparator != null)
+               || (c == PARAGRAPH_SEPARATOR && paragraphSeparator != null);
+    }
+
+    /**
+     * Returns the index of the first character in <code>[from, to)</code> that has
+     * a replacement, or -1 if all of them are safe.
+     *
+     * The loop is specialized for <code>String</code>, <code>StringBuilder</code> and
+     * <code>CharBuffer</code> backed by an array, so that <code>charAt</code> is a direct
+     * call to a known class, even when the callers pass several kinds of sequences.
+     */
+    int indexOfUnsafe(CharSequence input, int from, int to) {
+        if (input instanceof String)
+            return indexOfUnsafe((String) input, from, to);
+        if (input instanceof StringBuilder)
+            return indexOfUnsafe((StringBuilder) input, from, to);
+        if (input instanceof CharBuffer && ((CharBuffer) input).hasArray()) {
+            CharBuffer buffer = (CharBuffer) input;
+            int offset = buffer.arrayOffset() + buffer.position();
+            int i = indexOfUnsafe(buffer.array(), offset + from, offset + to);
+            return i < 0 ? -1 : i - offset;
+        }
+
+        for (int i = from; i < to; i++) {
+            if (isUnsafe(input.charAt(i)))
+                return i;
+        }
+        return -1;
+    }
+
+    private int indexOfUnsafe(String input, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (isUnsafe(input.charAt(i)))
+                return i;
+        }
+        return -1;
+    }
+
+    private int indexOfUnsafe(StringBuilder input, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (isUnsafe(input.charAt(i)))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Same as {@link #indexOfUnsafe(CharSequence, int, int)} for a character array.
+     */
+    int indexOfUnsafe(char[] input, int from, int to) {
+        if (vectorScanner != null && to - from >= VECTOR_THRESHOLD) {
+            int i = scalarIndexOfUnsafe(input, from, from + VECTOR_PREFIX);
+            return i >= 0 ? i : vectorScanner.indexOfUnsafe(input, from + VECTOR_PREFIX, to);
+        }
+        return scalarIndexOfUnsafe(input, from, to);
+    }
+
+    private int scalarIndexOfUnsafe(char[] input, int from, int to) {
+        String[] table = replacements;
+        for (int i = from; i < to; i++) {
+            char c = input[i];
+            if (c < TABLE_SIZE) {
+                if (table[c] != null)
+                    return i;
+            } else if ((c == LINE_SEPARATOR && lineSeparator != null)
+                       || (c == PARAGRAPH_SEPARATOR && paragraphSeparator != null)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    String name() {
+        return name;
+    }
+
+    /**
+     * Returns the recorder of the calls of {@link #escape(String)}.
+     */
+    MethodMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the recorder of the writes to the <code>Escape.*Writer</code> writers.
+     */
+    MethodMetrics writerMetrics() {
+        return writerMetrics;
+    }
+
+    /**
+     * Escapes <code>input</code>, returning the same instance when no character is replaced.
+     */
+    String escape(String input) {
+        if (MethodMetrics.isRecording())
+            return metrics.record(MethodMetrics.start(input), input, escapeString(input));
+        return escapeString(input);
+    }
+
+    /**
+     * Same as {@link #escape(String)} for any character sequence, which is only copied to
+     * a <code>String</code> as is when no character is replaced.
+     */
+    String escape(CharSequence input) {
+        if (input instanceof String)
+            return escape((String) input);
+        if (MethodMetrics.isRecording() && input != null) {
+            MethodMetrics.Start start = MethodMetrics.start(input);
+            String output = escapeSequence(input);
+            // Every replacement is longer than the character it replaces
+            metrics.record(start, input.length(), output.length(), output.length() == input.length());
+            return output;
+        }
+        return escapeSequence(input);
+    }
+
+    private String escapeSequence(CharSequence input) {
+        if (input == null)
+            return null;
+
+        int length = input.length();
+        int first = indexOfUnsafe(input, 0, length);
+        if (first < 0)
+            return input.toString();
+
+        StringBuilder output = ScratchBuffers.borrow(length);
+        output.append(input, 0, first);
+        escape(input, first, length, output);
+        return ScratchBuffers.toStringAndRelease(output);
+    }
+
+    /**
+     * Same as {@link #escape(String)}, but never records the call, for the callers that
+     * record it under their own name.
+     */
+    String escapeString(String input) {
+        if (input == null)
+            return null;
+
+        int first = indexOfUnsafe(input, 0, input.length());
+        if (first < 0)
+            return input;
+        return escape(input, first);
+    }
+
+    /**
+     * Same as {@link #escape(String)}, but builds the escaped string in <code>scratch</code>,
+     * which is cleared first, so that a batch of strings shares a single buffer.
+     */
+    String escape(String input, StringBuilder scratch) {
+        if (MethodMetrics.isRecording())
+            return metrics.record(MethodMetrics.start(input), input, escapeString(input, scratch));
+        return escapeString(input, scratch);
+    }
+
+    private String escapeString(String input, StringBuilder scratch) {
+        if (input == null)
+            return null;
+
+        int length = input.length();
+        int first = indexOfUnsafe(input, 0, length);
+        if (first < 0)
+            return input;
+        if (length >= EXACT_SIZE_THRESHOLD)
+            return escapeExact(input);
+        scratch.setLength(0);
+        scratch.append(input, 0, first);
+        escape(input, first, length, scratch);
+        return scratch.toString();
+    }
+
+    /**
+     * Escapes <code>input</code>, whose first character that has a replacement is
+     * at index <code>first</code>.
+     */
+    String escape(String input, int first) {
+        int length = input.length();
+        if (length >= EXACT_SIZE_THRESHOLD)
+            return escapeExact(input);
+
+        StringBuilder output = ScratchBuffers.borrow(length);
+        output.append(input, 0, first);
+        escape(input, first, length, output);
+        return ScratchBuffers.toStringAndRelease(output);
+    }
+
+    /**
+     * Same as {@link #escape(String, int)}, but computes the length of the result first,
+     * and escapes into an array of that length.
+     */
+    private String escapeExact(String input) {
+        int length = input.length();
+        // Counts the extra characters of the replacements, and looks for wide characters
+        // that are kept, in the same pass. The safe prefix may have wide characters too.
+        String[] table = replacements;
+        long escapedLength = length;
+        boolean latin1 = true;
+        for (int i = 0; i < length; i++) {
+            char c = input.charAt(i);
+            if (c < TABLE_SIZE) {
+                String replacement = table[c];
+                if (replacement != null)
+                    escapedLength += replacement.length() - 1;
+            } else if (c > 0xFF) {
+                String replacement = replacement(c);
+                if (replacement != null)
+                    escapedLength += replacement.length() - 1;
+                else
+                    latin1 = false;
+            }
+        }
+        if (escapedLength > Integer.MAX_VALUE)
+            throw new OutOfMemoryError("Escaped string is too long: " + escapedLength + " characters");
+
+        if (latin1) {
+            byte[] output = new byte[(int) escapedLength];
+            escape(input, 0, length, output, 0);
+            return new String(output, ISO_8859_1);
+        }
+        char[] output = new char[(int) escapedLength];
+        escape(input, 0, length, output, 0);
+        return new String(output);
+    }
+
+    /**
+     * Appends the escaped <code>[start, end)</code> range of <code>input</code> to
+     * <code>output</code>.
+     *
+     * <code>StringBuilder.append(CharSequence, int, int)</code> copies the runs of safe
+     * characters one <code>charAt</code> at a time, except from a <code>String</code>, so
+     * the runs of a <code>CharBuffer</code> are appended from its array instead.
+     */
+    void escape(CharSequence input, int start, int end, StringBuilder output) {
+        if (input instanceof CharBuffer && ((CharBuffer) input).hasArray()) {
+            CharBuffer buffer = (CharBuffer) input;
+            int offset = buffer.arrayOffset() + buffer.position();
+            escape(buffer.array(), offset + start, offset + end, output);
+            return;
+        }
+
+        int last = start;
+        int i = indexOfUnsafe(input, start, end);
+        while (i >= 0) {
+            output.append(input, last, i);
+            output.append(replacement(input.charAt(i)));
+            last = i + 1;
+            i = indexOfUnsafe(input, last, end);
+        }
+        output.append(input, last, end);
+    }
+
+    /**
+     * Same as {@link #escape(CharSequence, int, int, StringBuilder)} for a character array.
+     */
+    private void escape(char[] input, int start, int end, StringBuilder output) {
+        int last = start;
+        int i = indexOfUnsafe(input, start, end);
+        while (i >= 0) {
+            output.append(input, last, i - last);
+            output.append(replacement(input[i]));
+            last = i + 1;
+            i = indexOfUnsafe(input, last, end);
+        }
+        output.append(input, last, end - last);
+    }
+
+    /**
+     * Same as {@link #escape(CharSequence, int, int, StringBuilder)} for any
+     * <code>Appendable</code>.
+     */
+    void escape(CharSequence input, int start, int end, Appendable output) throws IOException {
+        if (MethodMetrics.isRecording()) {
+            MethodMetrics.Start begin = MethodMetrics.start(end - start);
+            long written = append(input, start, end, output);
+            // Every replacement is longer than the character it replaces
+            appendableMetrics.record(begin, end - start, written, written == end - start);
+            return;
+        }
+        append(input, start, end, output);
+    }
+
+    /**
+     * Same as {@link #escape(CharSequence, int, int, Appendable)}, returning the number of
+     * characters appended.
+     */
+    private long append(CharSequence input, int start, int end, Appendable output) throws IOException {
+        if (output instanceof StringBuilder) {
+            StringBuilder builder = (StringBuilder) output;
+            int before = builder.length();
+            escape(input, start, end, builder);
+            return builder.length() - before;
+        }
+        if (output instanceof Writer && input instanceof String)
+            return escape((String) input, start, end, (Writer) output);
+
+        long written = end - start;
+        int last = start;
+        int i = indexOfUnsafe(input, start, end);
+        while (i >= 0) {
+            if (i > last)
+                output.append(input, last, i);
+            String replacement = replacement(input.charAt(i));
+            output.append(replacement);
+            written += replacement.length() - 1;
+            last = i + 1;
+            i = indexOfUnsafe(input, last, end);
+        }
+        if (last < end)
+            output.append(input, last, end);
+        return written;
+    }
+
+    /**
+     * Same as {@link #escape(CharSequence, int, int, Appendable)} for a <code>String</code>
+     * written to a <code>Writer</code>: <code>Writer.append</code> would copy every run of
+     * safe characters to a new <code>String</code> first.
+     */
+    private long escape(String input, int start, int end, Writer output) throws IOException {
+        long written = end - start;
+        int last = start;
+        int i = indexOfUnsafe(input, start, end);
+        while (i >= 0) {
+            if (i > last)
+                output.write(input, last, i - last);
+            String replacement = replacement(input.charAt(i));
+            output.write(replacement);
+            written += replacement.length() - 1;
+            last = i + 1;
+            i = indexOfUnsafe(input, last, end);
+        }
+        if (last < end)
+            output.write(input, last, end - last);
+        return written;
+    }
+
+    /**
+     * Returns true when no character of <code>[from, to)</code> of <code>input</code> is
+     * above <code>U+00FF</code> once escaped.
+     */
+    boolean keepsLatin1(CharSequence input, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = input.charAt(i);
+            if (c > 0xFF && replacement(c) == null)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the length of <code>[from, to)</code> of <code>input</code> once escaped.
+     */
+    long escapedLength(CharSequence input, int from, int to) {
+        long length = to - from;
+        int i = indexOfUnsafe(input, from, to);
+        while (i >= 0) {
+            length += replacement(input.charAt(i)).length() - 1;
+            i = indexOfUnsafe(input, i + 1, to);
+        }
+        return length;
+    }
+
+    /**
+     * Same as {@link #escapedLength(CharSequence, int, int)} for a character array, when
+     * the first unsafe character is already known to be at <code>i</code>.
+     */
+    private long escapedLength(char[] input, int from, int i, int to) {
+        long length = to - from;
+        while (i >= 0) {
+            length += replacement(input[i]).length() - 1;
+            i = indexOfUnsafe(input, i + 1, to);
+        }
+        return length;
+    }
+
+    /**
+     * Escapes the <code>srcLen</code> characters of <code>src</code> at <code>srcOff</code>
+     * into <code>dst</code> at <code>dstOff</code>, and returns the number of characters
+     * written.
+     *
+     * When the rest of <code>dst</code> is too small for the escaped characters, nothing
+     * is written and the opposite of their number is returned instead. The length is only
+     * computed first when <code>dst</code> could be too small, i.e. when it has less room
+     * than the longest replacement for each character.
+     */
+    int escape(char[] src, int srcOff, int srcLen, char[] dst, int dstOff) {
+        if (srcOff < 0 || srcLen < 0 || srcOff > src.length - srcLen)
+            throw new IndexOutOfBoundsException("Source range [" + srcOff + ", " + srcOff + " + " + srcLen
+                                                + ") out of bounds for length " + src.length);
+        if (dstOff < 0 || dstOff > dst.length)
+            throw new IndexOutOfBoundsException("Destination offset " + dstOff
+                                                + " out of bounds for length " + dst.length);
+
+        if (MethodMetrics.isRecording()) {
+            MethodMetrics.Start start = MethodMetrics.start(srcLen);
+            int written = escapeArray(src, srcOff, srcLen, dst, dstOff);
+            if (written >= 0)
+                arrayMetrics.record(start, srcLen, written, written == srcLen);
+            return written;
+        }
+        return escapeArray(src, srcOff, srcLen, dst, dstOff);
+    }
+
+    private int escapeArray(char[] src, int srcOff, int srcLen, char[] dst, int dstOff) {
+        int srcEnd = srcOff + srcLen;
+        long room = dst.length - dstOff;
+        int i = indexOfUnsafe(src, srcOff, srcEnd);
+        if (i >= 0 && room < (long) srcLen * maxReplacementLength) {
+            long required = escapedLength(src, srcOff, i, srcEnd);
+            if (required > room)
+                return (int) -Math.min(required, Integer.MAX_VALUE);
+        } else if (i < 0 && room < srcLen) {
+            return -srcLen;
+        }
+
+        int pos = dstOff;
+        int last = srcOff;
+        while (i >= 0) {
+            System.arraycopy(src, last, dst, pos, i - last);
+            pos += i - last;
+            String replacement = replacement(src[i]);
+            replacement.getChars(0, replacement.length(), dst, pos);
+            pos += replacement.length();
+            last = i + 1;
+            i = indexOfUnsafe(src, last, srcEnd);
+        }
+        System.arraycopy(src, last, dst, pos, srcEnd - last);
+        return pos + srcEnd - last - dstOff;
+    }
+
+    /**
+     * Escapes <code>[from, to)</code> of <code>input</code> into <code>output</code> at
+     * <code>offset</code>, which must have room for {@link #escapedLength} characters,
+     * and returns the index that follows the last character written.
+     */
+    int escape(String input, int from, int to, char[] output, int offset) {
+        int pos = offset;
+        int last = from;
+        int i = indexOfUnsafe(input, from, to);
+        while (i >= 0) {
+            input.getChars(last, i, output, pos);
+            pos += i - last;
+            String replacement = replacement(input.charAt(i));
+            replacement.getChars(0, replacement.length(), output, pos);
+            pos += replacement.length();
+            last = i + 1;
+            i = indexOfUnsafe(input, last, to);
+        }
+        input.getChars(last, to, output, pos);
+        return pos + to - last;
+    }
+
+    /**
+     * Same as {@link #escape(String, int, int, char[], int)} into ISO-8859-1 bytes, for a
+     * range of <code>input</code> where every character above <code>U+00FF</code> has a
+     * replacement.
+     */
+    @SuppressWarnings("deprecation")
+    int escape(String input, int from, int to, byte[] output, int offset) {
+        int pos = offset;
+        int last = from;
+        int i = indexOfUnsafe(input, from, to);
+        while (i >= 0) {
+            // Copies the low byte of every character, which is ISO-8859-1 here
+            input.getBytes(last, i, output, pos);
+            pos += i - last;
+            char c = input.charAt(i);
+            byte[] replacement = c < TABLE_SIZE ? byteReplacements[c]
+                               : c == LINE_SEPARATOR ? lineSeparatorBytes : paragraphSeparatorBytes;
+            System.arraycopy(replacement, 0, output, pos, replacement.length);
+            pos += replacement.length;
+            last = i + 1;
+            i = indexOfUnsafe(input, last, to);
+        }
+        input.getBytes(last, to, output, pos);
+        return pos + to - last;
+    }
+
+    /**
+     * Returns true when <code>b</code> can be copied to the output as is. A lead byte
+     * of the UTF-8 Unicode new lines is never safe, the caller has to look at the
+     * following bytes.
+     */
+    private boolean isSafeByte(byte b) {
+        if (b >= 0)
+            return byteReplacements[b] == null;
+        return b != UTF8_SEPARATOR_LEAD || (lineSeparatorBytes == null && paragraphSeparatorBytes == null);
+    }
+
+    /**
+     * Returns the replacement of the UTF-8 sequence made of the separator lead byte
+     * followed by <code>second</code> and <code>third</code>, or null if it is not an
+     * escaped Unicode new line.
+     */
+    private byte[] separatorReplacement(byte second, byte third) {
+        if (second != UTF8_SEPARATOR_MIDDLE)
+            return null;
+        if (third == UTF8_LINE_SEPARATOR_LAST)
+            return lineSeparatorBytes;
+        if (third == UTF8_PARAGRAPH_SEPARATOR_LAST)
+            return paragraphSeparatorBytes;
+        return null;
+    }
+
+    /**
+     * Escapes UTF-8 encoded bytes, returning the same array when no byte is replaced.
+     *
+     * Only ASCII bytes and the encoding of the Unicode new lines can be replaced, every
+     * other byte, including the ones of malformed sequences, is copied as is.
+     */
+    byte[] escape(byte[] input) {
+        if (MethodMetrics.isRecording())
+            return utf8Metrics.record(MethodMetrics.start(input == null ? 0 : input.length), input, escapeBytes(input));
+        return escapeBytes(input);
+    }
+
+    private byte[] escapeBytes(byte[] input) {
+        if (input == null)
+            return null;
+
+        // First pass to compute the exact size of the output
+        int length = input.length;
+        int outputLength = 0;
+        boolean changed = false;
+        for (int i = 0; i < length; i++) {
+            byte b = input[i];
+            if (isSafeByte(b)) {
+                outputLength++;
+                continue;
+            }
+            byte[] replacement = byteReplacement(input, i, length);
+            if (replacement == null) {
+                outputLength++;
+            } else {
+                outputLength += replacement.length;
+                changed = true;
+                if (b < 0)
+                    i += 2;
+            }
+        }
+        if (!changed)
+            return input;
+
+        byte[] output = new byte[outputLength];
+        int last = 0;
+        int o = 0;
+        for (int i = 0; i < length; i++) {
+            byte b = input[i];
+            if (isSafeByte(b))
+                continue;
+            byte[] replacement = byteReplacement(input, i, length);
+            if (replacement == null)
+                continue;
+            System.arraycopy(input, last, output, o, i - last);
+            o += i - last;
+            System.arraycopy(replacement, 0, output, o, replacement.length);
+            o += replacement.length;
+            if (b < 0)
+                i += 2;
+            last = i + 1;
+        }
+        System.arraycopy(input, last, output, o, length - last);
+        return output;
+    }
+
+    private byte[] byteReplacement(byte[] input, int i, int length) {
+        byte b = input[i];
+        if (b >= 0)
+            return byteReplacements[b];
+        if (i + 2 >= length)
+            return null;
+        return separatorReplacement(input[i + 1], input[i + 2]);
+    }
+
+    /**
+     * Escapes the UTF-8 bytes remaining in <code>in</code> into <code>out</code>, in the
+     * same way as <code>CharsetEncoder.encode(CharBuffer, ByteBuffer, boolean)</code>.
+     *
+     * Returns <code>CoderResult.OVERFLOW</code> when <code>out</code> does not have enough
+     * room for the next run or replacement, and <code>CoderResult.UNDERFLOW</code> when
+     * all the input was consumed. When <code>endOfInput</code> is false, up to two trailing
+     * bytes that may start a Unicode new line are left in <code>in</code>.
+     */
+    CoderResult escape(ByteBuffer in, ByteBuffer out, boolean endOfInput) {
+        if (MethodMetrics.isRecording()) {
+            int inStart = in.position();
+            int outStart = out.position();
+            MethodMetrics.Start start = MethodMetrics.start(in.remaining());
+            CoderResult result = escapeBuffer(in, out, endOfInput);
+            int consumed = in.position() - inStart;
+            int produced = out.position() - outStart;
+            bufferMetrics.record(start, consumed, produced, produced == consumed);
+            return result;
+        }
+        return escapeBuffer(in, out, endOfInput);
+    }
+
+    private CoderResult escapeBuffer(ByteBuffer in, ByteBuffer out, boolean endOfInput) {
+        int limit = in.limit();
+        while (in.hasRemaining()) {
+            int p = in.position();
+
+            // Copy the run of safe bytes, as much as fits in the output
+            int end = p;
+            while (end < limit && isSafeByte(in.get(end)))
+                end++;
+            if (end > p) {
+                int n = Math.min(end - p, out.remaining());
+                if (n == 0)
+                    return CoderResult.OVERFLOW;
+                in.limit(p + n);
+                out.put(in);
+                in.limit(limit);
+                continue;
+            }
+
+            byte b = in.get(p);
+            byte[] replacement;
+            int consumed = 1;
+            if (b >= 0) {
+                replacement = byteReplacements[b];
+            } else if (limit - p >= 3) {
+                replacement = separatorReplacement(in.get(p + 1), in.get(p + 2));
+                if (replacement != null)
+                    consumed = 3;
+            } else if (!endOfInput && (limit - p == 1 || in.get(p + 1) == UTF8_SEPARATOR_MIDDLE)) {
+                // Wait for the rest of a potential new line
+                return CoderResult.UNDERFLOW;
+            } else {
+                replacement = null;
+            }
+
+            if (replacement == null) {
+                if (!out.hasRemaining())
+                    return CoderResult.OVERFLOW;
+                out.put(b);
+            } else {
+                if (out.remaining() < replacement.length)
+                    return CoderResult.OVERFLOW;
+                out.put(replacement);
+            }
+            in.position(p + consumed);
+        }
+        return CoderResult.UNDERFLOW;
+    }
+
+    /**
+     * Escapes the UTF-8 bytes read from <code>in</code> until the end of the stream, and
+     * writes them to <code>out</code>. Both channels are expected to be blocking.
+     *
+     * Returns the number of bytes written.
+     */
+    long escape(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        // The length of the input is only known at the end, so every call is timed
+        boolean recording = MethodMetrics.isRecording();
+        MethodMetrics.Start begin = recording ? MethodMetrics.start(MethodMetrics.LARGE_INPUT) : MethodMetrics.NOT_TIMED;
+        ByteBuffer src = ByteBuffer.allocate(CHANNEL_BUFFER_SIZE);
+        ByteBuffer dst = ByteBuffer.allocate(CHANNEL_BUFFER_SIZE);
+        long read = 0;
+        long written = 0;
+        boolean endOfInput = false;
+        while (true) {
+            if (!endOfInput) {
+                int n = in.read(src);
+                if (n < 0)
+                    endOfInput = true;
+                else
+                    read += n;
+            }
+
+            src.flip();
+            CoderResult result = escapeBuffer(src, dst, endOfInput);
+            src.compact();
+
+            dst.flip();
+            while (dst.hasRemaining())
+                written += out.write(dst);
+            dst.clear();
+
+            if (endOfInput && result.isUnderflow()) {
+                if (recording)
+                    channelMetrics.record(begin, read, written, written == read);
+                return written;
+            }
+        }
+    }
+
+    /**
+     * Escapes <code>input</code> and encodes the result to <code>out</code> in a single
+     * pass. UTF-8, ISO-8859-1 and US-ASCII are encoded directly from the replacement
+     * tables, unmappable characters and unpaired surrogates being written as
+     * <code>'?'</code> like <code>String.getBytes(Charset)</code> does. Other charsets go
+     * through <code>String.getBytes(Charset)</code> on the escaped text.
+     */
+    void escape(CharSequence input, OutputStream out, Charset charset) throws IOException {
+        boolean recording = MethodMetrics.isRecording();
+        MethodMetrics.Start begin = recording ? MethodMetrics.start(input) : MethodMetrics.NOT_TIMED;
+        int maxChar;
+        if (UTF_8.equals(charset))
+            maxChar = Character.MAX_VALUE;
+        else if (ISO_8859_1.equals(charset))
+            maxChar = 0xFF;
+        else if (US_ASCII.equals(charset))
+            maxChar = 0x7F;
+        else {
+            // A writer would hold back a trailing high surrogate until closed
+            String text = input.toString();
+            String escaped = escapeString(text);
+            byte[] bytes = escaped.getBytes(charset);
+            out.write(bytes);
+            if (recording)
+                streamMetrics.record(begin, text.length(), bytes.length, escaped == text);
+            return;
+        }
+        boolean utf8 = maxChar == Character.MAX_VALUE;
+
+        int length = input.length();
+        long largest = (long) length * Math.max(maxReplacementLength, MAX_UTF8_SEQUENCE);
+        byte[] buffer = new byte[(int) Math.min(STREAM_BUFFER_SIZE, largest + MAX_UTF8_SEQUENCE)];
+        int flushAt = buffer.length - Math.max(maxReplacementLength, MAX_UTF8_SEQUENCE);
+        byte[][] byteReplacements = this.byteReplacements;
+        int pos = 0;
+        long written = 0;
+        boolean replaced = false;
+        for (int i = 0; i < length; i++) {
+            if (pos > flushAt) {
+                out.write(buffer, 0, pos);
+                written += pos;
+                pos = 0;
+            }
+
+            char c = input.charAt(i);
+            byte[] replacement;
+            if (c < TABLE_SIZE) {
+                replacement = byteReplacements[c];
+                if (replacement == null) {
+                    // Copy the whole run of safe ASCII that fits in the buffer
+                    buffer[pos++] = (byte) c;
+                    int runEnd = Math.min(length, i + 1 + buffer.length - pos);
+                    while (i + 1 < runEnd) {
+                        c = input.charAt(i + 1);
+                        if (c >= TABLE_SIZE || byteReplacements[c] != null)
+                            break;
+                        buffer[pos++] = (byte) c;
+                        i++;
+                    }
+                    continue;
+                }
+            } else if (c == LINE_SEPARATOR && lineSeparatorBytes != null) {
+                replacement = lineSeparatorBytes;
+            } else if (c == PARAGRAPH_SEPARATOR && paragraphSeparatorBytes != null) {
+                replacement = paragraphSeparatorBytes;
+            } else if (!utf8) {
+                if (c <= maxChar) {
+                    buffer[pos++] = (byte) c;
+                } else {
+                    // A surrogate pair is a single unmappable character
+                    if (Character.isHighSurrogate(c) && i + 1 < length
+                            && Character.isLowSurrogate(input.charAt(i + 1)))
+                        i++;
+                    buffer[pos++] = (byte) '?';
+                }
+                continue;
+            } else if (c < 0x800) {
+                buffer[pos++] = (byte) (0xC0 | (c >> 6));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+                continue;
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(input.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, input.charAt(++i));
+                    buffer[pos++] = (byte) (0xF0 | (cp >> 18));
+                    buffer[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buffer[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buffer[pos++] = (byte) (0x80 | (cp & 0x3F));
+                } else {
+                    buffer[pos++] = (byte) '?';
+                }
+                continue;
+            } else {
+                buffer[pos++] = (byte) (0xE0 | (c >> 12));
+                buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+                continue;
+            }
+
+            System.arraycopy(replacement, 0, buffer, pos, replacement.length);
+            pos += replacement.length;
+            replaced = true;
+        }
+        if (pos > 0)
+            out.write(buffer, 0, pos);
+        if (recording)
+            streamMetrics.record(begin, length, written + pos, !replaced);
+    }
+}
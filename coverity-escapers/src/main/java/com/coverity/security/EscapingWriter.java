@@ -0,0 +1,199 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * EscapingWriter is a <code>Writer</code> decorator that escapes everything written
+ * to it before passing it to the underlying writer, using the same rules as the
+ * static methods of {@link Escape}.
+ *
+ * The characters are escaped as they are written: runs of safe characters are
+ * forwarded with a single <code>write</code> call, and replacements are written
+ * from constant strings, so the memory used does not depend on the size of the
+ * escaped data.
+ *
+ * Instances are created through the <code>Escape.*Writer</code> factories, e.g.
+ * {@link Escape#htmlWriter(Writer)}. Each <code>write</code> is recorded by
+ * {@link EscapeMetrics} as a call of <code>Escape.htmlWriter</code>, etc.
+ *
+ * @author Romain Gaucher
+ */
+final class EscapingWriter extends Writer {
+
+    // Size of the buffer used to copy CharSequence that are not String
+    private static final int BUFFER_SIZE = 256;
+
+    private final Writer out;
+    private final Escaper escaper;
+    private final MethodMetrics metrics;
+    private char[] buffer;
+
+    EscapingWriter(Writer out, Escaper escaper) {
+        super(out);
+        if (out == null)
+            throw new NullPointerException("out");
+        this.out = out;
+        this.escaper = escaper;
+        this.metrics = escaper.writerMetrics();
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (MethodMetrics.isRecording()) {
+            MethodMetrics.Start start = MethodMetrics.start(1);
+            int written = writeChar(c);
+            // Every replacement is longer than the character it replaces
+            metrics.record(start, 1, written, written == 1);
+        } else {
+            writeChar(c);
+        }
+    }
+
+    // Returns the number of characters written to out
+    private int writeChar(int c) throws IOException {
+        String replacement = escaper.replacement((char) c);
+        if (replacement == null) {
+            out.write(c);
+            return 1;
+        }
+        out.write(replacement);
+        return replacement.length();
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        int end = off + len;
+        if (off < 0 || len < 0 || end > cbuf.length || end < 0)
+            throw new IndexOutOfBoundsException();
+
+        if (MethodMetrics.isRecording()) {
+            MethodMetrics.Start start = MethodMetrics.start(len);
+            long written = writeChars(cbuf, off, end);
+            metrics.record(start, len, written, written == len);
+        } else {
+            writeChars(cbuf, off, end);
+        }
+    }
+
+    // Returns the number of characters written to out
+    private long writeChars(char[] cbuf, int off, int end) throws IOException {
+        long written = 0;
+        int last = off;
+        int i = escaper.indexOfUnsafe(cbuf, off, end);
+        while (i >= 0) {
+            if (i > last)
+                out.write(cbuf, last, i - last);
+            String replacement = escaper.replacement(cbuf[i]);
+            out.write(replacement);
+            written += i - last + replacement.length();
+            last = i + 1;
+            i = escaper.indexOfUnsafe(cbuf, last, end);
+        }
+        if (last < end)
+            out.write(cbuf, last, end - last);
+        return written + end - last;
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        int end = off + len;
+        if (off < 0 || len < 0 || end > str.length() || end < 0)
+            throw new IndexOutOfBoundsException();
+
+        if (MethodMetrics.isRecording()) {
+            MethodMetrics.Start start = MethodMetrics.start(len);
+            long written = writeString(str, off, end);
+            metrics.record(start, len, written, written == len);
+        } else {
+            writeString(str, off, end);
+        }
+    }
+
+    // Returns the number of characters written to out
+    private long writeString(String str, int off, int end) throws IOException {
+        long written = 0;
+        int last = off;
+        int i = escaper.indexOfUnsafe(str, off, end);
+        while (i >= 0) {
+            if (i > last)
+                out.write(str, last, i - last);
+            String replacement = escaper.replacement(str.charAt(i));
+            out.write(replacement);
+            written += i - last + replacement.length();
+            last = i + 1;
+            i = escaper.indexOfUnsafe(str, last, end);
+        }
+        if (last < end)
+            out.write(str, last, end - last);
+        return written + end - last;
+    }
+
+    @Override
+    public Writer append(CharSequence csq) throws IOException {
+        if (csq == null)
+            csq = "null";
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public Writer append(CharSequence csq, int start, int end) throws IOException {
+        if (csq == null)
+            csq = "null";
+        if (start < 0 || start > end || end > csq.length())
+            throw new IndexOutOfBoundsException();
+
+        if (csq instanceof String) {
+            write((String) csq, start, end - start);
+            return this;
+        }
+
+        // Copy other sequences through a small buffer instead of calling toString()
+        if (buffer == null)
+            buffer = new char[BUFFER_SIZE];
+        while (start < end) {
+            int n = Math.min(BUFFER_SIZE, end - start);
+            for (int i = 0; i < n; i++)
+                buffer[i] = csq.charAt(start + i);
+            write(buffer, 0, n);
+            start += n;
+        }
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -26,9 +26,6 @@
  */
 package com.coverity.security;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * Filter is a small set of methods for filtering tainted data that cannot be escaped. These
  * methods may change the semantics of the data if it cannot be determined to be safe, however
@@ -53,9 +50,24 @@ import java.util.regex.Pattern;
  */
 public class Filter {
 
-    private static final Pattern OCTAL_REGEX = Pattern.compile("(0+)([0-7]*)");
-    private static final Pattern NUMBER_REGEX = Pattern.compile("[-+]?((\\.[0-9]+)|([0-9]+\\.?[0-9]*))");
-    private static final Pattern HEX_REGEX = Pattern.compile("0x[0-9a-fA-F]+");
+    // States of the asNumber scanner
+    private static final int NUMBER_START = 0;
+    private static final int NUMBER_SIGN = 1;          // [-+]
+    private static final int NUMBER_ZERO = 2;          // 0
+    private static final int NUMBER_ZEROS = 3;         // 00+
+    private static final int NUMBER_OCTAL = 4;         // 0+[0-7]*[1-7][0-7]*
+    private static final int NUMBER_INTEGER = 5;       // [-+]?[0-9]+, not octal
+    private static final int NUMBER_DOT = 6;           // [-+]?\.
+    private static final int NUMBER_FRACTION = 7;      // [-+]?[0-9]*\.[0-9]+ or [-+]?[0-9]+\.
+    private static final int NUMBER_HEX_PREFIX = 8;    // 0x
+    private static final int NUMBER_HEX = 9;           // 0x[0-9a-fA-F]+
+    private static final int NUMBER_REJECT = 10;
+
+    // Recorders of the calls, for the metrics and the flight recorder events
+    private static final MethodMetrics AS_NUMBER = EscapeMetrics.register("Filter.asNumber");
+    private static final MethodMetrics AS_CSS_COLOR = EscapeMetrics.register("Filter.asCssColor");
+    private static final MethodMetrics AS_URL = EscapeMetrics.register("Filter.asURL");
+    private static final MethodMetrics AS_FLEXIBLE_URL = EscapeMetrics.register("Filter.asFlexibleURL");
 
     /**
      * asNumber is useful for outputting dynamic data as a number in a JavaScript
@@ -76,6 +88,19 @@ public class Filter {
         return asNumber(number, "0");
     }
 
+    /**
+     * Same as {@link #asNumber(String)} for any character sequence, such as a
+     * <code>StringBuilder</code>. The sequence is converted to a <code>String</code> once,
+     * which is the string returned when it is a valid number.
+     *
+     * @param number    the potential number to filter
+     * @return            a sanitised number or 0 if there is no conversion
+     * @since  1.3
+     */
+    public static String asNumber(CharSequence number) {
+        return asNumber(number, "0");
+    }
+
     /**
      * Identical to asNumber, except you can provide your own default value
      *
@@ -85,24 +110,128 @@ public class Filter {
      * @since  1.1
      */
     public static String asNumber(String number, String defaultNumber) {
+        if (MethodMetrics.isRecording())
+            return AS_NUMBER.record(MethodMetrics.start(number), number, filterNumber(number, defaultNumber));
+        return filterNumber(number, defaultNumber);
+    }
+
+    /**
+     * Same as {@link #asNumber(String, String)} for any character sequence. See
+     * {@link #asNumber(CharSequence)}.
+     *
+     * @param number        the potential number to filter
+     * @param defaultNumber    a default String to return if the number argument is not a Number
+     * @return                a sanitised number or defaultNumber if there is no conversion
+     * @since  1.3
+     */
+    public static String asNumber(CharSequence number, String defaultNumber) {
+        return asNumber(number == null ? null : number.toString(), defaultNumber);
+    }
+
+    private static String filterNumber(String number, String defaultNumber) {
         if (number == null)
             return null;
-        String trimNumber = number.trim();
 
-        //Do not allow octal to keep in line with java parse* functions
-        Matcher octal = OCTAL_REGEX.matcher(trimNumber);
-        if (octal.matches())
-            return octal.group(2);
+        // Same bounds as number.trim()
+        int start = 0;
+        int end = number.length();
+        while (start < end && number.charAt(start) <= ' ')
+            start++;
+        while (start < end && number.charAt(end - 1) <= ' ')
+            end--;
 
-        if (NUMBER_REGEX.matcher(trimNumber).matches())
-            return trimNumber;
-        if (HEX_REGEX.matcher(trimNumber).matches())
-            return trimNumber;
-        return defaultNumber;
-    }
+        // Single pass over the trimmed number, accepting the same language as the
+        // regular expressions (0+)([0-7]*), [-+]?((\.[0-9]+)|([0-9]+\.?[0-9]*))
+        // and 0x[0-9a-fA-F]+, tried in that order
+        int state = NUMBER_START;
+        int octalDigits = end;
+        for (int i = start; i < end && state != NUMBER_REJECT; i++) {
+            char c = number.charAt(i);
+            boolean digit = c >= '0' && c <= '9';
+            switch (state) {
+                case NUMBER_START:
+                    if (c == '0')
+                        state = NUMBER_ZERO;
+                    else if (digit)
+                        state = NUMBER_INTEGER;
+                    else if (c == '-' || c == '+')
+                        state = NUMBER_SIGN;
+                    else if (c == '.')
+                        state = NUMBER_DOT;
+                    else
+                        state = NUMBER_REJECT;
+                    break;
+                case NUMBER_SIGN:
+                    if (digit)
+                        state = NUMBER_INTEGER;
+                    else if (c == '.')
+                        state = NUMBER_DOT;
+                    else
+                        state = NUMBER_REJECT;
+                    break;
+                case NUMBER_ZERO:
+                case NUMBER_ZEROS:
+                    if (c == '0') {
+                        state = NUMBER_ZEROS;
+                    } else if (c >= '1' && c <= '7') {
+                        state = NUMBER_OCTAL;
+                        octalDigits = i;
+                    } else if (digit) {
+                        state = NUMBER_INTEGER;
+                    } else if (c == '.') {
+                        state = NUMBER_FRACTION;
+                    } else if (c == 'x' && state == NUMBER_ZERO) {
+                        state = NUMBER_HEX_PREFIX;
+                    } else {
+                        state = NUMBER_REJECT;
+                    }
+                    break;
+                case NUMBER_OCTAL:
+                    if (c >= '0' && c <= '7')
+                        state = NUMBER_OCTAL;
+                    else if (digit)
+                        state = NUMBER_INTEGER;
+                    else if (c == '.')
+                        state = NUMBER_FRACTION;
+                    else
+                        state = NUMBER_REJECT;
+                    break;
+                case NUMBER_INTEGER:
+                    if (c == '.')
+                        state = NUMBER_FRACTION;
+                    else if (!digit)
+                        state = NUMBER_REJECT;
+                    break;
+                case NUMBER_DOT:
+                case NUMBER_FRACTION:
+                    state = digit ? NUMBER_FRACTION : NUMBER_REJECT;
+                    break;
+                case NUMBER_HEX_PREFIX:
+                case NUMBER_HEX:
+                    if (digit || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F'))
+                        state = NUMBER_HEX;
+                    else
+                        state = NUMBER_REJECT;
+                    break;
+                default:
+                    state = NUMBER_REJECT;
+            }
+        }
 
-    private static final Pattern CSS_HEX_COLOR_REGEX = Pattern.compile("#[0-9a-fA-F]{3}([0-9a-fA-F]{3})?");
-    private static final Pattern CSS_NAMED_COLOR_REGEX = Pattern.compile("[a-zA-Z]{1,20}");
+        switch (state) {
+            case NUMBER_ZERO:
+            case NUMBER_ZEROS:
+            case NUMBER_OCTAL:
+                //Do not allow octal to keep in line with java parse* functions
+                return number.substring(octalDigits, end);
+            case NUMBER_INTEGER:
+            case NUMBER_FRACTION:
+            case NUMBER_HEX:
+                return start == 0 && end == number.length() ? number : number.substring(start, end);
+            default:
+                return defaultNumber;
+        }
+    }
 
     /**
      * asCssColor is useful when you need to insert dynamic data into a CSS color context, e.g.
@@ -116,6 +245,9 @@ public class Filter {
      * CSS strings
      *
      * This method validates that the parameter is a valid color, or returns the string "invalid".
+     * Valid colors are hex colors (<code>#rgb</code>, <code>#rgba</code>, <code>#rrggbb</code>,
+     * <code>#rrggbbaa</code>), the <code>rgb()</code>, <code>rgba()</code>, <code>hsl()</code> and
+     * <code>hsla()</code> functions, and the CSS named colors.
      * The string invalid was chosen since it is a token that is not valid in this context, so
      * this rule will be ignored by the CSS parser, but additional rules will still be parsed
      * properly.
@@ -136,6 +268,18 @@ public class Filter {
         return asCssColor(color, "invalid");
     }
 
+    /**
+     * Same as {@link #asCssColor(String)} for any character sequence. See
+     * {@link #asNumber(CharSequence)}.
+     *
+     * @param color    the potential css color to filter
+     * @return        the color specified or the string "invalid"
+     * @since  1.3
+     */
+    public static String asCssColor(CharSequence color) {
+        return asCssColor(color, "invalid");
+    }
+
     /**
      * Identical to asCssColor, except you can provide your own default value
      *
@@ -145,17 +289,33 @@ public class Filter {
      * @since  1.1
      */
     public static String asCssColor(String color, String defaultColor) {
+        if (MethodMetrics.isRecording())
+            return AS_CSS_COLOR.record(MethodMetrics.start(color), color, filterCssColor(color, defaultColor));
+        return filterCssColor(color, defaultColor);
+    }
+
+    /**
+     * Same as {@link #asCssColor(String, String)} for any character sequence. See
+     * {@link #asNumber(CharSequence)}.
+     *
+     * @param color           the potential css color to filter
+     * @param defaultColor    a default String to return if the color argument is not a potentially valid CSS color
+     * @return                a sanitised color or defaultColor if there is no conversion
+     * @since  1.3
+     */
+    public static String asCssColor(CharSequence color, String defaultColor) {
+        return asCssColor(color == null ? null : color.toString(), defaultColor);
+    }
+
+    private static String filterCssColor(String color, String defaultColor) {
         if (color == null)
             return null;
-        if (CSS_HEX_COLOR_REGEX.matcher(color).matches())
-            return color;
-        if (CSS_NAMED_COLOR_REGEX.matcher(color).matches())
+        if (CssColor.isValid(color))
             return color;
 
         return defaultColor;
     }
 
-    private static final Pattern URL_REGEX = Pattern.compile("(/|\\\\\\\\|https?:|ftp:|mailto:).*", Pattern.CASE_INSENSITIVE);
     /**
      * URL filtering to ensure that the URL is a safe non-relative URL or transforms it to a safe relative URL.
      *
@@ -192,25 +352,28 @@ public class Filter {
      * <li>etc</li>
      * </ul>
      *
+     * Other schemes can be allowed with a {@link UrlPolicy}.
+     *
      * @param url    The potentially tainted URL to be Filtered
      * @return        a safe version of the URL or <code>null</code> if <code>input</code> is null
      * @since  1.1
      */
     public static String asURL(String url) {
-        if (url == null) {
-            return null;
-        }
-
-        if (url.length() == 0) {
-            return url;
-        }
-
-        if (URL_REGEX.matcher(url).matches()) {
-            return url;
-        }
+        if (MethodMetrics.isRecording())
+            return AS_URL.record(MethodMetrics.start(url), url, UrlPolicy.STRICT.filter(url));
+        return UrlPolicy.STRICT.filter(url);
+    }
 
-        //Our fallback is to transform this to a relative URL
-        return "./" + url;
+    /**
+     * Same as {@link #asURL(String)} for any character sequence. See
+     * {@link #asNumber(CharSequence)}.
+     *
+     * @param url    The potentially tainted URL to be Filtered
+     * @return        a safe version of the URL or <code>null</code> if <code>input</code> is null
+     * @since  1.3
+     */
+    public static String asURL(CharSequence url) {
+        return asURL(url == null ? null : url.toString());
     }
 
     /**
@@ -225,67 +388,27 @@ public class Filter {
      * The complexity of this function is necessary due to the parsing that browsers do when
      * they encounter URLs, e.g. stripping new lines and NUL bytes.
      *
+     * Other schemes can be blocked with a {@link UrlPolicy}.
+     *
      * @param url    The potentially tainted URL to be Filtered
      * @return        a safe version of the URL or <code>null</code> if <code>input</code> is null
      * @since  1.1
      */
     public static String asFlexibleURL(String url) {
-        if (url == null) {
-            return null;
-        }
-
-        int i = 0;
-        int length = url.length();
-        if (length < 1)
-          return url;
-
-        //Assumption: / is not an escape character in any context
-        //Note: this allows scheme-relative URLs e.g. //google.com/
-        if (url.startsWith("/")) {
-            return url;
-        }
-
-        //Allow UNC paths
-        if (url.startsWith("\\\\")) {
-            return url;
-        }
-
-        //Find a potential scheme name
-        for (; i < length; i++) {
-            char c = url.charAt(i);
-            //These are valid scheme characters from RFC 3986
-            //Assumption: These are not escape characters in any context
-            if (! (
-                    (c >= 'a' && c <='z') || (c >= 'A' && c <='Z') ||
-                    (c >= '0' && c <='9') || (c == '.') || (c == '+')
-                     || (c == '-')
-                    )) {
-                break;
-            }
-        }
-
-        //i == first non-scheme value
-
-        if (i == length) {
-            //The whole string is consists only of a-z A-Z 0-9 .+-
-            return url;
-        }
-
-        if (url.charAt(i) == ':' && validateScheme(url.substring(0,i).toLowerCase())) {
-            //We've extracted what we think is a scheme, confirmed it definitely is a scheme
-            //then confirmed the scheme is safe, return the original string
-               return url;
-        }
-
-        //Our fallback is to transform this to a relative URL
-        return "./" + url;
+        if (MethodMetrics.isRecording())
+            return AS_FLEXIBLE_URL.record(MethodMetrics.start(url), url, UrlPolicy.FLEXIBLE.filter(url));
+        return UrlPolicy.FLEXIBLE.filter(url);
     }
 
-    private static final Pattern SCHEME_REGEX = Pattern.compile("(javascript|vbscript|data|about)");
-
-    private static boolean validateScheme(String scheme) {
-        return !SCHEME_REGEX.matcher(scheme).matches();
+    /**
+     * Same as {@link #asFlexibleURL(String)} for any character sequence. See
+     * {@link #asNumber(CharSequence)}.
+     *
+     * @param url    The potentially tainted URL to be Filtered
+     * @return        a safe version of the URL or <code>null</code> if <code>input</code> is null
+     * @since  1.3
+     */
+    public static String asFlexibleURL(CharSequence url) {
+        return asFlexibleURL(url == null ? null : url.toString());
     }
-
-
 }
@@ -0,0 +1,264 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MethodMetrics records the calls of one escaping or filtering method, when
+ * {@link EscapeMetrics} or the {@link CallSiteProfiler} is enabled, or when the flight
+ * recorder records {@link EscapeEvents}.
+ *
+ * Every counter is a <code>LongAdder</code>, which spreads concurrent updates over
+ * several cells instead of contending on a single one. For the metrics, the latency is
+ * only measured for inputs of at least {@value #LARGE_INPUT} characters, or bytes, so
+ * that reading the clock never costs more than a small fraction of the call. While the
+ * flight recorder records, every call is timed, since a short input can be slow too.
+ *
+ * @author Romain Gaucher
+ */
+final class MethodMetrics {
+
+    /**
+     * Shortest input whose latency is measured.
+     */
+    static final int LARGE_INPUT = 4096;
+
+    /**
+     * Start of the calls that are not timed.
+     */
+    static final Start NOT_TIMED = new Start(false, 0, false);
+
+    /**
+     * Upper bounds of the buckets of the expansion ratio, the length of the output divided
+     * by the length of the input. The last bucket has no upper bound.
+     */
+    static final double[] EXPANSION_BOUNDS = {1.0, 1.1, 1.25, 1.5, 2.0, 3.0, 5.0};
+
+    // The latency buckets are powers of two split in four, like a floating point
+    // number with a two bit mantissa, so a percentile is within 25% of the exact one
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LATENCY_BUCKETS = 64 << SUB_BUCKET_BITS;
+
+    // The counters are null when the metrics are disabled
+    private final String name;
+    private final LongAdder calls;
+    private final LongAdder unchanged;
+    private final LongAdder inputLength;
+    private final LongAdder outputLength;
+    private final LongAdder[] expansion;
+    private final LongAdder[] latency;
+    private final LongAccumulator maxLatency;
+
+    MethodMetrics(String name) {
+        this.name = name;
+        boolean counted = EscapeMetrics.ENABLED;
+        this.calls = counted ? new LongAdder() : null;
+        this.unchanged = counted ? new LongAdder() : null;
+        this.inputLength = counted ? new LongAdder() : null;
+        this.outputLength = counted ? new LongAdder() : null;
+        this.expansion = counted ? adders(EXPANSION_BOUNDS.length + 1) : null;
+        this.latency = counted ? adders(LATENCY_BUCKETS) : null;
+        this.maxLatency = counted ? new LongAccumulator(Math::max, 0) : null;
+    }
+
+    String name() {
+        return name;
+    }
+
+    /**
+     * Whether the calls have to be recorded, for the metrics or for the flight recorder.
+     * While the metrics, the profiler and the events are all disabled, this only reads
+     * <code>static final</code> fields, such as {@link EscapeEvents#ENABLED}, and the JIT
+     * removes the recording code.
+     */
+    static boolean isRecording() {
+        return EscapeMetrics.ENABLED || CallSiteProfiler.ENABLED || EscapeEvents.isRecording();
+    }
+
+    /**
+     * Start of a recorded call: whether it is timed and when it started, and whether the
+     * {@link CallSiteProfiler} sampled it.
+     */
+    static final class Start {
+        final boolean timed;
+        final long nanos;
+        final boolean sampled;
+
+        Start(boolean timed, long nanos, boolean sampled) {
+            this.timed = timed;
+            this.nanos = nanos;
+            this.sampled = sampled;
+        }
+    }
+
+    /**
+     * Returns the start of a call with an input of <code>length</code> characters, or
+     * {@link #NOT_TIMED} if it does not have to be timed.
+     */
+    static Start start(int length) {
+        if (CallSiteProfiler.ENABLED && CallSiteProfiler.sample())
+            return new Start(true, System.nanoTime(), true);
+        if ((EscapeMetrics.ENABLED && length >= LARGE_INPUT) || EscapeEvents.isRecording())
+            return new Start(true, System.nanoTime(), false);
+        return NOT_TIMED;
+    }
+
+    static Start start(CharSequence input) {
+        return input == null ? NOT_TIMED : start(input.length());
+    }
+
+    /**
+     * Records a call that returned <code>output</code> for <code>input</code>, and returns
+     * <code>output</code>. A call with a null input is not recorded.
+     */
+    String record(Start start, String input, String output) {
+        if (input != null)
+            record(start, input.length(), output == null ? 0 : output.length(), output == input);
+        return output;
+    }
+
+    /**
+     * Same as {@link #record(Start, String, String)} for bytes.
+     */
+    byte[] record(Start start, byte[] input, byte[] output) {
+        if (input != null)
+            record(start, input.length, output.length, output == input);
+        return output;
+    }
+
+    /**
+     * Records a call that wrote <code>outputLength</code> characters, or bytes, for an
+     * input of <code>inputLength</code>.
+     */
+    void record(Start start, long inputLength, long outputLength, boolean unchanged) {
+        long nanos = start.timed ? Math.max(0, System.nanoTime() - start.nanos) : 0;
+        if (CallSiteProfiler.ENABLED && start.sampled)
+            CallSiteProfiler.record(name, inputLength, nanos);
+        EscapeEvents.commit(name, inputLength, outputLength, nanos);
+        if (!EscapeMetrics.ENABLED)
+            return;
+
+        if (start.timed && inputLength >= LARGE_INPUT) {
+            latency[latencyBucket(nanos)].increment();
+            maxLatency.accumulate(nanos);
+        }
+        calls.increment();
+        if (unchanged)
+            this.unchanged.increment();
+        this.inputLength.add(inputLength);
+        this.outputLength.add(outputLength);
+        if (inputLength > 0)
+            expansion[expansionBucket((double) outputLength / inputLength)].increment();
+    }
+
+    void reset() {
+        calls.reset();
+        unchanged.reset();
+        inputLength.reset();
+        outputLength.reset();
+        for (LongAdder bucket : expansion)
+            bucket.reset();
+        for (LongAdder bucket : latency)
+            bucket.reset();
+        maxLatency.reset();
+    }
+
+    /**
+     * Returns the current values of the counters. Calls that are recorded meanwhile may be
+     * partly included.
+     */
+    EscapeMetrics.MethodSnapshot snapshot() {
+        long[] expansionCounts = sums(expansion);
+        long[] latencyCounts = sums(latency);
+        long timedCalls = 0;
+        for (long count : latencyCounts)
+            timedCalls += count;
+        long max = maxLatency.get();
+        return new EscapeMetrics.MethodSnapshot(name, calls.sum(), unchanged.sum(),
+                inputLength.sum(), outputLength.sum(), expansionCounts, timedCalls,
+                percentile(latencyCounts, timedCalls, 0.50, max),
+                percentile(latencyCounts, timedCalls, 0.90, max),
+                percentile(latencyCounts, timedCalls, 0.99, max),
+                max);
+    }
+
+    private static int expansionBucket(double ratio) {
+        for (int i = 0; i < EXPANSION_BOUNDS.length; i++) {
+            if (ratio <= EXPANSION_BOUNDS[i])
+                return i;
+        }
+        return EXPANSION_BOUNDS.length;
+    }
+
+    static int latencyBucket(long nanos) {
+        if (nanos < SUB_BUCKETS)
+            return (int) nanos;
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((nanos >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Returns the largest latency of <code>bucket</code>.
+     */
+    static long latencyUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+        long mantissa = SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1));
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    private static long percentile(long[] counts, long total, double fraction, long max) {
+        if (total == 0)
+            return 0;
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(latencyUpperBound(i), max);
+        }
+        return max;
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++)
+            adders[i] = new LongAdder();
+        return adders;
+    }
+
+    private static long[] sums(LongAdder[] adders) {
+        long[] sums = new long[adders.length];
+        for (int i = 0; i < adders.length; i++)
+            sums[i] = adders[i].sum();
+        return sums;
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * ScratchBuffers is an optional pool of the <code>StringBuilder</code> in which the
+ * escaping methods build their result, enabled with
+ * <code>-Dcom.coverity.security.scratchBuffers=true</code>.
+ *
+ * Without the pool, every call that replaces a character allocates a buffer of twice
+ * the length of the input, which is only used until the result is copied to a
+ * <code>String</code>. A <code>ThreadLocal</code> buffer would not help applications that
+ * run each request in its own short-lived virtual thread, so the pool is a small array
+ * of slots shared by all the threads. A thread takes a buffer from one of a few slots
+ * picked from its id, with a single atomic swap per slot, and gives it back to an empty
+ * slot the same way. No thread ever waits: when the slots are all empty, a new buffer
+ * is allocated, and when they are all full, the buffer is dropped.
+ *
+ * Buffers of more than {@value #MAX_CAPACITY} characters are never kept, so the pool
+ * holds at most {@value #MAX_CAPACITY} characters per slot, whatever the inputs.
+ *
+ * @author Romain Gaucher
+ */
+final class ScratchBuffers {
+
+    static final boolean ENABLED = "true".equals(System.getProperty("com.coverity.security.scratchBuffers"));
+
+    /**
+     * Capacity of the largest buffer kept in the pool.
+     */
+    static final int MAX_CAPACITY = 8192;
+
+    // Slots tried by a thread before it allocates or drops a buffer
+    private static final int PROBES = 4;
+
+    private static final int SLOTS = slots(Runtime.getRuntime().availableProcessors());
+
+    private static final AtomicReferenceArray<StringBuilder> POOL =
+            ENABLED ? new AtomicReferenceArray<StringBuilder>(SLOTS) : null;
+
+    private ScratchBuffers() {
+    }
+
+    /**
+     * Returns an empty buffer for escaping <code>length</code> characters, from the pool
+     * when possible.
+     */
+    static StringBuilder borrow(int length) {
+        if (ENABLED && length <= MAX_CAPACITY / 2) {
+            int slot = firstSlot();
+            for (int i = 0; i < PROBES; i++) {
+                StringBuilder buffer = POOL.getAndSet((slot + i) & (SLOTS - 1), null);
+                if (buffer != null)
+                    return buffer;
+            }
+        }
+        return Escape.allocateStringBuilder(length);
+    }
+
+    /**
+     * Returns the content of <code>buffer</code>, which must come from {@link #borrow},
+     * and gives the buffer back to the pool. The buffer must not be used afterwards.
+     */
+    static String toStringAndRelease(StringBuilder buffer) {
+        String result = buffer.toString();
+        if (ENABLED && buffer.capacity() <= MAX_CAPACITY) {
+            buffer.setLength(0);
+            int slot = firstSlot();
+            for (int i = 0; i < PROBES; i++) {
+                if (POOL.compareAndSet((slot + i) & (SLOTS - 1), null, buffer))
+                    break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the first slot tried by the current thread, spread from its id so that
+     * concurrent threads mostly use different slots.
+     */
+    private static int firstSlot() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 40) & (SLOTS - 1);
+    }
+
+    /**
+     * Returns the number of slots, a power of two, at least four per processor.
+     */
+    private static int slots(int processors) {
+        int slots = Integer.highestOneBit(Math.max(1, Math.min(processors, 64)) * 4 - 1) << 1;
+        return Math.max(slots, 8);
+    }
+}
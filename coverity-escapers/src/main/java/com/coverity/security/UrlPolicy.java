@@ -0,0 +1,255 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security;
+
+/**
+ * UrlPolicy decides which URLs can be used as they are, and turns the other ones into
+ * URLs relative to the current document, the same way {@link Filter#asURL(String)} and
+ * {@link Filter#asFlexibleURL(String)} do.
+ *
+ * A policy either allows a list of schemes and nothing else, or allows every scheme but a
+ * list of blocked ones:
+ * <pre>
+ * private static final UrlPolicy LINKS = UrlPolicy.allowing("http", "https", "mailto", "tel");
+ * ...
+ * String href = LINKS.filter(userUrl);
+ * </pre>
+ * In both cases, URLs starting with <code>/</code> (including scheme-relative URLs such as
+ * <code>//example.com/</code>) and UNC paths starting with <code>\\</code> are allowed.
+ * Other URLs become relative, e.g. <code>javascript:alert(1)</code> becomes
+ * <code>./javascript:alert(1)</code>.
+ *
+ * The schemes are compiled into a trie when the policy is created. Checking a URL only walks
+ * its scheme, without allocating, and compares schemes case-insensitively for the ASCII
+ * letters only, so the result does not depend on the default locale.
+ *
+ * Policies are immutable and can be shared between threads. They should be created once,
+ * typically in a static field.
+ *
+ * @author Romain Gaucher
+ * @since  1.3
+ */
+public final class UrlPolicy {
+
+    /**
+     * The policy of {@link Filter#asURL(String)}: only <code>http</code>, <code>https</code>,
+     * <code>ftp</code> and <code>mailto</code> URLs are allowed.
+     */
+    public static final UrlPolicy STRICT = allowing("http", "https", "ftp", "mailto");
+
+    /**
+     * The policy of {@link Filter#asFlexibleURL(String)}: <code>javascript</code>,
+     * <code>vbscript</code>, <code>data</code> and <code>about</code> URLs are blocked.
+     */
+    public static final UrlPolicy FLEXIBLE = blocking("javascript", "vbscript", "data", "about");
+
+    // Scheme characters from RFC 3986, ignoring case: a-z, 0-9, '+', '-' and '.'
+    private static final int ALPHABET_SIZE = 26 + 10 + 3;
+
+    private final boolean allowList;
+
+    // next[node * ALPHABET_SIZE + symbol] is the child of node, or 0 when there is none.
+    // The root is node 0, so it is never a child.
+    private final int[] next;
+    private final boolean[] terminal;
+
+    private UrlPolicy(boolean allowList, String[] schemes) {
+        if (schemes == null)
+            throw new IllegalArgumentException("Null schemes");
+
+        int nodes = 1;
+        for (String scheme : schemes) {
+            if (scheme == null || scheme.length() == 0)
+                throw new IllegalArgumentException("Empty scheme");
+            for (int i = 0; i < scheme.length(); i++) {
+                if (symbol(scheme.charAt(i)) < 0)
+                    throw new IllegalArgumentException("Invalid scheme: " + scheme);
+            }
+            nodes += scheme.length();
+        }
+
+        int[] next = new int[nodes * ALPHABET_SIZE];
+        boolean[] terminal = new boolean[nodes];
+        int size = 1;
+        for (String scheme : schemes) {
+            int node = 0;
+            for (int i = 0; i < scheme.length(); i++) {
+                int index = node * ALPHABET_SIZE + symbol(scheme.charAt(i));
+                if (next[index] == 0)
+                    next[index] = size++;
+                node = next[index];
+            }
+            terminal[node] = true;
+        }
+
+        this.allowList = allowList;
+        this.next = next;
+        this.terminal = terminal;
+    }
+
+    /**
+     * Returns a policy that only allows URLs with one of the given schemes, like
+     * {@link Filter#asURL(String)}.
+     *
+     * As with {@link Filter#asURL(String)}, URLs that contain a line terminator
+     * (<code>\n</code>, <code>\r</code>, <code>U+0085</code>, <code>U+2028</code> or
+     * <code>U+2029</code>) are made relative.
+     *
+     * @param  schemes the allowed schemes, without the colon, in any case
+     * @return         the compiled policy
+     * @throws IllegalArgumentException if a scheme is empty or contains characters that
+     *                                  are not valid in a scheme
+     */
+    public static UrlPolicy allowing(String... schemes) {
+        return new UrlPolicy(true, schemes);
+    }
+
+    /**
+     * Returns a policy that allows URLs with any scheme except the given ones, like
+     * {@link Filter#asFlexibleURL(String)}.
+     *
+     * URLs that only contain scheme characters, such as <code>page</code>, are allowed since
+     * they are already relative.
+     *
+     * @param  schemes the blocked schemes, without the colon, in any case
+     * @return         the compiled policy
+     * @throws IllegalArgumentException if a scheme is empty or contains characters that
+     *                                  are not valid in a scheme
+     */
+    public static UrlPolicy blocking(String... schemes) {
+        return new UrlPolicy(false, schemes);
+    }
+
+    /**
+     * Returns <code>url</code> if this policy allows it, or <code>url</code> made relative
+     * to the current document by prepending <code>./</code>.
+     *
+     * @param  url the potentially tainted URL
+     * @return     a safe version of the URL or <code>null</code> if <code>url</code> is null
+     */
+    public String filter(String url) {
+        if (url == null)
+            return null;
+        if (isAllowed(url))
+            return url;
+
+        //Our fallback is to transform this to a relative URL
+        return "./" + url;
+    }
+
+    /**
+     * Same as {@link #filter(String)} for any character sequence. See
+     * {@link Filter#asNumber(CharSequence)}.
+     *
+     * @param  url the potentially tainted URL
+     * @return     a safe version of the URL or <code>null</code> if <code>url</code> is null
+     */
+    public String filter(CharSequence url) {
+        return filter(url == null ? null : url.toString());
+    }
+
+    /**
+     * Returns whether {@link #filter(String)} returns <code>url</code> unchanged.
+     *
+     * @param  url the potentially tainted URL
+     * @return     <code>true</code> if the URL is allowed
+     */
+    public boolean isAllowed(String url) {
+        int length = url.length();
+        if (length == 0)
+            return true;
+
+        //Assumption: / is not an escape character in any context
+        //Note: this allows scheme-relative URLs e.g. //google.com/
+        boolean path = url.charAt(0) == '/' || url.startsWith("\\\\");
+        if (allowList)
+            return (path || hasScheme(url, length)) && !hasLineTerminator(url, length);
+        return path || hasScheme(url, length);
+    }
+
+    /**
+     * Walks the scheme of <code>url</code> in the trie, and returns whether the scheme is
+     * allowed by this policy.
+     */
+    private boolean hasScheme(String url, int length) {
+        int node = 0;
+        int i = 0;
+        for (; i < length; i++) {
+            int symbol = symbol(url.charAt(i));
+            if (symbol < 0)
+                break;
+            if (node >= 0) {
+                int child = next[node * ALPHABET_SIZE + symbol];
+                node = child == 0 ? -1 : child;
+            } else if (allowList) {
+                // Longer than any allowed scheme
+                return false;
+            }
+        }
+
+        if (i == length) {
+            // Only scheme characters, e.g. file.html, which is already relative
+            return !allowList;
+        }
+        if (url.charAt(i) != ':')
+            return false;
+
+        boolean listed = node >= 0 && terminal[node];
+        return allowList ? listed : !listed;
+    }
+
+    private static boolean hasLineTerminator(String url, int length) {
+        for (int i = 0; i < length; i++) {
+            char c = url.charAt(i);
+            // All of them are either below '\r' + 1 or above '\u0085' - 1
+            if ((c <= '\r' || c >= '\u0085')
+                    && (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029'))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the index of a scheme character in the trie alphabet, ignoring case, or -1
+     * if the character cannot appear in a scheme.
+     */
+    private static int symbol(char c) {
+        if (c >= 'a' && c <= 'z')
+            return c - 'a';
+        if (c >= 'A' && c <= 'Z')
+            return c - 'A';
+        if (c >= '0' && c <= '9')
+            return 26 + c - '0';
+        if (c == '+')
+            return 36;
+        if (c == '-')
+            return 37;
+        if (c == '.')
+            return 38;
+        return -1;
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security.tags;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.JspTagException;
+import javax.servlet.jsp.tagext.JspFragment;
+import javax.servlet.jsp.tagext.SimpleTagSupport;
+
+import com.coverity.security.ContextEscaper;
+import com.coverity.security.Escape;
+
+/**
+ * EscapeTag escapes its <code>value</code> attribute, or its body, directly into the
+ * <code>JspWriter</code> of the page:
+ * <pre>
+ * &lt;%@ taglib uri="http://coverity.com/security" prefix="cov" %&gt;
+ *
+ * &lt;div title="&lt;cov:html value="${param.title}"/&gt;"&gt;
+ * &lt;script&gt;
+ *   var name = '&lt;cov:escape context="jsString"&gt;${user.firstName} ${user.lastName}&lt;/cov:escape&gt;';
+ * &lt;/script&gt;
+ * </pre>
+ * Unlike the EL functions, no escaped <code>String</code> is created: runs of safe characters
+ * and replacements are written to the page as they are found. The body is escaped in the
+ * chunks it is written in, so a large body is never held in memory.
+ *
+ * The <code>context</code> attribute of <code>&lt;cov:escape&gt;</code> is the name of one of
+ * the methods of {@link Escape}: <code>html</code>, <code>htmlText</code>, <code>uri</code>,
+ * <code>uriParam</code>, <code>jsString</code>, <code>jsRegex</code> or <code>cssString</code>.
+ * The other tags of the library, such as <code>&lt;cov:html&gt;</code>, have a fixed context,
+ * and are handled by the nested classes, such as {@link EscapeTag.Html}.
+ *
+ * When the <code>value</code> attribute is present, the body is ignored, and nothing is
+ * written if the value is null.
+ *
+ * @author Romain Gaucher
+ * @since  1.3
+ */
+public class EscapeTag extends SimpleTagSupport {
+
+    private static final Escape.Context[] CONTEXTS = Escape.Context.values();
+    private static final ContextEscaper[] ESCAPERS = new ContextEscaper[CONTEXTS.length];
+    private static final String[] NAMES = new String[CONTEXTS.length];
+
+    static {
+        for (int i = 0; i < CONTEXTS.length; i++) {
+            ESCAPERS[i] = Escape.compose(CONTEXTS[i]);
+            NAMES[i] = methodName(CONTEXTS[i]);
+        }
+    }
+
+    private Escape.Context context;
+    private String contextName;
+    private String value;
+    private boolean hasValue;
+
+    public EscapeTag() {
+    }
+
+    protected EscapeTag(Escape.Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Sets the escaping context, e.g. <code>html</code> or <code>jsString</code>.
+     *
+     * @param context the name of an escaping method of {@link Escape}
+     */
+    public void setContext(String context) {
+        this.contextName = context;
+        this.context = forName(context);
+    }
+
+    /**
+     * Sets the value to escape instead of the body of the tag.
+     *
+     * @param value the value to escape, nothing is written if it is null
+     */
+    public void setValue(String value) {
+        this.value = value;
+        this.hasValue = true;
+    }
+
+    @Override
+    public void doTag() throws JspException, IOException {
+        if (context == null)
+            throw new JspTagException("Unknown escaping context: " + contextName);
+
+        Writer out = ESCAPERS[context.ordinal()].writer(getJspContext().getOut());
+        if (hasValue) {
+            if (value != null)
+                out.write(value);
+            return;
+        }
+
+        JspFragment body = getJspBody();
+        if (body != null)
+            body.invoke(out);
+    }
+
+    /**
+     * Returns the context named after the escaping method of {@link Escape}, such as
+     * <code>jsString</code> for {@link Escape.Context#JS_STRING}, or null if there is none.
+     */
+    static Escape.Context forName(String name) {
+        if (name == null)
+            return null;
+        for (int i = 0; i < CONTEXTS.length; i++) {
+            if (NAMES[i].equals(name))
+                return CONTEXTS[i];
+        }
+        return null;
+    }
+
+    private static String methodName(Escape.Context context) {
+        String constant = context.name();
+        StringBuilder name = new StringBuilder(constant.length());
+        boolean upper = false;
+        for (int i = 0; i < constant.length(); i++) {
+            char c = constant.charAt(i);
+            if (c == '_') {
+                upper = true;
+            } else {
+                name.append(upper ? c : Character.toLowerCase(c));
+                upper = false;
+            }
+        }
+        return name.toString();
+    }
+
+    public static class Html extends EscapeTag {
+        public Html() {
+            super(Escape.Context.HTML);
+        }
+    }
+
+    public static class HtmlText extends EscapeTag {
+        public HtmlText() {
+            super(Escape.Context.HTML_TEXT);
+        }
+    }
+
+    public static class Uri extends EscapeTag {
+        public Uri() {
+            super(Escape.Context.URI);
+        }
+    }
+
+    public static class UriParam extends EscapeTag {
+        public UriParam() {
+            super(Escape.Context.URI_PARAM);
+        }
+    }
+
+    public static class JsString extends EscapeTag {
+        public JsString() {
+            super(Escape.Context.JS_STRING);
+        }
+    }
+
+    public static class JsRegex extends EscapeTag {
+        public JsRegex() {
+            super(Escape.Context.JS_REGEX);
+        }
+    }
+
+    public static class CssString extends EscapeTag {
+        public CssString() {
+            super(Escape.Context.CSS_STRING);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security.tags;
+
+import org.apache.jasper.compiler.tagplugin.TagPlugin;
+import org.apache.jasper.compiler.tagplugin.TagPluginContext;
+
+import com.coverity.security.Escape;
+
+/**
+ * EscapeTagPlugin lets Jasper, the JSP compiler of Tomcat, replace the escaping tags by
+ * plain Java code in the generated servlet, so that no tag handler or
+ * <code>JspFragment</code> is created when the page runs:
+ * <ul>
+ * <li>a literal <code>value</code>, such as <code>&lt;cov:html value="&lt;b&gt;"/&gt;</code>,
+ * is escaped when the JSP is compiled, and written to the page as a constant;</li>
+ * <li>any other <code>value</code> is escaped straight into the <code>JspWriter</code>;</li>
+ * <li>the body is generated inline, and written through an escaping writer.</li>
+ * </ul>
+ * The plugins are registered in <code>META-INF/org.apache.jasper/tagPlugins.xml</code>, which
+ * Jasper reads from the jars of the web application. A <code>&lt;cov:escape&gt;</code> tag
+ * with an unknown context is left to {@link EscapeTag}, which reports the error.
+ *
+ * The EL functions, such as <code>${cov:htmlEscape(param.title)}</code>, are not tags and
+ * cannot be rewritten by a plugin: use the equivalent tags to get the same benefits.
+ *
+ * @author Romain Gaucher
+ * @since  1.3
+ */
+public class EscapeTagPlugin implements TagPlugin {
+
+    private static final String ESCAPE = "com.coverity.security.Escape";
+
+    private final Escape.Context context;
+
+    /**
+     * Creates the plugin of <code>&lt;cov:escape&gt;</code>, which reads the context from the
+     * <code>context</code> attribute.
+     */
+    public EscapeTagPlugin() {
+        this(null);
+    }
+
+    protected EscapeTagPlugin(Escape.Context context) {
+        this.context = context;
+    }
+
+    public void doTag(TagPluginContext ctxt) {
+        Escape.Context context = this.context;
+        if (context == null) {
+            if (ctxt.isConstantAttribute("context"))
+                context = EscapeTag.forName(ctxt.getConstantAttribute("context"));
+            if (context == null) {
+                ctxt.dontUseTagPlugin();
+                return;
+            }
+        }
+
+        if (ctxt.isAttributeSpecified("value")) {
+            if (ctxt.isConstantAttribute("value"))
+                generateConstant(ctxt, context, ctxt.getConstantAttribute("value"));
+            else
+                generateValue(ctxt, context);
+        } else {
+            generateBody(ctxt, context);
+        }
+    }
+
+    private static void generateConstant(TagPluginContext ctxt, Escape.Context context, String value) {
+        String escaped = Escape.compose(context).escape(value);
+        if (escaped != null && escaped.length() > 0)
+            ctxt.generateJavaSource("out.write(" + javaString(escaped) + ");");
+    }
+
+    private static void generateValue(TagPluginContext ctxt, Escape.Context context) {
+        String value = ctxt.getTemporaryVariableName();
+        ctxt.generateJavaSource("String " + value + " = ");
+        ctxt.generateAttribute("value");
+        ctxt.generateJavaSource(";");
+        ctxt.generateJavaSource(escaper(ctxt, context) + ".escape(" + value + ", out);");
+    }
+
+    private static void generateBody(TagPluginContext ctxt, Escape.Context context) {
+        ctxt.generateJavaSource("out = _jspx_page_context.pushBody(" + escaper(ctxt, context) + ".writer(out));");
+        ctxt.generateJavaSource("try {");
+        ctxt.generateBody();
+        ctxt.generateJavaSource("} finally {");
+        ctxt.generateJavaSource("out = _jspx_page_context.popBody();");
+        ctxt.generateJavaSource("}");
+    }
+
+    /**
+     * Declares, once per servlet, the <code>ContextEscaper</code> of <code>context</code> and
+     * returns the name of the field.
+     */
+    private static String escaper(TagPluginContext ctxt, Escape.Context context) {
+        String field = "_jspx_coverity_escaper_" + context.name();
+        ctxt.generateDeclaration(field, "private static final com.coverity.security.ContextEscaper "
+                + field + " = " + ESCAPE + ".compose(" + ESCAPE + ".Context." + context.name() + ");");
+        return field;
+    }
+
+    /**
+     * Returns <code>s</code> as a Java string literal made of printable ASCII. The control
+     * characters are octal escapes: Unicode escapes are translated before the source is
+     * parsed, and a line feed written that way would end the literal.
+     */
+    static String javaString(String s) {
+        StringBuilder literal = new StringBuilder(s.length() + 2);
+        literal.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                literal.append('\\').append(c);
+            } else if (c >= ' ' && c < 0x7F) {
+                literal.append(c);
+            } else if (c < 0x80) {
+                literal.append(String.format("\\%03o", (int) c));
+            } else {
+                literal.append(String.format("\\u%04x", (int) c));
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+    public static class Html extends EscapeTagPlugin {
+        public Html() {
+            super(Escape.Context.HTML);
+        }
+    }
+
+    public static class HtmlText extends EscapeTagPlugin {
+        public HtmlText() {
+            super(Escape.Context.HTML_TEXT);
+        }
+    }
+
+    public static class Uri extends EscapeTagPlugin {
+        public Uri() {
+            super(Escape.Context.URI);
+        }
+    }
+
+    public static class UriParam extends EscapeTagPlugin {
+        public UriParam() {
+            super(Escape.Context.URI_PARAM);
+        }
+    }
+
+    public static class JsString extends EscapeTagPlugin {
+        public JsString() {
+            super(Escape.Context.JS_STRING);
+        }
+    }
+
+    public static class JsRegex extends EscapeTagPlugin {
+        public JsRegex() {
+            super(Escape.Context.JS_REGEX);
+        }
+    }
+
+    public static class CssString extends EscapeTagPlugin {
+        public CssString() {
+            super(Escape.Context.CSS_STRING);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Timespan;
+
+/**
+ * EscapeEvent is the Java Flight Recorder event of a call of an escaping or filtering
+ * method with a large input or a long duration, emitted by {@link EscapeEvents}.
+ *
+ * The call has already returned when the event is created, so its own time is in
+ * <code>elapsed</code>, and the duration of the event itself is zero.
+ *
+ * @author Romain Gaucher
+ */
+@Label("Escape")
+@Category({"Coverity Security Library"})
+@Description("Call of an escaping or filtering method with a large input or a long duration")
+final class EscapeEvent extends Event {
+
+    @Label("Method")
+    String method;
+
+    @Label("Input Length")
+    @Description("Length of the input, in characters or bytes")
+    long inputLength;
+
+    @Label("Output Length")
+    @Description("Length of the output, in characters or bytes")
+    long outputLength;
+
+    @Label("Elapsed")
+    @Description("Time taken by the call")
+    @Timespan(Timespan.NANOSECONDS)
+    long elapsed;
+
+    /**
+     * Recorder of the events for {@link EscapeEvents}, created by reflection.
+     */
+    static final class Recorder implements EscapeEvents.Recorder {
+
+        private static final EventType TYPE = EventType.getEventType(EscapeEvent.class);
+
+        Recorder() {
+        }
+
+        public boolean isEnabled() {
+            return TYPE.isEnabled();
+        }
+
+        public void commit(String method, long inputLength, long outputLength, long nanos) {
+            EscapeEvent event = new EscapeEvent();
+            event.method = method;
+            event.inputLength = inputLength;
+            event.outputLength = outputLength;
+            event.elapsed = nanos;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security;
+
+import java.util.Optional;
+
+/**
+ * StackWalkerCallSites finds the call sites of the {@link CallSiteProfiler} with a
+ * <code>StackWalker</code>, which only walks the frames up to the first one that is not
+ * skipped, instead of the whole stack.
+ *
+ * @author Romain Gaucher
+ */
+final class StackWalkerCallSites implements CallSiteProfiler.Walker {
+
+    private static final StackWalker WALKER = StackWalker.getInstance();
+
+    StackWalkerCallSites() {
+    }
+
+    public String callSite() {
+        Optional<StackWalker.StackFrame> caller = WALKER.walk(frames -> frames
+                .filter(frame -> !CallSiteProfiler.isSkipped(frame.getClassName()))
+                .findFirst());
+        if (!caller.isPresent())
+            return CallSiteProfiler.OTHER;
+        StackWalker.StackFrame frame = caller.get();
+        return frame.getClassName() + '.' + frame.getMethodName()
+               + '(' + frame.getFileName() + ':' + frame.getLineNumber() + ')';
+    }
+}
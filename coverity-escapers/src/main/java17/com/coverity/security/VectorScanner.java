@@ -0,0 +1,98 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.security;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * VectorScanner finds the next character that needs escaping with the Vector API
+ * (<code>jdk.incubator.vector</code>), comparing as many characters at once as the
+ * preferred vector size of the platform allows.
+ *
+ * The characters that need escaping are described as a small set of inclusive ranges.
+ * All of them are below <code>U+8000</code>, so the characters can be compared as
+ * signed shorts: anything above <code>U+7FFF</code> is negative and never matches.
+ *
+ * This class is compiled separately for Java 17 and loaded by {@link Escaper} only
+ * when the incubator module is available, e.g. with
+ * <code>--add-modules jdk.incubator.vector</code>.
+ *
+ * @author Romain Gaucher
+ */
+final class VectorScanner implements Escaper.Scanner {
+
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+
+    private final short[] lows;
+    private final short[] highs;
+
+    VectorScanner(char[] ranges) {
+        int n = ranges.length / 2;
+        lows = new short[n];
+        highs = new short[n];
+        for (int r = 0; r < n; r++) {
+            if (ranges[2 * r + 1] >= 0x8000)
+                throw new IllegalArgumentException("Range above U+7FFF");
+            lows[r] = (short) ranges[2 * r];
+            highs[r] = (short) ranges[2 * r + 1];
+        }
+    }
+
+    @Override
+    public int indexOfUnsafe(char[] input, int from, int to) {
+        int i = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        for (; i < bound; i += SPECIES.length()) {
+            ShortVector v = ShortVector.fromCharArray(SPECIES, input, i);
+            VectorMask<Short> unsafe = inRange(v, 0);
+            for (int r = 1; r < lows.length; r++)
+                unsafe = unsafe.or(inRange(v, r));
+            if (unsafe.anyTrue())
+                return i + unsafe.firstTrue();
+        }
+
+        for (; i < to; i++) {
+            short c = (short) input[i];
+            for (int r = 0; r < lows.length; r++) {
+                if (c >= lows[r] && c <= highs[r])
+                    return i;
+            }
+        }
+        return -1;
+    }
+
+    private VectorMask<Short> inRange(ShortVector v, int r) {
+        short low = lows[r];
+        short high = highs[r];
+        if (low == high)
+            return v.compare(VectorOperators.EQ, low);
+        return v.compare(VectorOperators.GE, low).and(v.compare(VectorOperators.LE, high));
+    }
+}
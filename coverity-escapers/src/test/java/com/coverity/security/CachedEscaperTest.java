@@ -0,0 +1,190 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.testsuite;
+
+import com.coverity.security.CachedEscaper;
+import com.coverity.security.Escape;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+// Unit tests for the caching escapers
+public class CachedEscaperTest extends TestCase {
+
+    public CachedEscaperTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(CachedEscaperTest.class);
+    }
+
+    public void testHitsAndMisses() {
+        CachedEscaper cache = Escape.cached(Escape.Context.HTML, 100);
+        String brand = "Ben & Jerry's";
+
+        String first = cache.escape(brand);
+        assertEquals(Escape.html(brand), first);
+        assertEquals(0, cache.hitCount());
+        assertEquals(1, cache.missCount());
+
+        // A different instance with the same characters is a hit
+        String second = cache.escape(new String(brand));
+        assertSame(first, second);
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+        assertEquals(1, cache.size());
+
+        // Safe inputs are returned as they are, and cached as themselves
+        String safe = "Product42";
+        assertSame(safe, cache.escape(safe));
+        assertSame(safe, cache.escape(new String(safe)));
+        assertNull(cache.escape(null));
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.hitCount());
+        assertEquals(2, cache.missCount());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(first, cache.escape(brand));
+        assertEquals(3, cache.missCount());
+    }
+
+    public void testMaxInputLength() {
+        CachedEscaper cache = Escape.cached(Escape.Context.JS_STRING, 10, 4);
+        assertEquals(Escape.jsString("a'b"), cache.escape("a'b"));
+        assertEquals(Escape.jsString("a'b'c"), cache.escape("a'b'c"));
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.missCount());
+        assertEquals(4, cache.maxInputLength());
+        assertEquals(CachedEscaper.DEFAULT_MAX_INPUT_LENGTH,
+                     Escape.cached(Escape.Context.HTML, 1).maxInputLength());
+    }
+
+    public void testEviction() {
+        int[] sizes = { 1, 3, 16, 17, 100 };
+        for (int maxEntries : sizes) {
+            CachedEscaper cache = Escape.cached(Escape.Context.URI_PARAM, maxEntries);
+            for (int i = 0; i < 1000; i++)
+                assertEquals(Escape.uriParam(i + " & " + i), cache.escape(i + " & " + i));
+            assertTrue(cache.size() <= maxEntries);
+            assertEquals(1000, cache.missCount());
+            assertEquals(1000 - cache.size(), cache.evictionCount());
+        }
+
+        // The most recently used entry of a single stripe stays
+        CachedEscaper cache = Escape.cached(Escape.Context.HTML, 1);
+        cache.escape("<a>");
+        cache.escape("<b>");
+        cache.escape("<b>");
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.evictionCount());
+    }
+
+    public void testStripes() throws Exception {
+        CachedEscaper cache = Escape.cached(Escape.Context.HTML, 4096);
+        for (int i = 0; i < 2048; i++)
+            cache.escape("<item " + i + ">");
+        assertEquals(2048, cache.size());
+        assertEquals(0, cache.evictionCount());
+
+        // Every stripe gets its share of the entries
+        Field field = CachedEscaper.class.getDeclaredField("stripes");
+        field.setAccessible(true);
+        Object[] stripes = (Object[]) field.get(cache);
+        assertEquals(16, stripes.length);
+        for (Object stripe : stripes) {
+            int size = ((Map<?, ?>) stripe).size();
+            assertTrue("Stripe of " + size + " entries", size >= 64 && size <= 192);
+        }
+
+        for (int i = 0; i < 2048; i++)
+            assertEquals(Escape.html("<item " + i + ">"), cache.escape("<item " + i + ">"));
+        assertEquals(2048, cache.hitCount());
+        assertEquals(2048, cache.missCount());
+    }
+
+    public void testComposedAndInvalid() {
+        CachedEscaper cache = Escape.compose(Escape.Context.JS_STRING, Escape.Context.HTML).cached(10, 100);
+        assertEquals(Escape.htmlJsString("'); alert(1); ('"), cache.escape("'); alert(1); ('"));
+
+        try {
+            Escape.cached(Escape.Context.HTML, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            Escape.cached(Escape.Context.HTML, 10, -1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            Escape.cached(null, 10);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testConcurrentAccess() throws InterruptedException {
+        final CachedEscaper cache = Escape.cached(Escape.Context.HTML, 64);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        String input = "<" + ((i * 31 + seed) % 200) + ">";
+                        if (!Escape.html(input).equals(cache.escape(input)))
+                            failure.set(input);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertNull(failure.get());
+        assertEquals(8 * 20000, cache.hitCount() + cache.missCount());
+        assertTrue(cache.size() <= 64);
+        // Threads missing the same input at the same time add it once
+        assertTrue(cache.evictionCount() <= cache.missCount() - cache.size());
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.testsuite;
+
+import com.coverity.security.CallSiteProfiler;
+import com.coverity.security.CallSiteProfiler.CallSite;
+import com.coverity.security.Escape;
+import com.coverity.security.EscapeEL;
+
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+// Unit tests for the call site profiler, which only samples with
+// -Dcom.coverity.security.callSites.sampleRate=N
+public class CallSiteProfilerTest extends TestCase {
+
+    public CallSiteProfilerTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(CallSiteProfilerTest.class);
+    }
+
+    protected void setUp() {
+        CallSiteProfiler.reset();
+    }
+
+    public void testDisabled() {
+        if (CallSiteProfiler.isEnabled())
+            return;
+        Escape.html("<b>");
+        assertEquals(0, CallSiteProfiler.getSampleRate());
+        assertTrue(CallSiteProfiler.top(10).isEmpty());
+    }
+
+    public void testCallSites() {
+        if (CallSiteProfiler.getSampleRate() != 1)
+            return;
+        for (int i = 0; i < 10; i++)
+            renderHeader("<b>");
+        for (int i = 0; i < 3; i++)
+            renderFooter(new String(new char[10000]).replace('\0', '<'));
+
+        List<CallSite> top = CallSiteProfiler.top(10);
+        assertEquals(2, top.size());
+
+        // The footer has the largest inputs, so it takes the most time
+        CallSite footer = top.get(0);
+        assertTrue(footer.getCallSite(), footer.getCallSite().startsWith(
+                "com.coverity.testsuite.CallSiteProfilerTest.renderFooter(CallSiteProfilerTest.java:"));
+        assertEquals("Escape.jsString", footer.getMethod());
+        assertEquals(3, footer.getSamples());
+        assertEquals(30000, footer.getInputLength());
+        assertTrue(footer.getTime() > 0);
+
+        // The EL wrapper is skipped
+        CallSite header = top.get(1);
+        assertTrue(header.getCallSite(), header.getCallSite().startsWith(
+                "com.coverity.testsuite.CallSiteProfilerTest.renderHeader("));
+        assertEquals("Escape.html", header.getMethod());
+        assertEquals(10, header.getSamples());
+        assertEquals(30, header.getInputLength());
+
+        assertEquals(1, CallSiteProfiler.top(1).size());
+        assertSame(footer.getCallSite(), CallSiteProfiler.top(1).get(0).getCallSite());
+    }
+
+    public void testTopBounds() {
+        Escape.html("<b>");
+        assertTrue(CallSiteProfiler.top(0).isEmpty());
+        try {
+            CallSiteProfiler.top(-1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static String renderHeader(String title) {
+        return EscapeEL.htmlEscape(title);
+    }
+
+    private static String renderFooter(String script) {
+        return Escape.jsString(script);
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.testsuite;
+
+import com.coverity.security.Escape;
+import com.coverity.security.EscapeMetrics;
+import com.coverity.security.EscapeMetrics.MethodSnapshot;
+import com.coverity.security.EscapeUtf8;
+import com.coverity.security.Filter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+// Unit tests for the metrics, which only record with -Dcom.coverity.security.metrics=true
+public class EscapeMetricsTest extends TestCase {
+
+    public EscapeMetricsTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(EscapeMetricsTest.class);
+    }
+
+    protected void setUp() {
+        EscapeMetrics.reset();
+    }
+
+    public void testDisabled() {
+        if (EscapeMetrics.isEnabled())
+            return;
+        Escape.html("<b>");
+        Filter.asURL("javascript:x");
+        assertTrue(EscapeMetrics.snapshot().isEmpty());
+        assertNull(EscapeMetrics.snapshot("Escape.html"));
+    }
+
+    public void testCounts() {
+        if (!EscapeMetrics.isEnabled())
+            return;
+        Escape.html("safe");
+        Escape.html("<b>");
+        Escape.html("");
+        Escape.html(null);
+
+        MethodSnapshot html = EscapeMetrics.snapshot("Escape.html");
+        assertEquals(3, html.getCalls());
+        assertEquals(2, html.getUnchangedCalls());
+        assertEquals(2.0 / 3, html.getUnchangedRatio(), 1e-9);
+        assertEquals(7, html.getInputLength());
+        assertEquals(4 + Escape.html("<b>").length(), html.getOutputLength());
+        assertNull(EscapeMetrics.snapshot("Escape.htmlText"));
+
+        // "safe" is not expanded, "<b>" is expanded 3 times, and "" is not counted
+        long[] histogram = html.getExpansionHistogram();
+        double[] bounds = html.getExpansionBounds();
+        assertEquals(bounds.length + 1, histogram.length);
+        assertEquals(1, histogram[0]);
+        assertEquals(1, histogram[Arrays.binarySearch(bounds, 3.0)]);
+        assertEquals(2, sum(histogram));
+        assertEquals(0, html.getTimedCalls());
+    }
+
+    public void testMethodNames() throws Exception {
+        if (!EscapeMetrics.isEnabled())
+            return;
+        Escape.htmlText("<");
+        Escape.jsString("'", new StringBuilder());
+        Escape.cssString("'", new ByteArrayOutputStream(), Charset.forName("UTF-8"));
+        Escape.htmlJsString("'");
+        Escape.compose(Escape.Context.URI_PARAM, Escape.Context.JS_STRING).escape("&");
+        EscapeUtf8.uriParam("a b".getBytes("UTF-8"));
+        Filter.asNumber("042");
+        Filter.asCssColor("red");
+        Filter.asURL("javascript:x");
+        Filter.asFlexibleURL("ssh://host");
+        Escape.cached(Escape.Context.HTML, 10).escape("<");
+
+        for (String name : new String[] {
+                "Escape.htmlText", "Escape.jsString(Appendable)", "Escape.cssString(OutputStream)",
+                "Escape.htmlJsString", "Escape.uriParam+jsString", "EscapeUtf8.uriParam",
+                "Filter.asNumber", "Filter.asCssColor", "Filter.asURL", "Filter.asFlexibleURL",
+                "CachedEscaper.html"}) {
+            MethodSnapshot method = EscapeMetrics.snapshot(name);
+            assertNotNull(name, method);
+            assertEquals(name, 1, method.getCalls());
+        }
+        assertEquals(11, EscapeMetrics.snapshot().size());
+
+        assertEquals(0, EscapeMetrics.snapshot("Escape.jsString(Appendable)").getUnchangedCalls());
+        assertEquals(Escape.jsString("'").length(),
+                     EscapeMetrics.snapshot("Escape.jsString(Appendable)").getOutputLength());
+        assertEquals(0, EscapeMetrics.snapshot("Escape.cssString(OutputStream)").getUnchangedCalls());
+        assertEquals(3, EscapeMetrics.snapshot("EscapeUtf8.uriParam").getInputLength());
+        assertEquals(1, EscapeMetrics.snapshot("Filter.asCssColor").getUnchangedCalls());
+        assertEquals(0, EscapeMetrics.snapshot("Filter.asURL").getUnchangedCalls());
+    }
+
+    public void testSqlLikeClause() throws Exception {
+        if (!EscapeMetrics.isEnabled())
+            return;
+        Escape.sqlLikeClause("50%");
+        Escape.sqlLikeClause(new StringBuilder("a_b"), '!');
+        Escape.sqlLikeClause("safe");
+        Escape.sqlLikeClause("100%", new StringBuilder());
+
+        MethodSnapshot like = EscapeMetrics.snapshot("Escape.sqlLikeClause");
+        assertEquals(3, like.getCalls());
+        assertEquals(1, like.getUnchangedCalls());
+        assertEquals(10, like.getInputLength());
+        assertEquals(12, like.getOutputLength());
+        MethodSnapshot appendable = EscapeMetrics.snapshot("Escape.sqlLikeClause(Appendable)");
+        assertEquals(1, appendable.getCalls());
+        assertEquals(4, appendable.getInputLength());
+        assertEquals(5, appendable.getOutputLength());
+        assertEquals(2, EscapeMetrics.snapshot().size());
+    }
+
+    public void testWriter() throws Exception {
+        if (!EscapeMetrics.isEnabled())
+            return;
+        Writer writer = Escape.htmlWriter(new StringWriter());
+        writer.write("a<b");
+        writer.write('<');
+        writer.write("ok".toCharArray());
+        writer.append(new StringBuilder("&"));
+
+        // Each write is a call
+        MethodSnapshot html = EscapeMetrics.snapshot("Escape.htmlWriter");
+        assertEquals(4, html.getCalls());
+        assertEquals(1, html.getUnchangedCalls());
+        assertEquals(7, html.getInputLength());
+        assertEquals(1, EscapeMetrics.snapshot().size());
+        assertEquals(Escape.html("a<b<ok&").length(), html.getOutputLength());
+    }
+
+    public void testUtf8BuffersAndChannels() throws Exception {
+        if (!EscapeMetrics.isEnabled())
+            return;
+        ByteBuffer out = ByteBuffer.allocate(64);
+        EscapeUtf8.jsString(ByteBuffer.wrap("'a".getBytes("UTF-8")), out, true);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        EscapeUtf8.cssString(Channels.newChannel(new ByteArrayInputStream("a'".getBytes("UTF-8"))),
+                             Channels.newChannel(bytes));
+
+        MethodSnapshot buffer = EscapeMetrics.snapshot("EscapeUtf8.jsString(ByteBuffer)");
+        assertEquals(1, buffer.getCalls());
+        assertEquals(2, buffer.getInputLength());
+        assertEquals(out.position(), buffer.getOutputLength());
+        assertEquals(0, buffer.getUnchangedCalls());
+
+        // The buffers used by the channel method are not recorded on their own
+        MethodSnapshot channel = EscapeMetrics.snapshot("EscapeUtf8.cssString(ReadableByteChannel)");
+        assertEquals(1, channel.getCalls());
+        assertEquals(2, channel.getInputLength());
+        assertEquals(bytes.size(), channel.getOutputLength());
+        assertNull(EscapeMetrics.snapshot("EscapeUtf8.cssString(ByteBuffer)"));
+        assertEquals(2, EscapeMetrics.snapshot().size());
+    }
+
+    public void testLatencyOfLargeInputs() {
+        if (!EscapeMetrics.isEnabled())
+            return;
+        char[] chars = new char[100000];
+        Arrays.fill(chars, '<');
+        String large = new String(chars);
+        for (int i = 0; i < 20; i++)
+            Escape.uriParam(large);
+        Escape.uriParam("<");
+
+        MethodSnapshot uri = EscapeMetrics.snapshot("Escape.uriParam");
+        assertEquals(21, uri.getCalls());
+        assertEquals(20, uri.getTimedCalls());
+        assertTrue(uri.getLatencyP50() > 0);
+        assertTrue(uri.getLatencyP50() <= uri.getLatencyP90());
+        assertTrue(uri.getLatencyP90() <= uri.getLatencyP99());
+        assertTrue(uri.getLatencyP99() <= uri.getLatencyMax());
+    }
+
+    public void testConcurrentCalls() throws Exception {
+        if (!EscapeMetrics.isEnabled())
+            return;
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 10000; i++)
+                        Escape.jsRegex(i % 2 == 0 ? "a" : "(a)");
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        MethodSnapshot regex = EscapeMetrics.snapshot("Escape.jsRegex");
+        assertEquals(80000, regex.getCalls());
+        assertEquals(40000, regex.getUnchangedCalls());
+        assertEquals(40000 + 40000 * 3, regex.getInputLength());
+    }
+
+    public void testMXBean() throws Exception {
+        if (!EscapeMetrics.isEnabled())
+            return;
+        Escape.html("<");
+        Escape.html("<");
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(EscapeMetrics.OBJECT_NAME);
+        assertEquals(Boolean.TRUE, server.getAttribute(name, "Enabled"));
+        assertEquals(2L, server.getAttribute(name, "TotalCalls"));
+        CompositeData[] methods = (CompositeData[]) server.getAttribute(name, "Methods");
+        assertEquals(1, methods.length);
+        assertEquals("Escape.html", methods[0].get("name"));
+        assertEquals(2L, methods[0].get("calls"));
+
+        server.invoke(name, "reset", new Object[0], new String[0]);
+        assertEquals(0L, server.getAttribute(name, "TotalCalls"));
+        assertTrue(EscapeMetrics.snapshot().isEmpty());
+    }
+
+    private static long sum(long[] counts) {
+        long sum = 0;
+        for (long count : counts)
+            sum += count;
+        return sum;
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.testsuite;
+
+import com.coverity.security.Escape;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.jsp.JspTagException;
+
+import org.apache.jasper.compiler.TldCache;
+import org.apache.jasper.servlet.JspServlet;
+import org.apache.tomcat.util.descriptor.tld.TaglibXml;
+import org.apache.tomcat.util.descriptor.tld.TldParser;
+import org.apache.tomcat.util.descriptor.tld.TldResourcePath;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+// Translates, compiles and runs pages with the JspServlet of Jasper, so that the code
+// generated by the tag plugins is compiled and run like in Tomcat
+public class EscapeTagPageTest extends TestCase {
+
+    public EscapeTagPageTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(EscapeTagPageTest.class);
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String URI = "http://coverity.com/security";
+
+    private static final String HEADER = "<%@ page session=\"false\" contentType=\"text/html; charset=UTF-8\" %>"
+            + "<%@ taglib prefix=\"cov\" uri=\"" + URI + "\" %>";
+
+    private static final String TITLE = "</script><b onclick='x(\" \")'>\\ & % ( ) [ ] . *</b>";
+
+    private File webapp;
+
+    protected void tearDown() throws Exception {
+        if (webapp != null)
+            delete(webapp);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+
+    // Compiled page, and the Java source Jasper generated for it
+    private static final class Page {
+        final JspServlet servlet;
+        final String source;
+
+        Page(JspServlet servlet, String source) {
+            this.servlet = servlet;
+            this.source = source;
+        }
+
+        String render(Map<String, ?> attributes) throws ServletException, IOException {
+            StringWriter out = new StringWriter();
+            servlet.service(ServletStubs.request("/page.jsp", null, attributes), ServletStubs.response(out));
+            return out.toString();
+        }
+    }
+
+    /**
+     * Compiles <code>body</code>, after the page and taglib directives, in a new web
+     * application.
+     */
+    private Page compile(String body) throws Exception {
+        webapp = Files.createTempDirectory("jsp").toFile();
+        Files.write(new File(webapp, "page.jsp").toPath(), (HEADER + body).getBytes(UTF_8));
+
+        // What Tomcat finds when it scans the jar of the library for tag libraries
+        ServletConfig config = ServletStubs.config(webapp);
+        TldResourcePath tld = new TldResourcePath(
+                EscapeTagPageTest.class.getResource("/META-INF/tags/coverity-escapers.tld"), null);
+        TaglibXml taglib = new TldParser(true, false, true).parse(tld);
+        assertEquals(URI, taglib.getUri());
+        config.getServletContext().setAttribute(TldCache.SERVLET_CONTEXT_ATTRIBUTE_NAME,
+                new TldCache(config.getServletContext(), Collections.singletonMap(URI, tld),
+                             Collections.singletonMap(tld, taglib)));
+
+        JspServlet servlet = new JspServlet();
+        servlet.init(config);
+        StringWriter out = new StringWriter();
+        servlet.service(ServletStubs.request("/page.jsp", "jsp_precompile", Collections.<String, Object>emptyMap()),
+                        ServletStubs.response(out));
+        assertEquals("", out.toString());
+
+        File source = new File(webapp, "work/org/apache/jsp/page_jsp.java");
+        return new Page(servlet, new String(Files.readAllBytes(source.toPath()), UTF_8));
+    }
+
+    private static Map<String, Object> title(String title) {
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put("title", title);
+        return attributes;
+    }
+
+    public void testConstantValue() throws Exception {
+        Page page = compile("[<cov:html value=\"<b>\"/>][<cov:jsString value=\"it's\"/>]");
+        assertEquals("[" + Escape.html("<b>") + "][" + Escape.jsString("it's") + "]",
+                     page.render(Collections.<String, Object>emptyMap()));
+        // Escaped when the page is compiled
+        assertTrue(page.source.contains("out.write(\"&lt;b&gt;\");"));
+        assertFalse(page.source.contains("com.coverity.security.tags"));
+    }
+
+    public void testExpressionValue() throws Exception {
+        Page page = compile("[<cov:html value=\"${title}\"/>][<cov:escape context=\"cssString\" value=\"${title}\"/>]"
+                            + "[<cov:uriParam value=\"<%= (String) request.getAttribute(\\\"title\\\") %>\"/>]");
+        assertEquals("[" + Escape.html(TITLE) + "][" + Escape.cssString(TITLE) + "][" + Escape.uriParam(TITLE) + "]",
+                     page.render(title(TITLE)));
+        assertEquals("[][][]", page.render(Collections.<String, Object>emptyMap()));
+        assertFalse(page.source.contains("com.coverity.security.tags"));
+    }
+
+    public void testBody() throws Exception {
+        Page page = compile("[<cov:jsString>${title} and ${title}</cov:jsString>]"
+                            + "[<cov:uriParam>?q=<cov:html>${title}</cov:html></cov:uriParam>]"
+                            + "[<cov:htmlText></cov:htmlText>]");
+        assertEquals("[" + Escape.jsString(TITLE + " and " + TITLE) + "]"
+                     + "[" + Escape.uriParam("?q=" + Escape.html(TITLE)) + "][]",
+                     page.render(title(TITLE)));
+        // The body is written through a pushed writer, and the page writer is restored
+        assertTrue(page.source.contains("_jspx_page_context.pushBody("));
+        assertTrue(page.source.contains("_jspx_page_context.popBody()"));
+        assertFalse(page.source.contains("com.coverity.security.tags"));
+        assertEquals("[" + Escape.jsString("a and a") + "][" + Escape.uriParam("?q=a") + "][]",
+                     page.render(title("a")));
+    }
+
+    public void testUnknownContextIsLeftToTheTag() throws Exception {
+        Page page = compile("[<cov:escape context=\"bogus\" value=\"${title}\"/>]");
+        assertTrue(page.source.contains("com.coverity.security.tags.EscapeTag"));
+        try {
+            page.render(title(TITLE));
+            fail("Expected JspTagException");
+        } catch (ServletException e) {
+            // Reported by the tag handler when the page runs
+            Throwable cause = e;
+            while (cause != null && !(cause instanceof JspTagException))
+                cause = cause.getCause();
+            assertNotNull(cause);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.testsuite;
+
+import com.coverity.security.tags.EscapeTagPlugin;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.jasper.compiler.tagplugin.TagPlugin;
+import org.apache.jasper.compiler.tagplugin.TagPluginContext;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+// Unit tests for the Jasper tag plugins, run against a context recording the generated code
+public class EscapeTagPluginTest extends TestCase {
+
+    public EscapeTagPluginTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(EscapeTagPluginTest.class);
+    }
+
+    // TagPluginContext of a tag with the given attributes, constants are the String values
+    private static final class RecordingContext implements TagPluginContext {
+        private final Map<String, Object> attributes = new HashMap<String, Object>();
+        private final Map<String, String> declarations = new LinkedHashMap<String, String>();
+        private final StringBuilder source = new StringBuilder();
+        private boolean dontUse;
+        private int temporaries;
+
+        RecordingContext constant(String name, String value) {
+            attributes.put(name, value);
+            return this;
+        }
+
+        RecordingContext expression(String name, String expression) {
+            attributes.put(name, new StringBuilder(expression));
+            return this;
+        }
+
+        public boolean isScriptless() { return true; }
+        public boolean isAttributeSpecified(String name) { return attributes.containsKey(name); }
+        public String getTemporaryVariableName() { return "_jspx_temp" + temporaries++; }
+        public void generateImport(String s) { fail("No import expected: " + s); }
+        public void generateDeclaration(String id, String text) { declarations.put(id, text); }
+        public void generateJavaSource(String s) { source.append(s); }
+        public boolean isConstantAttribute(String name) { return attributes.get(name) instanceof String; }
+        public String getConstantAttribute(String name) { return (String) attributes.get(name); }
+        public void generateAttribute(String name) { source.append(attributes.get(name)); }
+        public void generateBody() { source.append("BODY"); }
+        public void dontUseTagPlugin() { dontUse = true; }
+        public TagPluginContext getParentContext() { return null; }
+        public void setPluginAttribute(String name, Object value) { }
+        public Object getPluginAttribute(String name) { return null; }
+        public boolean isTagFile() { return false; }
+    }
+
+    private static RecordingContext apply(TagPlugin plugin, RecordingContext ctxt) {
+        plugin.doTag(ctxt);
+        return ctxt;
+    }
+
+    public void testConstantIsEscapedAtCompileTime() {
+        RecordingContext ctxt = apply(new EscapeTagPlugin.HtmlText(),
+                new RecordingContext().constant("value", "<a href=\"x\">\\ \u00E9\n\t</a>"));
+        assertFalse(ctxt.dontUse);
+        assertEquals("out.write(\"&lt;a href=&quot;x&quot;&gt;\\\\ \\u00e9\\012\\011&lt;/a&gt;\");",
+                ctxt.source.toString());
+        assertTrue(ctxt.declarations.isEmpty());
+
+        ctxt = apply(new EscapeTagPlugin.JsString(), new RecordingContext().constant("value", "'\u2028"));
+        assertEquals("out.write(\"\\\\u0027\\\\u2028\");", ctxt.source.toString());
+
+        ctxt = apply(new EscapeTagPlugin(),
+                new RecordingContext().constant("context", "uriParam").constant("value", "a b&c"));
+        assertEquals("out.write(\"a%20b%26c\");", ctxt.source.toString());
+
+        // Nothing to write
+        ctxt = apply(new EscapeTagPlugin.Html(), new RecordingContext().constant("value", ""));
+        assertFalse(ctxt.dontUse);
+        assertEquals("", ctxt.source.toString());
+    }
+
+    public void testExpressionIsEscapedIntoTheWriter() {
+        RecordingContext ctxt = apply(new EscapeTagPlugin.CssString(),
+                new RecordingContext().expression("value", "(String) eval(\"${param.c}\")"));
+        assertFalse(ctxt.dontUse);
+        assertEquals("String _jspx_temp0 = (String) eval(\"${param.c}\");"
+                + "_jspx_coverity_escaper_CSS_STRING.escape(_jspx_temp0, out);", ctxt.source.toString());
+        assertEquals("private static final com.coverity.security.ContextEscaper _jspx_coverity_escaper_CSS_STRING"
+                + " = com.coverity.security.Escape.compose(com.coverity.security.Escape.Context.CSS_STRING);",
+                ctxt.declarations.get("_jspx_coverity_escaper_CSS_STRING"));
+    }
+
+    public void testBodyIsWrittenThroughAnEscapingWriter() {
+        RecordingContext ctxt = apply(new EscapeTagPlugin(), new RecordingContext().constant("context", "jsRegex"));
+        assertFalse(ctxt.dontUse);
+        assertEquals("out = _jspx_page_context.pushBody(_jspx_coverity_escaper_JS_REGEX.writer(out));"
+                + "try {BODY} finally {out = _jspx_page_context.popBody();}", ctxt.source.toString());
+        assertEquals(1, ctxt.declarations.size());
+    }
+
+    public void testUnknownContextIsLeftToTheTag() {
+        RecordingContext ctxt = apply(new EscapeTagPlugin(),
+                new RecordingContext().constant("context", "sql").constant("value", "x"));
+        assertTrue(ctxt.dontUse);
+        assertEquals("", ctxt.source.toString());
+    }
+
+    public void testPluginsAreRegistered() throws Exception {
+        InputStream in = getClass().getClassLoader().getResourceAsStream("META-INF/org.apache.jasper/tagPlugins.xml");
+        assertNotNull(in);
+        Document plugins;
+        try {
+            plugins = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
+        } finally {
+            in.close();
+        }
+
+        NodeList tags = plugins.getElementsByTagName("tag-class");
+        NodeList classes = plugins.getElementsByTagName("plugin-class");
+        assertEquals(8, tags.getLength());
+        assertEquals(tags.getLength(), classes.getLength());
+        for (int i = 0; i < tags.getLength(); i++) {
+            Class.forName(tags.item(i).getTextContent().trim());
+            Object plugin = Class.forName(classes.item(i).getTextContent().trim()).getDeclaredConstructor().newInstance();
+            assertTrue(plugin instanceof TagPlugin);
+        }
+    }
+}
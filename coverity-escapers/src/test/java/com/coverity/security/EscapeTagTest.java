@@ -0,0 +1,166 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.testsuite;
+
+import com.coverity.security.Escape;
+import com.coverity.security.tags.EscapeTag;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import javax.servlet.jsp.JspContext;
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.JspTagException;
+import javax.servlet.jsp.PageContext;
+import javax.servlet.jsp.tagext.JspFragment;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+// Unit tests for the JSP tags, run in a page context of the Jasper runtime
+public class EscapeTagTest extends TestCase {
+
+    public EscapeTagTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(EscapeTagTest.class);
+    }
+
+    private static final String INPUT = "</script><b onclick='x(\"\u2028\")'>\\\\ & % ( ) [ ] . *</b>";
+
+    // Response body that counts the writes of the unbuffered JspWriter
+    private static final class CountingWriter extends StringWriter {
+        private int writes;
+
+        @Override public void write(char[] cbuf, int off, int len) { super.write(cbuf, off, len); writes++; }
+        @Override public void write(String str, int off, int len) { super.write(str, off, len); writes++; }
+        @Override public void write(int c) { super.write(c); writes++; }
+    }
+
+    // Body that writes its text in small pieces, like template text and EL results
+    private static final class ChunkedBody extends JspFragment {
+        private final JspContext context;
+        private final String text;
+
+        ChunkedBody(JspContext context, String text) {
+            this.context = context;
+            this.text = text;
+        }
+
+        @Override
+        public void invoke(Writer out) throws IOException {
+            for (int i = 0; i < text.length(); i += 7)
+                out.write(text, i, Math.min(7, text.length() - i));
+        }
+
+        @Override
+        public JspContext getJspContext() {
+            return context;
+        }
+    }
+
+    private static CountingWriter run(EscapeTag tag, String value, String body, boolean setValue)
+            throws JspException, IOException {
+        CountingWriter out = new CountingWriter();
+        PageContext page = ServletStubs.pageContext(out);
+        try {
+            tag.setJspContext(page);
+            if (setValue)
+                tag.setValue(value);
+            if (body != null)
+                tag.setJspBody(new ChunkedBody(page, body));
+            tag.doTag();
+        } finally {
+            ServletStubs.release(page);
+        }
+        return out;
+    }
+
+    private static String run(EscapeTag tag, String value, String body) throws JspException, IOException {
+        return run(tag, value, body, value != null).toString();
+    }
+
+    private static EscapeTag escapeTag(String context) {
+        EscapeTag tag = new EscapeTag();
+        tag.setContext(context);
+        return tag;
+    }
+
+    public void testValueAttribute() throws Exception {
+        assertEquals(Escape.html(INPUT), run(new EscapeTag.Html(), INPUT, null));
+        assertEquals(Escape.htmlText(INPUT), run(new EscapeTag.HtmlText(), INPUT, null));
+        assertEquals(Escape.uri(INPUT), run(new EscapeTag.Uri(), INPUT, null));
+        assertEquals(Escape.uriParam(INPUT), run(new EscapeTag.UriParam(), INPUT, null));
+        assertEquals(Escape.jsString(INPUT), run(new EscapeTag.JsString(), INPUT, null));
+        assertEquals(Escape.jsRegex(INPUT), run(new EscapeTag.JsRegex(), INPUT, null));
+        assertEquals(Escape.cssString(INPUT), run(new EscapeTag.CssString(), INPUT, null));
+
+        // The value takes precedence over the body, even when it is null
+        assertEquals(Escape.html(INPUT), run(new EscapeTag.Html(), INPUT, "<ignored>"));
+        assertEquals("", run(new EscapeTag.Html(), null, "<ignored>", true).toString());
+    }
+
+    public void testBody() throws Exception {
+        assertEquals(Escape.html(INPUT), run(new EscapeTag.Html(), null, INPUT));
+        assertEquals(Escape.jsString(INPUT), run(escapeTag("jsString"), null, INPUT));
+        assertEquals(Escape.cssString(INPUT), run(escapeTag("cssString"), null, INPUT));
+        assertEquals(Escape.uriParam(INPUT), run(escapeTag("uriParam"), null, INPUT));
+        assertEquals("", run(escapeTag("html"), null, null));
+    }
+
+    public void testContextNames() throws Exception {
+        String[] names = { "html", "htmlText", "uri", "uriParam", "jsString", "jsRegex", "cssString" };
+        Escape.Context[] contexts = Escape.Context.values();
+        assertEquals(contexts.length, names.length);
+        for (int i = 0; i < names.length; i++)
+            assertEquals(Escape.compose(contexts[i]).escape(INPUT), run(escapeTag(names[i]), INPUT, null));
+
+        String[] invalid = { "HTML", "JS_STRING", "js", "", null };
+        for (String name : invalid) {
+            try {
+                run(escapeTag(name), INPUT, null);
+                fail("Expected JspTagException for " + name);
+            } catch (JspTagException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testStreaming() throws Exception {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 10000; i++)
+            large.append("row ").append(i).append(" <td>");
+        CountingWriter out = run(new EscapeTag.HtmlText(), large.toString(), null, true);
+        assertEquals(Escape.htmlText(large.toString()), out.toString());
+        // Safe runs and replacements are written as they are found
+        assertEquals(4 * 10000, out.writes);
+    }
+}
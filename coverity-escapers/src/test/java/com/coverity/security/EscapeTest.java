@@ -26,9 +26,23 @@
  */
 package com.coverity.testsuite;
 
+import com.coverity.security.ContextEscaper;
 import com.coverity.security.Escape;
 import com.coverity.security.EscapeEL;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -321,6 +335,570 @@ public class EscapeTest extends TestCase {
         }
     }
 
+    public void testAppendableEscapers() throws IOException {
+        String beforeEscape = "</script><style>'\" \\ & % _ @ \t\n\f\r\b\u000b"
+                            + " \u2028\u2029 ( ) [ ] { } * + - . ? ! ^ $ | # , : ; = \u3456";
+
+        StringBuilder output = new StringBuilder("prefix:");
+        Escape.html(beforeEscape, output);
+        assertEquals("prefix:" + Escape.html(beforeEscape), output.toString());
+
+        StringWriter writer = new StringWriter();
+        Escape.htmlText(beforeEscape, writer);
+        Escape.uriParam(beforeEscape, writer);
+        Escape.uri(beforeEscape, writer);
+        Escape.jsString(beforeEscape, writer);
+        Escape.jsRegex(beforeEscape, writer);
+        Escape.cssString(beforeEscape, writer);
+        Escape.sqlLikeClause(beforeEscape, writer);
+        Escape.sqlLikeClause(beforeEscape, '\\', writer);
+        assertEquals(Escape.htmlText(beforeEscape)
+                     + Escape.uriParam(beforeEscape)
+                     + Escape.uri(beforeEscape)
+                     + Escape.jsString(beforeEscape)
+                     + Escape.jsRegex(beforeEscape)
+                     + Escape.cssString(beforeEscape)
+                     + Escape.sqlLikeClause(beforeEscape)
+                     + Escape.sqlLikeClause(beforeEscape, '\\'),
+                     writer.toString());
+
+        // A null input appends nothing
+        output.setLength(0);
+        Escape.html(null, output);
+        Escape.jsString(null, output);
+        Escape.sqlLikeClause(null, output);
+        assertEquals(0, output.length());
+    }
+
+    public void testAllCharacters() {
+        // Pins down the exact output of each context for the ASCII range,
+        // the Unicode new lines, and characters that are never escaped
+        StringBuilder input = new StringBuilder();
+        for (char c = 0; c < 128; c++)
+            input.append(c);
+        input.append("\u2028\u2029\u00e9\u3456");
+        String allCharacters = input.toString();
+
+        assertEquals("\u0000\u0001\u0002\u0003\u0004\u0005\u0006\u0007\b&#x09;&#x0A;\u000b&#x0C;&#x0D;\u000e\u000f\u0010\u0011\u0012\u0013\u0014\u0015\u0016\u0017\u0018\u0019\u001a\u001b\u001c\u001d\u001e\u001f&#x20;!&quot;#$%&amp;&#39;()*+,-.&#x2F;0123456789:;&lt;=&gt;?@ABCDEFGHIJKLMNOPQRSTUVWXYZ[&#x5C;]^_`abcdefghijklmnopqrstuvwxyz{|}~\u007f&#x2028;&#x2029;\u00e9\u3456",
+                     Escape.html(allCharacters));
+        assertEquals("\u0000\u0001\u0002\u0003\u0004\u0005\u0006\u0007\b\t\n\u000b\f\r\u000e\u000f\u0010\u0011\u0012\u0013\u0014\u0015\u0016\u0017\u0018\u0019\u001a\u001b\u001c\u001d\u001e\u001f !&quot;#$%&amp;&#39;()*+,-./0123456789:;&lt;=&gt;?@ABCDEFGHIJKLMNOPQRSTUVWXYZ[\\]^_`abcdefghijklmnopqrstuvwxyz{|}~\u007f\u2028\u2029\u00e9\u3456",
+                     Escape.htmlText(allCharacters));
+        assertEquals("\u0000\u0001\u0002\u0003\u0004\u0005\u0006\u0007\b%09%0A\u000b%0C%0D\u000e\u000f\u0010\u0011\u0012\u0013\u0014\u0015\u0016\u0017\u0018\u0019\u001a\u001b\u001c\u001d\u001e\u001f%20%21%22%23%24%25%26%27%28%29%2A%2B%2C-%2E%2F0123456789%3A%3B%3C%3D%3E%3F%40ABCDEFGHIJKLMNOPQRSTUVWXYZ%5B\\%5D^_`abcdefghijklmnopqrstuvwxyz{|}~\u007f\u2028\u2029\u00e9\u3456",
+                     Escape.uriParam(allCharacters));
+        assertEquals("\u0000\u0001\u0002\u0003\u0004\u0005\u0006\u0007\\u0008\\u0009\\u000A\\u000B\\u000C\\u000D\u000e\u000f\u0010\u0011\u0012\u0013\u0014\u0015\u0016\u0017\u0018\u0019\u001a\u001b\u001c\u001d\u001e\u001f !\\u0022#$\\u0025\\u0026\\u0027()*+,-.\\u002F0123456789:;\\u003C=\\u003E?@ABCDEFGHIJKLMNOPQRSTUVWXYZ[\\u005C]^_`abcdefghijklmnopqrstuvwxyz{|}~\u007f\\u2028\\u2029\u00e9\u3456",
+                     Escape.jsString(allCharacters));
+        assertEquals("\u0000\u0001\u0002\u0003\u0004\u0005\u0006\u0007\b\\t\\n\\v\\f\\r\u000e\u000f\u0010\u0011\u0012\u0013\u0014\u0015\u0016\u0017\u0018\u0019\u001a\u001b\u001c\u001d\u001e\u001f \\!\"#\\$%&'\\(\\)\\*\\+,\\-\\.\\/0123456789:;<=>\\?@ABCDEFGHIJKLMNOPQRSTUVWXYZ\\[\\\\\\]\\^_`abcdefghijklmnopqrstuvwxyz\\{\\|\\}~\u007f\\u2028\\u2029\u00e9\u3456",
+                     Escape.jsRegex(allCharacters));
+        assertEquals("\u0000\u0001\u0002\u0003\u0004\u0005\u0006\u0007\\08 \\09 \\0A \u000b\\0C \\0D \u000e\u000f\u0010\u0011\u0012\u0013\u0014\u0015\u0016\u0017\u0018\u0019\u001a\u001b\u001c\u001d\u001e\u001f !\\22 #$%\\26 \\27 ()*+,-.\\2F 0123456789:;\\3C =\\3E ?@ABCDEFGHIJKLMNOPQRSTUVWXYZ[\\5C ]^_`abcdefghijklmnopqrstuvwxyz{|}~\u007f\\002028 \\002029 \u00e9\u3456",
+                     Escape.cssString(allCharacters));
+    }
+
+    public void testLargeInputs() throws IOException {
+        // Large inputs may be scanned differently than small ones, compare them
+        // with the concatenation of the escaped small pieces
+        String alphabet = "abcdefghijklmnopqrstuvwxyz0123456789 <>&'\"\\/%_@()[]{}*+-.?!^$|#,:;="
+                        + "\t\n\f\r\b\u000b\u2028\u2029\u00e9\u3456\u8000\uffff";
+        java.util.Random random = new java.util.Random(42);
+        for (int density = 1; density <= 1000; density *= 10) {
+            StringBuilder large = new StringBuilder();
+            for (int i = 0; i < 10000; i++) {
+                // Mostly clean text, with an escapable character every density chars
+                if (random.nextInt(density) == 0)
+                    large.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                else
+                    large.append((char) ('a' + random.nextInt(26)));
+            }
+            String input = large.toString();
+
+            StringBuilder[] pieces = new StringBuilder[6];
+            for (int c = 0; c < pieces.length; c++)
+                pieces[c] = new StringBuilder();
+            for (int i = 0; i < input.length(); i += 100) {
+                String piece = input.substring(i, Math.min(i + 100, input.length()));
+                pieces[0].append(Escape.html(piece));
+                pieces[1].append(Escape.htmlText(piece));
+                pieces[2].append(Escape.uriParam(piece));
+                pieces[3].append(Escape.jsString(piece));
+                pieces[4].append(Escape.jsRegex(piece));
+                pieces[5].append(Escape.cssString(piece));
+            }
+            assertEquals(pieces[0].toString(), Escape.html(input));
+            assertEquals(pieces[1].toString(), Escape.htmlText(input));
+            assertEquals(pieces[2].toString(), Escape.uriParam(input));
+            assertEquals(pieces[3].toString(), Escape.jsString(input));
+            assertEquals(pieces[4].toString(), Escape.jsRegex(input));
+            assertEquals(pieces[5].toString(), Escape.cssString(input));
+
+            StringWriter writer = new StringWriter();
+            Escape.htmlWriter(writer).write(input.toCharArray());
+            assertEquals(pieces[0].toString(), writer.toString());
+        }
+    }
+
+    public void testUnchangedInputIsReturned() {
+        String safe = "Product42 \u00e9t\u00e9 \u3456";
+        String safeWord = "Product42";
+        assertSame(safeWord, Escape.html(safeWord));
+        assertSame(safe, Escape.htmlText(safe));
+        assertSame(safeWord, Escape.uriParam(safeWord));
+        assertSame(safe, Escape.jsString(safe));
+        assertSame(safe, Escape.jsRegex(safe));
+        assertSame(safe, Escape.cssString(safe));
+        assertSame(safe, Escape.sqlLikeClause(safe));
+
+        // The safe prefix is kept as is when a later character is escaped
+        assertEquals("Product42&lt;", Escape.html("Product42<"));
+        assertEquals("Product42\\u0027", Escape.jsString("Product42'"));
+        assertEquals("Product42@%", Escape.sqlLikeClause("Product42%"));
+    }
+
+    private static String writeInPieces(Writer writer, StringWriter target, String input)
+            throws IOException {
+        // Mix all the ways of writing to the writer, with arbitrary boundaries
+        int third = input.length() / 3;
+        writer.write(input.toCharArray(), 0, third);
+        writer.write(input, third, third);
+        writer.write(input.charAt(2 * third));
+        writer.append(new StringBuilder(input), 2 * third + 1, input.length());
+        writer.flush();
+        return target.toString();
+    }
+
+    public void testEscapingWriters() throws IOException {
+        String beforeEscape = "</script><style>'\" \\ & % _ @ \t\n\f\r\b\u000b"
+                            + " \u2028\u2029 ( ) [ ] { } * + - . ? ! ^ $ | # , : ; = \u3456";
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            large.append(beforeEscape);
+        String[] inputs = { beforeEscape, large.toString(), "<" };
+
+        for (int i = 0; i < inputs.length; i++) {
+            String input = inputs[i];
+            StringWriter target = new StringWriter();
+            assertEquals(Escape.html(input), writeInPieces(Escape.htmlWriter(target), target, input));
+            target = new StringWriter();
+            assertEquals(Escape.htmlText(input), writeInPieces(Escape.htmlTextWriter(target), target, input));
+            target = new StringWriter();
+            assertEquals(Escape.uriParam(input), writeInPieces(Escape.uriParamWriter(target), target, input));
+            target = new StringWriter();
+            assertEquals(Escape.jsString(input), writeInPieces(Escape.jsStringWriter(target), target, input));
+            target = new StringWriter();
+            assertEquals(Escape.jsRegex(input), writeInPieces(Escape.jsRegexWriter(target), target, input));
+            target = new StringWriter();
+            assertEquals(Escape.cssString(input), writeInPieces(Escape.cssStringWriter(target), target, input));
+        }
+    }
+
+    public void testOutputStreamEscapers() throws IOException {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 500; i++)
+            large.append("caf\u00e9 <b>\u6F22\u5B57</b> \uD83D\uDE00 \u2028\u2029 ");
+        String[] inputs = {
+            "",
+            "Product42",
+            "</script><style>'\" \\ & % _ @ \t\n\f\r\b\u000b ( ) [ ] { } * + - . ? ! ^ $ |",
+            "caf\u00e9 \u00ff\u0100 \u07ff\u0800 \uffff \u2028\u2029",
+            // Surrogate pair, unpaired high and low surrogates
+            "\uD83D\uDE00 \uD83D \uDE00 \uD83D",
+            large.toString()
+        };
+        String[] charsets = { "UTF-8", "ISO-8859-1", "US-ASCII", "UTF-16BE" };
+
+        for (int i = 0; i < inputs.length; i++) {
+            String input = inputs[i];
+            for (int j = 0; j < charsets.length; j++) {
+                Charset charset = Charset.forName(charsets[j]);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                Escape.html(input, out, charset);
+                Escape.htmlText(input, out, charset);
+                Escape.uriParam(input, out, charset);
+                Escape.jsString(input, out, charset);
+                Escape.jsRegex(input, out, charset);
+                Escape.cssString(input, out, charset);
+                Escape.uri(input, out, charset);
+                Escape.htmlJsString(input, out, charset);
+                Escape.htmlUriParam(input, out, charset);
+                Escape.htmlCssUri(input, out, charset);
+                String expected = Escape.html(input) + Escape.htmlText(input) + Escape.uriParam(input)
+                                + Escape.jsString(input) + Escape.jsRegex(input) + Escape.cssString(input)
+                                + Escape.uri(input) + Escape.htmlJsString(input) + Escape.htmlUriParam(input)
+                                + Escape.htmlCssUri(input);
+                if (charsets[j].startsWith("UTF-16")) {
+                    // Every call is encoded separately, compare the decoded text
+                    assertEquals(new String(expected.getBytes(charset), charset),
+                                 new String(out.toByteArray(), charset));
+                } else {
+                    assertTrue(Arrays.equals(expected.getBytes(charset), out.toByteArray()));
+                }
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Escape.html(null, out, Charset.forName("UTF-8"));
+        Escape.uri(null, out, Charset.forName("UTF-8"));
+        Escape.htmlCssUri(null, out, Charset.forName("UTF-8"));
+        assertEquals(0, out.size());
+    }
+
+    private static String chain(String input, Escape.Context context) {
+        switch (context) {
+            case HTML:       return Escape.html(input);
+            case HTML_TEXT:  return Escape.htmlText(input);
+            case URI:        return Escape.uri(input);
+            case URI_PARAM:  return Escape.uriParam(input);
+            case JS_STRING:  return Escape.jsString(input);
+            case JS_REGEX:   return Escape.jsRegex(input);
+            case CSS_STRING: return Escape.cssString(input);
+        }
+        throw new AssertionError(context);
+    }
+
+    public void testComposedEscapers() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (char c = 0; c < 0x2100; c++)
+            sb.append(c);
+        sb.append("\uD83D\uDE00 javascript:alert(1) ') \" </span> % data:text/html");
+        String input = sb.toString();
+
+        Escape.Context[] contexts = Escape.Context.values();
+        for (Escape.Context inner : contexts) {
+            for (Escape.Context middle : contexts) {
+                for (Escape.Context outer : contexts) {
+                    ContextEscaper escaper = Escape.compose(inner, middle, outer);
+                    String expected = chain(chain(chain(input, inner), middle), outer);
+                    assertEquals(escaper.toString(), expected, escaper.escape(input));
+
+                    StringBuilder appended = new StringBuilder();
+                    escaper.escape(input, appended);
+                    assertEquals(expected, appended.toString());
+                }
+                assertEquals(chain(chain(input, inner), middle),
+                             Escape.compose(inner, middle).escape(input));
+            }
+            assertEquals(chain(input, inner), Escape.compose(inner).escape(input));
+        }
+
+        assertEquals(Escape.html(Escape.jsString(input)), Escape.htmlJsString(input));
+        assertEquals(Escape.html(Escape.uriParam(input)), Escape.htmlUriParam(input));
+        assertEquals(Escape.html(Escape.cssString(Escape.uri(input))), Escape.htmlCssUri(input));
+        assertEquals(Escape.htmlCssUri(input), EscapeEL.htmlCssUriEscape(input));
+
+        StringBuilder appended = new StringBuilder();
+        Escape.htmlJsString(input, appended);
+        Escape.htmlUriParam(input, appended);
+        Escape.htmlCssUri(input, appended);
+        Escape.htmlCssUri(null, appended);
+        assertEquals(Escape.htmlJsString(input) + Escape.htmlUriParam(input) + Escape.htmlCssUri(input),
+                     appended.toString());
+
+        String safe = "Product42";
+        assertSame(safe, Escape.htmlCssUri(safe));
+        assertNull(Escape.htmlJsString(null));
+        assertEquals(Arrays.asList(Escape.Context.URI, Escape.Context.HTML),
+                     Escape.compose(Escape.Context.URI, Escape.Context.HTML).contexts());
+
+        try {
+            Escape.compose();
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testBulkEscapers() throws Exception {
+        // Enough strings to be split in tasks, with long, safe and null ones
+        final String[] inputs = new String[10000];
+        for (int i = 0; i < inputs.length; i++) {
+            if (i % 97 == 0)
+                inputs[i] = null;
+            else if (i % 5 == 0)
+                inputs[i] = "safe" + i;
+            else if (i == 4242)
+                inputs[i] = new String(new char[5000]).replace('\0', '<');
+            else
+                inputs[i] = "<b title='" + i + "'>\u2028&" + i;
+        }
+        final List<String> list = Arrays.asList(inputs.clone());
+
+        // Parallel in a pool of several threads, even on a single core
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<String> escaped = pool.submit(new Callable<List<String>>() {
+                public List<String> call() {
+                    return Escape.htmlAll(list);
+                }
+            }).get();
+            String[] array = new String[inputs.length + 1];
+            Escape.htmlAll(inputs, array);
+            List<String> collected = pool.submit(new Callable<List<String>>() {
+                public List<String> call() {
+                    return list.parallelStream().collect(Escape.toHtmlList());
+                }
+            }).get();
+
+            assertEquals(inputs.length, escaped.size());
+            assertEquals(inputs.length, collected.size());
+            assertNull(array[inputs.length]);
+            for (int i = 0; i < inputs.length; i++) {
+                String expected = Escape.html(inputs[i]);
+                assertEquals(expected, escaped.get(i));
+                assertEquals(expected, array[i]);
+                assertEquals(expected, collected.get(i));
+            }
+            assertSame(inputs[5], escaped.get(5));
+        } finally {
+            pool.shutdown();
+        }
+
+        // Sequential batches, escaped in place
+        String[] small = {"a&b", null, "c'd", "ok"};
+        ContextEscaper jsString = Escape.compose(Escape.Context.JS_STRING);
+        List<String> expected = Arrays.asList(Escape.jsString("a&b"), null, Escape.jsString("c'd"), "ok");
+        assertEquals(expected, jsString.escapeAll(Arrays.asList(small)));
+        assertEquals(expected, Arrays.asList(small).stream().collect(jsString.toList()));
+        jsString.escapeAll(small, small);
+        assertEquals(expected, Arrays.asList(small));
+        assertTrue(Escape.htmlAll(Collections.<String>emptyList()).isEmpty());
+
+        try {
+            Escape.htmlAll(small, new String[3]);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testParallelEscapers() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 3000000)
+            sb.append("<p class='x'>\u2028caf\u00e9 & \uD83D\uDE00 ").append(sb.length()).append("</p>\n");
+        final String input = sb.toString();
+        final String latin1 = input.replace("\uD83D\uDE00", "\u00ff").replace('\u2028', '\u00a0');
+        final String safe = new String(new char[2000000]).replace('\0', 'a');
+        final ContextEscaper htmlJsString = Escape.compose(Escape.Context.JS_STRING, Escape.Context.HTML);
+
+        // Parallel in a pool of several threads, even on a single core
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<String> escaped = pool.submit(new Callable<List<String>>() {
+                public List<String> call() {
+                    return Arrays.asList(Escape.htmlParallel(input),
+                                         Escape.htmlParallel(latin1),
+                                         Escape.htmlParallel(safe),
+                                         htmlJsString.escapeParallel(input));
+                }
+            }).get();
+            assertEquals(Escape.html(input), escaped.get(0));
+            assertEquals(Escape.html(latin1), escaped.get(1));
+            assertSame(safe, escaped.get(2));
+            assertEquals(Escape.htmlJsString(input), escaped.get(3));
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(Escape.html("<b>"), Escape.htmlParallel("<b>"));
+        assertNull(Escape.htmlParallel(null));
+    }
+
+    public void testConcurrentEscaping() throws Exception {
+        final String[] inputs = new String[2000];
+        final String[] expected = new String[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            // Some inputs are too long for the buffers to be reused
+            int repeat = i % 100 == 0 ? 1000 : 1;
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < repeat; j++)
+                sb.append("<a href='/p?id=").append(i).append("'>\u2028");
+            inputs[i] = sb.toString();
+            expected[i] = Escape.html(inputs[i]);
+        }
+
+        final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t * 251;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int round = 0; round < 5; round++) {
+                        for (int i = 0; i < inputs.length; i++) {
+                            int k = (i + offset) % inputs.length;
+                            if (!expected[k].equals(Escape.html(inputs[k])))
+                                failures.add(inputs[k]);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(Collections.<String>emptyList(), failures);
+    }
+
+    public void testSafePredicates() {
+        StringBuilder unicode = new StringBuilder();
+        for (char c = 0; c < 0x3000; c++)
+            unicode.append(c);
+        ContextEscaper styleUrl = Escape.compose(Escape.Context.URI, Escape.Context.CSS_STRING);
+
+        for (char c = 0; c < 0x3000; c++) {
+            String s = "a" + c;
+            assertEquals(s, Escape.html(s) == s, Escape.isHtmlSafe(s));
+            assertEquals(s, Escape.htmlText(s) == s, Escape.isHtmlTextSafe(s));
+            assertEquals(s, Escape.uriParam(s) == s, Escape.isUriParamSafe(s));
+            assertEquals(s, Escape.jsString(s) == s, Escape.isJsStringSafe(s));
+            assertEquals(s, Escape.jsRegex(s) == s, Escape.isJsRegexSafe(s));
+            assertEquals(s, Escape.cssString(s) == s, Escape.isCssStringSafe(s));
+            assertEquals(s, styleUrl.escape(s) == s, styleUrl.isSafe(s));
+
+            // Same on a non-String sequence
+            StringBuilder sb = new StringBuilder(s);
+            assertEquals(s, Escape.isHtmlSafe(s), Escape.isHtmlSafe(sb));
+            assertEquals(s, Escape.isJsStringSafe(s), Escape.isJsStringSafe(sb));
+        }
+        assertTrue(Escape.isHtmlSafe(null));
+        assertTrue(Escape.isCssStringSafe(""));
+        assertTrue(styleUrl.isSafe(null));
+
+        // The first unsafe index matches the first character that is replaced
+        for (Escape.Context context : Escape.Context.values()) {
+            ContextEscaper escaper = Escape.compose(context);
+            int expected = -1;
+            for (int i = 0; i < unicode.length() && expected < 0; i++) {
+                if (!escaper.isSafe(unicode.substring(i, i + 1)))
+                    expected = i;
+            }
+            assertEquals(context.name(), expected, Escape.indexOfFirstUnsafe(unicode, context, 0));
+        }
+        String text = "a<b>c";
+        assertEquals(1, Escape.indexOfFirstUnsafe(text, Escape.Context.HTML, -5));
+        assertEquals(1, Escape.indexOfFirstUnsafe(text, Escape.Context.HTML, 1));
+        assertEquals(3, Escape.indexOfFirstUnsafe(text, Escape.Context.HTML, 2));
+        assertEquals(-1, Escape.indexOfFirstUnsafe(text, Escape.Context.HTML, 4));
+        assertEquals(-1, Escape.indexOfFirstUnsafe(text, Escape.Context.HTML, 100));
+        assertEquals(-1, Escape.indexOfFirstUnsafe("abc", Escape.Context.JS_STRING, 0));
+        assertEquals(-1, Escape.indexOfFirstUnsafe(null, Escape.Context.HTML, 0));
+    }
+
+    public void testCharSequenceInputs() {
+        String[] inputs = {"", "safe", "<a href='x'>\u2028 & \u4e2d\ud83d\ude00 %_@</a>", "trailing <"};
+        ContextEscaper styleUrl = Escape.compose(Escape.Context.URI, Escape.Context.CSS_STRING);
+        for (String input : inputs) {
+            char[] padded = ("ab" + input + "cd").toCharArray();
+            CharBuffer positioned = CharBuffer.wrap(padded, 2, input.length());
+            CharSequence[] sequences = {
+                new StringBuilder(input),
+                new StringBuffer(input),
+                CharBuffer.wrap(input),
+                positioned,
+                positioned.slice(),
+            };
+            for (CharSequence sequence : sequences) {
+                String message = sequence.getClass().getName() + ": " + input;
+                assertEquals(message, Escape.html(input), Escape.html(sequence));
+                assertEquals(message, Escape.htmlText(input), Escape.htmlText(sequence));
+                assertEquals(message, Escape.uriParam(input), Escape.uriParam(sequence));
+                assertEquals(message, Escape.uri(input), Escape.uri(sequence));
+                assertEquals(message, Escape.jsString(input), Escape.jsString(sequence));
+                assertEquals(message, Escape.jsRegex(input), Escape.jsRegex(sequence));
+                assertEquals(message, Escape.cssString(input), Escape.cssString(sequence));
+                assertEquals(message, Escape.htmlJsString(input), Escape.htmlJsString(sequence));
+                assertEquals(message, Escape.htmlUriParam(input), Escape.htmlUriParam(sequence));
+                assertEquals(message, Escape.htmlCssUri(input), Escape.htmlCssUri(sequence));
+                assertEquals(message, Escape.sqlLikeClause(input), Escape.sqlLikeClause(sequence));
+                assertEquals(message, Escape.sqlLikeClause(input, '!'), Escape.sqlLikeClause(sequence, '!'));
+                assertEquals(message, styleUrl.escape(input), styleUrl.escape(sequence));
+                assertEquals(message, Escape.isHtmlSafe(input), Escape.isHtmlSafe(sequence));
+                assertEquals(message, Escape.indexOfFirstUnsafe(input, Escape.Context.JS_STRING, 1),
+                             Escape.indexOfFirstUnsafe(sequence, Escape.Context.JS_STRING, 1));
+            }
+        }
+
+        // A String given as a CharSequence is still returned as is
+        CharSequence safe = "safe";
+        assertSame(safe, Escape.html(safe));
+        assertSame(safe, Escape.sqlLikeClause(safe));
+        assertNull(Escape.html((CharSequence) null));
+        assertNull(Escape.sqlLikeClause((CharSequence) null));
+    }
+
+    public void testCharArrayEscapers() {
+        // Long enough for the vector scanner, when it is available
+        StringBuilder longInput = new StringBuilder();
+        while (longInput.length() < 4096)
+            longInput.append("safe text, <a href='x'>\u2028 & \u4e2d\ud83d\ude00 %_@</a>, ");
+        String[] inputs = {"", "safe", "<a href='x'>\u2028 & \u4e2d\ud83d\ude00 %_@</a>", "trailing <",
+                           longInput.toString()};
+        ContextEscaper styleUrl = Escape.compose(Escape.Context.URI, Escape.Context.CSS_STRING);
+        for (String input : inputs) {
+            char[] src = ("ab" + input + "cd").toCharArray();
+            // An empty destination always gets the required capacity
+            assertEquals(input, -Escape.html(input).length(), Escape.html(src, 2, input.length(), new char[0], 0));
+            String[] expected = {
+                Escape.html(input), Escape.htmlText(input), Escape.uriParam(input), Escape.uri(input),
+                Escape.jsString(input), Escape.jsRegex(input), Escape.cssString(input),
+                Escape.htmlJsString(input), Escape.htmlUriParam(input), Escape.htmlCssUri(input),
+                styleUrl.escape(input),
+            };
+            for (int e = 0; e < expected.length; e++) {
+                // Large enough, exactly large enough, and one char short
+                int[] capacities = {3 + 8 * expected[e].length() + 3, 3 + expected[e].length(),
+                                    3 + expected[e].length() - 1};
+                for (int capacity : capacities) {
+                    if (capacity < 3)
+                        continue;
+                    char[] dst = new char[capacity];
+                    Arrays.fill(dst, '#');
+                    int n = escapeCharArray(e, styleUrl, src, 2, input.length(), dst, 3);
+                    String message = e + ": " + input + " into " + capacity;
+                    if (capacity - 3 >= expected[e].length()) {
+                        assertEquals(message, expected[e].length(), n);
+                        assertEquals(message, expected[e], new String(dst, 3, n));
+                        for (int i = 3 + n; i < capacity; i++)
+                            assertEquals(message, '#', dst[i]);
+                    } else {
+                        // Nothing written, and the required capacity reported
+                        assertEquals(message, -expected[e].length(), n);
+                        for (char c : dst)
+                            assertEquals(message, '#', c);
+                    }
+                }
+            }
+        }
+
+        char[] src = "<b>".toCharArray();
+        char[] dst = new char[16];
+        int[][] outOfBounds = {{-1, 1, 0}, {0, -1, 0}, {1, 3, 0}, {0, 3, -1}, {0, 3, 17}};
+        for (int[] bounds : outOfBounds) {
+            try {
+                Escape.html(src, bounds[0], bounds[1], dst, bounds[2]);
+                fail(Arrays.toString(bounds));
+            } catch (IndexOutOfBoundsException expected) {
+            }
+        }
+        assertEquals(0, Escape.html(src, 3, 0, dst, 16));
+        assertEquals(-4, Escape.html(src, 0, 1, dst, 16));
+        assertEquals(4, Escape.html(src, 0, 1, dst, 12));
+    }
+
+    private static int escapeCharArray(int context, ContextEscaper styleUrl,
+                                       char[] src, int srcOff, int srcLen, char[] dst, int dstOff) {
+        switch (context) {
+            case 0: return Escape.html(src, srcOff, srcLen, dst, dstOff);
+            case 1: return Escape.htmlText(src, srcOff, srcLen, dst, dstOff);
+            case 2: return Escape.uriParam(src, srcOff, srcLen, dst, dstOff);
+            case 3: return Escape.uri(src, srcOff, srcLen, dst, dstOff);
+            case 4: return Escape.jsString(src, srcOff, srcLen, dst, dstOff);
+            case 5: return Escape.jsRegex(src, srcOff, srcLen, dst, dstOff);
+            case 6: return Escape.cssString(src, srcOff, srcLen, dst, dstOff);
+            case 7: return Escape.htmlJsString(src, srcOff, srcLen, dst, dstOff);
+            case 8: return Escape.htmlUriParam(src, srcOff, srcLen, dst, dstOff);
+            case 9: return Escape.htmlCssUri(src, srcOff, srcLen, dst, dstOff);
+            default: return styleUrl.escape(src, srcOff, srcLen, dst, dstOff);
+        }
+    }
+
     public void testSQLLikeEscaper_String() {
         assertTrue(Escape.sqlLikeClause("%_@'+=").equals("@%@_@@'+="));
         assertTrue(Escape.sqlLikeClause("%_@'+=\\", '\\').equals("\\%\\_@'+=\\\\"));
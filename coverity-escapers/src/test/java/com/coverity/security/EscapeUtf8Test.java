@@ -0,0 +1,162 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.testsuite;
+
+import com.coverity.security.Escape;
+import com.coverity.security.EscapeUtf8;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.CoderResult;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+// Unit tests for the UTF-8 escapers, compared against the String escapers
+public class EscapeUtf8Test extends TestCase {
+
+    public final static String[] INPUTS = {
+        "",
+        "Product42",
+        "</script><style>'\" \\ & % _ @ \t\n\f\r\b\u000b",
+        "\u2028\u2029 ( ) [ ] { } * + - . ? ! ^ $ | # , : ; =",
+        // Sequences sharing the lead byte of the Unicode new lines
+        "\u2022 bullet \u20AC euro \u2028\u2027\u2029\u202A",
+        "\u6F22\u5B57 \uD83D\uDE00 <b>\u00E9t\u00E9</b> \u2029"
+    };
+
+    public EscapeUtf8Test(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(EscapeUtf8Test.class);
+    }
+
+    private static byte[] utf8(String s) throws UnsupportedEncodingException {
+        return s.getBytes("UTF-8");
+    }
+
+    private static String[] expected(String input) {
+        return new String[] {
+            Escape.html(input), Escape.htmlText(input), Escape.uriParam(input),
+            Escape.jsString(input), Escape.jsRegex(input), Escape.cssString(input)
+        };
+    }
+
+    private static byte[][] escapeArrays(byte[] input) {
+        return new byte[][] {
+            EscapeUtf8.html(input), EscapeUtf8.htmlText(input), EscapeUtf8.uriParam(input),
+            EscapeUtf8.jsString(input), EscapeUtf8.jsRegex(input), EscapeUtf8.cssString(input)
+        };
+    }
+
+    private static CoderResult escape(int context, ByteBuffer in, ByteBuffer out, boolean endOfInput) {
+        switch (context) {
+        case 0: return EscapeUtf8.html(in, out, endOfInput);
+        case 1: return EscapeUtf8.htmlText(in, out, endOfInput);
+        case 2: return EscapeUtf8.uriParam(in, out, endOfInput);
+        case 3: return EscapeUtf8.jsString(in, out, endOfInput);
+        case 4: return EscapeUtf8.jsRegex(in, out, endOfInput);
+        default: return EscapeUtf8.cssString(in, out, endOfInput);
+        }
+    }
+
+    public void testByteArrays() throws IOException {
+        for (int i = 0; i < INPUTS.length; i++) {
+            byte[] input = utf8(INPUTS[i]);
+            String[] expected = expected(INPUTS[i]);
+            byte[][] escaped = escapeArrays(input);
+            for (int c = 0; c < expected.length; c++) {
+                assertEquals(expected[c], new String(escaped[c], "UTF-8"));
+                if (expected[c].equals(INPUTS[i]))
+                    assertSame(input, escaped[c]);
+            }
+        }
+        assertNull(EscapeUtf8.html((byte[]) null));
+    }
+
+    public void testByteBuffersOneByteAtATime() throws IOException {
+        for (int i = 0; i < INPUTS.length; i++) {
+            byte[] input = utf8(INPUTS[i]);
+            String[] expected = expected(INPUTS[i]);
+            for (int c = 0; c < expected.length; c++) {
+                // Feed the input one byte at a time, into a small output buffer
+                ByteArrayOutputStream result = new ByteArrayOutputStream();
+                ByteBuffer in = ByteBuffer.allocate(input.length + 1);
+                ByteBuffer out = ByteBuffer.allocateDirect(9);
+                for (int j = 0; j <= input.length; j++) {
+                    boolean endOfInput = j == input.length;
+                    if (!endOfInput)
+                        in.put(input[j]);
+                    in.flip();
+                    CoderResult r;
+                    do {
+                        r = escape(c, in, out, endOfInput);
+                        out.flip();
+                        while (out.hasRemaining())
+                            result.write(out.get());
+                        out.clear();
+                    } while (r.isOverflow());
+                    in.compact();
+                }
+                assertEquals(0, in.position());
+                assertEquals(expected[c], new String(result.toByteArray(), "UTF-8"));
+            }
+        }
+    }
+
+    public void testPartialNewLineAtEndOfInput() throws IOException {
+        // A truncated new line is copied as is at the end of the input
+        byte[] truncated = { 'a', (byte) 0xE2, (byte) 0x80 };
+        ByteBuffer out = ByteBuffer.allocate(16);
+        ByteBuffer in = ByteBuffer.wrap(truncated);
+        assertTrue(EscapeUtf8.jsString(in, out, false).isUnderflow());
+        assertEquals(2, in.remaining());
+        assertTrue(EscapeUtf8.jsString(in, out, true).isUnderflow());
+        assertEquals(0, in.remaining());
+        assertEquals(3, out.position());
+    }
+
+    public void testChannels() throws IOException {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 2000; i++)
+            large.append(INPUTS[i % INPUTS.length]);
+        String input = large.toString();
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        long written = EscapeUtf8.cssString(Channels.newChannel(new ByteArrayInputStream(utf8(input))),
+                                            Channels.newChannel(result));
+        assertEquals(Escape.cssString(input), new String(result.toByteArray(), "UTF-8"));
+        assertEquals(result.size(), written);
+    }
+}
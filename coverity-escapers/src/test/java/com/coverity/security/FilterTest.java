@@ -34,6 +34,10 @@ import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
 import java.lang.System;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.InvocationTargetException;
@@ -106,13 +110,47 @@ public class FilterTest extends TestCase {
             "#1",
             "12345",
             "#12",
-            "#1223",
             "#12233",
             "#122g34",
+            "#1223344",
+            "#122334455",
             "\0#123",
             "\f#123",
             "\n#123",
-            ""
+            "",
+
+            //Unknown names
+            "bluee",
+            "blu",
+            "notacolor",
+            "expression",
+            "lightgoldenrodyellowish",
+            "blac\u212A",
+
+            //Functions
+            "rgb()",
+            "rgb(1, 2)",
+            "rgb(1, 2, 3",
+            "rgb(1, 2, 3) ",
+            " rgb(1, 2, 3)",
+            "rgb (1, 2, 3)",
+            "rgb(1, 2%, 3)",
+            "rgb(1, 2 3)",
+            "rgb(1 2 3, 0.5)",
+            "rgb(1, 2, 3 / 0.5)",
+            "rgb(1, 2, 3, 4, 5)",
+            "rgb(1deg, 2, 3)",
+            "rgb(1., 2, 3)",
+            "rgb(1em, 2, 3)",
+            "rgb(x, 2, 3)",
+            "rgb(1, 2, 3);color:red",
+            "rgb(1,2,3)) url(x",
+            "hsl(120, 100, 50)",
+            "hsl(120%, 100%, 50%)",
+            "hsl(120 100% 50% / 10deg)",
+            "hsx(120, 100%, 50%)",
+            "url(javascript:alert(1))",
+            "expression(alert(1))"
         };
 
         String[] colorTrueTests = {
@@ -124,7 +162,32 @@ public class FilterTest extends TestCase {
             //Hex Color
             "#fff",
             "#FFF",
-            "#0fF056"
+            "#0fF056",
+            "#1223",
+            "#0fF05680",
+
+            //Keywords
+            "transparent",
+            "currentColor",
+            "inherit",
+            "rebeccapurple",
+            "LIGHTGOLDENRODYELLOW",
+
+            //Functions
+            "rgb(255, 0, 0)",
+            "rgb(255,0,0)",
+            "RGB( 100% , 0% , 0% )",
+            "rgba(255, 0, 0, 0.5)",
+            "rgba(255, 0, 0, 50%)",
+            "rgb(255 0 0)",
+            "rgb(255 0 0 / .5)",
+            "rgb(100% 0 50%)",
+            "rgb(+1.5e2, -0, 1E-1)",
+            "hsl(120, 100%, 50%)",
+            "hsla(120deg, 100%, 50%, 0.3)",
+            "hsl(0.5turn 100% 50%)",
+            "hsl(3.14rad 100 50 / 1)",
+            "HSLA(200GRAD,\t10%,\n20%)"
         };
 
         runTrueFalseCases(colorFalseTests,
@@ -292,6 +355,134 @@ public class FilterTest extends TestCase {
                           /*printIter*/false);
     }
 
+    // The regular expression implementation of asNumber that the scanner replaced
+    private static final Pattern OCTAL_REGEX = Pattern.compile("(0+)([0-7]*)");
+    private static final Pattern NUMBER_REGEX = Pattern.compile("[-+]?((\\.[0-9]+)|([0-9]+\\.?[0-9]*))");
+    private static final Pattern HEX_REGEX = Pattern.compile("0x[0-9a-fA-F]+");
+
+    private static String asNumberRegex(String number, String defaultNumber) {
+        if (number == null)
+            return null;
+        String trimNumber = number.trim();
+
+        Matcher octal = OCTAL_REGEX.matcher(trimNumber);
+        if (octal.matches())
+            return octal.group(2);
+
+        if (NUMBER_REGEX.matcher(trimNumber).matches())
+            return trimNumber;
+        if (HEX_REGEX.matcher(trimNumber).matches())
+            return trimNumber;
+        return defaultNumber;
+    }
+
+    private static void assertSameAsRegex(String number) {
+        assertEquals("'" + number + "'", asNumberRegex(number, "default"), Filter.asNumber(number, "default"));
+    }
+
+    public void testAsCssColorNamedColors() {
+        String[] namedColors = {
+            "aliceblue", "antiquewhite", "aqua", "aquamarine", "azure", "beige", "bisque", "black",
+            "blanchedalmond", "blue", "blueviolet", "brown", "burlywood", "cadetblue", "chartreuse",
+            "chocolate", "coral", "cornflowerblue", "cornsilk", "crimson", "cyan", "darkblue",
+            "darkcyan", "darkgoldenrod", "darkgray", "darkgreen", "darkgrey", "darkkhaki",
+            "darkmagenta", "darkolivegreen", "darkorange", "darkorchid", "darkred", "darksalmon",
+            "darkseagreen", "darkslateblue", "darkslategray", "darkslategrey", "darkturquoise",
+            "darkviolet", "deeppink", "deepskyblue", "dimgray", "dimgrey", "dodgerblue", "firebrick",
+            "floralwhite", "forestgreen", "fuchsia", "gainsboro", "ghostwhite", "gold", "goldenrod",
+            "gray", "green", "greenyellow", "grey", "honeydew", "hotpink", "indianred", "indigo",
+            "ivory", "khaki", "lavender", "lavenderblush", "lawngreen", "lemonchiffon", "lightblue",
+            "lightcoral", "lightcyan", "lightgoldenrodyellow", "lightgray", "lightgreen", "lightgrey",
+            "lightpink", "lightsalmon", "lightseagreen", "lightskyblue", "lightslategray",
+            "lightslategrey", "lightsteelblue", "lightyellow", "lime", "limegreen", "linen", "magenta",
+            "maroon", "mediumaquamarine", "mediumblue", "mediumorchid", "mediumpurple",
+            "mediumseagreen", "mediumslateblue", "mediumspringgreen", "mediumturquoise",
+            "mediumvioletred", "midnightblue", "mintcream", "mistyrose", "moccasin", "navajowhite",
+            "navy", "oldlace", "olive", "olivedrab", "orange", "orangered", "orchid", "palegoldenrod",
+            "palegreen", "paleturquoise", "palevioletred", "papayawhip", "peachpuff", "peru", "pink",
+            "plum", "powderblue", "purple", "rebeccapurple", "red", "rosybrown", "royalblue",
+            "saddlebrown", "salmon", "sandybrown", "seagreen", "seashell", "sienna", "silver",
+            "skyblue", "slateblue", "slategray", "slategrey", "snow", "springgreen", "steelblue", "tan",
+            "teal", "thistle", "tomato", "turquoise", "violet", "wheat", "white", "whitesmoke",
+            "yellow", "yellowgreen"
+        };
+        assertEquals(148, namedColors.length);
+
+        for (String name : namedColors) {
+            assertSame(name, Filter.asCssColor(name));
+            String upper = name.toUpperCase();
+            assertSame(upper, Filter.asCssColor(upper));
+            // Every prefix, and the name followed by a letter, is rejected unless it is another name
+            for (int i = 1; i < name.length(); i++) {
+                String prefix = name.substring(0, i);
+                if (!Arrays.asList(namedColors).contains(prefix))
+                    assertEquals(prefix, "blue", Filter.asCssColor(prefix, "blue"));
+            }
+            assertEquals("blue", Filter.asCssColor(name + "x", "blue"));
+        }
+    }
+
+    public void testAsNumberMatchesRegex() {
+        // Every string of up to 5 characters over an alphabet covering all transitions
+        char[] alphabet = { '0', '1', '7', '8', '9', '.', '+', '-', 'x', 'X', 'a', 'F', 'g', ' ', '\t' };
+        int[] indexes = new int[5];
+        for (int length = 0; length <= indexes.length; length++) {
+            Arrays.fill(indexes, 0);
+            char[] chars = new char[length];
+            while (true) {
+                for (int i = 0; i < length; i++)
+                    chars[i] = alphabet[indexes[i]];
+                assertSameAsRegex(new String(chars));
+
+                int i = 0;
+                while (i < length && ++indexes[i] == alphabet.length)
+                    indexes[i++] = 0;
+                if (i == length)
+                    break;
+            }
+        }
+
+        // Longer random strings, mostly made of number characters
+        String numberChars = "00000012345678999..+-xabcdefABCDEF \t\n\u00a0\u0660g";
+        Random random = new Random(42);
+        for (int n = 0; n < 200000; n++) {
+            char[] chars = new char[random.nextInt(24)];
+            for (int i = 0; i < chars.length; i++)
+                chars[i] = numberChars.charAt(random.nextInt(numberChars.length()));
+            assertSameAsRegex(new String(chars));
+        }
+
+        assertNull(Filter.asNumber(null, "default"));
+    }
+
+    public void testAsNumberReturnsInput() {
+        String[] numbers = { "42", "-1.5", "+.5", "3.", "0.25", "08", "0x1F", "1234567890" };
+        for (String number : numbers)
+            assertSame(number, Filter.asNumber(number));
+
+        assertEquals("42", Filter.asNumber(" 42\t"));
+        assertEquals("17", Filter.asNumber(" 0017 "));
+        assertEquals("", Filter.asNumber("000"));
+    }
+
+    public void testCharSequenceInputs() {
+        String[] inputs = { "42", " 0017 ", "nope", "#fff", "red", "rgb(1, 2, 3)",
+                            "http://example.com/", "javascript:alert(1)", "ssh://host" };
+        for (String input : inputs) {
+            CharSequence sequence = new StringBuilder(input);
+            assertEquals(input, Filter.asNumber(input), Filter.asNumber(sequence));
+            assertEquals(input, Filter.asNumber(input, "x"), Filter.asNumber(sequence, "x"));
+            assertEquals(input, Filter.asCssColor(input), Filter.asCssColor(sequence));
+            assertEquals(input, Filter.asCssColor(input, "x"), Filter.asCssColor(sequence, "x"));
+            assertEquals(input, Filter.asURL(input), Filter.asURL(sequence));
+            assertEquals(input, Filter.asFlexibleURL(input), Filter.asFlexibleURL(sequence));
+        }
+        assertNull(Filter.asNumber((CharSequence) null));
+        assertNull(Filter.asCssColor((CharSequence) null));
+        assertNull(Filter.asURL((CharSequence) null));
+        assertNull(Filter.asFlexibleURL((CharSequence) null));
+    }
+
     //A dodgy wrapper that we're going to use so that we can use the existing infrastructure
     private static String testFlexibleURLWrapper(String url) {
         String filtered = Filter.asFlexibleURL(url);
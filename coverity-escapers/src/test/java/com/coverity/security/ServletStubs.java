@@ -0,0 +1,196 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.testsuite;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.jsp.JspFactory;
+import javax.servlet.jsp.JspWriter;
+import javax.servlet.jsp.PageContext;
+
+import org.apache.jasper.runtime.JspFactoryImpl;
+import org.apache.tomcat.InstanceManager;
+import org.apache.tomcat.SimpleInstanceManager;
+
+/**
+ * Minimal servlet container objects, so that the tests run the tags and the compiled pages
+ * with the real JSP runtime of Jasper. Each object only keeps its attributes, and answers
+ * every other call with null, false, zero or nothing. The servlet context may serve the resources of
+ * a web application from a directory.
+ */
+final class ServletStubs {
+
+    static {
+        if (JspFactory.getDefaultFactory() == null)
+            JspFactory.setDefaultFactory(new JspFactoryImpl());
+    }
+
+    private ServletStubs() {
+    }
+
+    private static final class Handler implements InvocationHandler {
+        private final Map<String, Object> attributes = new HashMap<String, Object>();
+        private final Map<String, Object> results = new HashMap<String, Object>();
+        private File root;
+
+        Handler returning(String method, Object result) {
+            results.put(method, result);
+            return this;
+        }
+
+        Handler serving(File root) {
+            this.root = root;
+            return this;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+            String name = method.getName();
+            if (results.containsKey(name))
+                return results.get(name);
+            if (root != null && name.startsWith("getRe")) {
+                File file = new File(root, (String) args[0]);
+                if (name.equals("getRealPath"))
+                    return file.getPath();
+                if (name.equals("getResource"))
+                    return file.isFile() ? file.toURI().toURL() : null;
+                if (name.equals("getResourceAsStream"))
+                    return file.isFile() ? new FileInputStream(file) : null;
+            }
+            if (name.equals("getAttribute"))
+                return attributes.get((String) args[0]);
+            if (name.equals("setAttribute")) {
+                attributes.put((String) args[0], args[1]);
+                return null;
+            }
+            if (name.equals("removeAttribute")) {
+                attributes.remove((String) args[0]);
+                return null;
+            }
+            if (name.equals("getAttributeNames"))
+                return Collections.enumeration(attributes.keySet());
+            if (name.equals("hashCode"))
+                return System.identityHashCode(proxy);
+            if (name.equals("equals"))
+                return proxy == args[0];
+            if (name.equals("toString"))
+                return "stub " + method.getDeclaringClass().getSimpleName();
+
+            Class<?> type = method.getReturnType();
+            if (type == boolean.class)
+                return false;
+            if (type == int.class)
+                return 0;
+            if (type == long.class)
+                return 0L;
+            if (type == Enumeration.class)
+                return Collections.emptyEnumeration();
+            return null;
+        }
+    }
+
+    private static <T> T stub(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(ServletStubs.class.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+
+    /**
+     * Returns the configuration of a servlet in a web application whose resources are the
+     * files of <code>webapp</code>, if it is not null, and whose temporary directory is
+     * <code>webapp/work</code>.
+     */
+    static ServletConfig config(File webapp) {
+        ServletContext context = stub(ServletContext.class, new Handler()
+                .serving(webapp)
+                .returning("getClassLoader", ServletStubs.class.getClassLoader())
+                .returning("getMajorVersion", 4)
+                .returning("getEffectiveMajorVersion", 4));
+        context.setAttribute(InstanceManager.class.getName(), new SimpleInstanceManager());
+        if (webapp != null) {
+            File work = new File(webapp, "work");
+            work.mkdir();
+            context.setAttribute(ServletContext.TEMPDIR, work);
+        }
+        return stub(ServletConfig.class, new Handler()
+                .returning("getServletContext", context)
+                .returning("getServletName", "jsp"));
+    }
+
+    /**
+     * Returns a GET request of <code>path</code> with the given query and attributes.
+     */
+    static HttpServletRequest request(String path, String query, Map<String, ?> attributes) {
+        HttpServletRequest request = stub(HttpServletRequest.class, new Handler()
+                .returning("getServletPath", path)
+                .returning("getQueryString", query)
+                .returning("getMethod", "GET")
+                .returning("getDispatcherType", DispatcherType.REQUEST)
+                .returning("getCharacterEncoding", "UTF-8"));
+        for (Map.Entry<String, ?> attribute : attributes.entrySet())
+            request.setAttribute(attribute.getKey(), attribute.getValue());
+        return request;
+    }
+
+    /**
+     * Returns a response whose body is written to <code>out</code>.
+     */
+    static HttpServletResponse response(Writer out) {
+        return stub(HttpServletResponse.class, new Handler()
+                .returning("getWriter", new PrintWriter(out))
+                .returning("getCharacterEncoding", "UTF-8"));
+    }
+
+    /**
+     * Returns the context of a page without a session, that writes to <code>out</code>
+     * without buffering. It has to be released with {@link #release(PageContext)}.
+     */
+    static PageContext pageContext(Writer out) {
+        ServletConfig config = config(null);
+        Servlet servlet = stub(Servlet.class, new Handler().returning("getServletConfig", config));
+        return JspFactory.getDefaultFactory().getPageContext(servlet,
+                request("/", null, Collections.<String, Object>emptyMap()), response(out), null, false,
+                JspWriter.NO_BUFFER, false);
+    }
+
+    static void release(PageContext page) {
+        JspFactory.getDefaultFactory().releasePageContext(page);
+    }
+}
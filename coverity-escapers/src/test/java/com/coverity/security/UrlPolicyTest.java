@@ -0,0 +1,168 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.testsuite;
+
+import com.coverity.security.Filter;
+import com.coverity.security.UrlPolicy;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+// Unit tests for the URL policies, compared against the regular expressions they replaced
+public class UrlPolicyTest extends TestCase {
+
+    public UrlPolicyTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(UrlPolicyTest.class);
+    }
+
+    private static final Pattern URL_REGEX = Pattern.compile("(/|\\\\\\\\|https?:|ftp:|mailto:).*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SCHEME_REGEX = Pattern.compile("(javascript|vbscript|data|about)");
+
+    private static String asURLRegex(String url) {
+        if (url == null)
+            return null;
+        if (url.length() == 0 || URL_REGEX.matcher(url).matches())
+            return url;
+        return "./" + url;
+    }
+
+    private static String asFlexibleURLRegex(String url) {
+        if (url == null)
+            return null;
+        int length = url.length();
+        if (length < 1 || url.startsWith("/") || url.startsWith("\\\\"))
+            return url;
+
+        int i = 0;
+        for (; i < length; i++) {
+            char c = url.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+                  (c >= '0' && c <= '9') || c == '.' || c == '+' || c == '-'))
+                break;
+        }
+        if (i == length)
+            return url;
+        if (url.charAt(i) == ':' && !SCHEME_REGEX.matcher(url.substring(0, i).toLowerCase(Locale.ROOT)).matches())
+            return url;
+        return "./" + url;
+    }
+
+    public void testSameAsRegex() {
+        String[] prefixes = {
+            "", "/", "//", "\\", "\\\\", "http", "https", "HTTPS", "hTtP", "ftp", "mailto", "httpx",
+            "htt", "javascript", "JavaScript", "javascripts", "vbscript", "data", "about", "abou",
+            "file", "x-custom+1.0", "1a", ":", "java script", "java\nscript", "\njavascript", "\u0000"
+        };
+        String[] suffixes = {
+            "", ":", "://example.com/", ":alert(1)", "path/file.html", "?q", "#hash", ":\n", "\r:",
+            ":a\u2028b", ":a\u0085", "\u2029", ":\t", " :", "::"
+        };
+        for (String prefix : prefixes) {
+            for (String suffix : suffixes) {
+                String url = prefix + suffix;
+                assertEquals(url, asURLRegex(url), Filter.asURL(url));
+                assertEquals(url, asFlexibleURLRegex(url), Filter.asFlexibleURL(url));
+            }
+        }
+
+        String chars = "htpsfmailoHTPSjavscrbdu:/\\.+-1 \n\r\u2028\u0000";
+        Random random = new Random(7);
+        for (int n = 0; n < 100000; n++) {
+            char[] url = new char[random.nextInt(16)];
+            for (int i = 0; i < url.length; i++)
+                url[i] = chars.charAt(random.nextInt(chars.length()));
+            String s = new String(url);
+            assertEquals(s, asURLRegex(s), Filter.asURL(s));
+            assertEquals(s, asFlexibleURLRegex(s), Filter.asFlexibleURL(s));
+        }
+
+        assertNull(Filter.asURL(null));
+        assertNull(Filter.asFlexibleURL(null));
+    }
+
+    public void testAllowedInputIsReturned() {
+        String url = "https://coverity.com/security";
+        assertSame(url, Filter.asURL(url));
+        assertSame(url, Filter.asFlexibleURL(url));
+        assertSame(url, UrlPolicy.STRICT.filter(url));
+        assertTrue(UrlPolicy.STRICT.isAllowed(url));
+        assertFalse(UrlPolicy.FLEXIBLE.isAllowed("data:text/html,x"));
+    }
+
+    public void testCustomPolicies() {
+        UrlPolicy links = UrlPolicy.allowing("http", "https", "tel", "x-app+v1.0");
+        assertEquals("tel:+15555550100", links.filter("tel:+15555550100"));
+        assertEquals("X-APP+V1.0:open", links.filter("X-APP+V1.0:open"));
+        assertEquals("/local", links.filter("/local"));
+        assertEquals("./mailto:srl@coverity.com", links.filter("mailto:srl@coverity.com"));
+        assertEquals("./te:1", links.filter("te:1"));
+        assertEquals("./tell:1", links.filter("tell:1"));
+        assertEquals("./page.html", links.filter("page.html"));
+        assertNull(links.filter(null));
+
+        UrlPolicy noFiles = UrlPolicy.blocking("javascript", "vbscript", "data", "about", "file");
+        assertEquals("./FILE:///etc/passwd", noFiles.filter("FILE:///etc/passwd"));
+        assertEquals("./javascript:alert(1)", noFiles.filter("javascript:alert(1)"));
+        assertEquals("files:x", noFiles.filter("files:x"));
+        assertEquals("fil:x", noFiles.filter("fil:x"));
+        assertEquals("page.html", noFiles.filter("page.html"));
+
+        String[][] invalid = { { "" }, { "http:" }, { "a b" }, { "\u0131" }, { "http", null } };
+        for (String[] schemes : invalid) {
+            try {
+                UrlPolicy.allowing(schemes);
+                fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        assertEquals("./http:x", UrlPolicy.allowing().filter("http:x"));
+        assertEquals("http:x", UrlPolicy.blocking().filter("http:x"));
+    }
+
+    public void testLocaleIndependence() {
+        Locale locale = Locale.getDefault();
+        try {
+            // The lower case of I is a dotless i in Turkish
+            Locale.setDefault(new Locale("tr", "TR"));
+            assertEquals("./JAVASCRIPT:alert(1)", Filter.asFlexibleURL("JAVASCRIPT:alert(1)"));
+            assertEquals("./VBSCRIPT:msgbox(1)", Filter.asFlexibleURL("VBSCRIPT:msgbox(1)"));
+            assertEquals("MAILTO:srl@coverity.com", Filter.asURL("MAILTO:srl@coverity.com"));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ *   Copyright (c) 2016, Coverity, Inc.
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without modification,
+ *   are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or other
+ *   materials provided with the distribution.
+ *   - Neither the name of Coverity, Inc. nor the names of its contributors may be used
+ *   to endorse or promote products derived from this software without specific prior
+ *   written permission from Coverity, Inc.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ *   EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *   OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND INFRINGEMENT ARE DISCLAIMED.
+ *   IN NO EVENT SHALL THE COPYRIGHT HOLDER OR  CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ *   INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *   NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ *   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ *   WHETHER IN CONTRACT,  STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ *   ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ *   OF SUCH DAMAGE.
+ */
+package com.coverity.testsuite;
+
+import com.coverity.security.Escape;
+import com.coverity.security.Filter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+// Unit tests for the flight recorder events
+public class EscapeEventTest extends TestCase {
+
+    private static final String EVENT = "com.coverity.security.EscapeEvent";
+
+    public EscapeEventTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(EscapeEventTest.class);
+    }
+
+    public void testLargeInputs() throws Exception {
+        char[] chars = new char[100000];
+        Arrays.fill(chars, '<');
+        String large = new String(chars);
+        String url = "ssh://host/" + large;
+
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable(EVENT);
+            recording.start();
+            Escape.html(large);
+            Escape.jsString("short");
+            Escape.jsString(large, new StringBuilder());
+            Filter.asFlexibleURL(url);
+            recording.stop();
+            events = events(recording);
+        }
+
+        assertEquals(3, events.size());
+        RecordedEvent html = events.get(0);
+        assertEquals("Escape.html", html.getString("method"));
+        assertEquals(large.length(), html.getLong("inputLength"));
+        assertEquals(large.length() * "&lt;".length(), html.getLong("outputLength"));
+        assertTrue(html.getLong("elapsed") > 0);
+        assertNotNull(html.getStackTrace());
+
+        assertEquals("Escape.jsString(Appendable)", events.get(1).getString("method"));
+        assertEquals("Filter.asFlexibleURL", events.get(2).getString("method"));
+        assertEquals(url.length(), events.get(2).getLong("inputLength"));
+        assertEquals(url.length(), events.get(2).getLong("outputLength"));
+    }
+
+    public void testNotEnabled() throws Exception {
+        char[] chars = new char[100000];
+        Arrays.fill(chars, '<');
+        String large = new String(chars);
+
+        try (Recording recording = new Recording()) {
+            recording.disable(EVENT);
+            recording.start();
+            Escape.html(large);
+            recording.stop();
+            assertTrue(events(recording).isEmpty());
+        }
+    }
+
+    private static List<RecordedEvent> events(Recording recording) throws Exception {
+        Path file = Files.createTempFile("escape", ".jfr");
+        try {
+            recording.dump(file);
+            List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                if (event.getEventType().getName().equals(EVENT))
+                    events.add(event);
+            }
+            return events;
+        } finally {
+            Files.delete(file);
+        }
+    }
+}